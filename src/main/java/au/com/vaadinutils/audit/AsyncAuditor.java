@@ -0,0 +1,322 @@
+package au.com.vaadinutils.audit;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.apache.logging.log4j.Logger;
+
+import com.google.common.base.Preconditions;
+
+import au.com.vaadinutils.crud.CrudEntity;
+import au.com.vaadinutils.crud.events.CrudEventType;
+
+/**
+ * An Auditor that hands events to a background thread, so writing the audit
+ * doesn't add to the time taken to handle a user's save or delete.
+ *
+ * Events are put on a bounded ring buffer and a writer thread drains it in
+ * batches to an AuditWriter (e.g. JdbcAuditWriter or FileAuditWriter). A batch
+ * is written once batchSize events are waiting or flushInterval has passed
+ * since the first of them arrived. When the buffer is full the caller waits
+ * for room, unless another BackPressurePolicy is set.
+ *
+ * To use it in place of the AuditorLoggingImpl:
+ *
+ * AuditFactory.setAuditor(new AsyncAuditor(new FileAuditWriter(new
+ * File("audit.log"))));
+ *
+ * Call shutdown() when the application stops so the queued events are
+ * written, VUEntityManagerContextListener does this for the current Auditor.
+ */
+public class AsyncAuditor implements Auditor
+{
+	public static final int DEFAULT_CAPACITY = 10000;
+	public static final int DEFAULT_BATCH_SIZE = 100;
+	public static final long DEFAULT_FLUSH_INTERVAL_MILLIS = 1000;
+
+	/**
+	 * what to do with an event when the buffer is full
+	 */
+	public enum BackPressurePolicy
+	{
+		/**
+		 * discard the new event
+		 */
+		DROP_NEWEST,
+		/**
+		 * discard the oldest queued event to make room for the new one
+		 */
+		DROP_OLDEST,
+		/**
+		 * block the caller until there is room, the default as an audit trail
+		 * shouldn't lose events
+		 */
+		BLOCK
+	}
+
+	private final Logger logger = org.apache.logging.log4j.LogManager.getLogger();
+
+	private final ArrayBlockingQueue<AuditRecord> buffer;
+	private final AuditWriter writer;
+	private final Thread thread;
+
+	private volatile int batchSize = DEFAULT_BATCH_SIZE;
+	private volatile long flushIntervalMillis = DEFAULT_FLUSH_INTERVAL_MILLIS;
+	private volatile BackPressurePolicy backPressurePolicy = BackPressurePolicy.BLOCK;
+	private volatile boolean running = true;
+
+	/**
+	 * held for reading while an event is queued and for writing by shutdown(),
+	 * so no event is queued after the writer thread has seen running is false
+	 */
+	private final ReadWriteLock runningLock = new ReentrantReadWriteLock();
+
+	private final AtomicLong dropped = new AtomicLong();
+	private final AtomicLong written = new AtomicLong();
+	private final AtomicLong failed = new AtomicLong();
+
+	public AsyncAuditor(AuditWriter writer)
+	{
+		this(writer, DEFAULT_CAPACITY);
+	}
+
+	/**
+	 *
+	 * @param writer
+	 * @param capacity
+	 *            - the maximum number of events waiting to be written
+	 */
+	public AsyncAuditor(AuditWriter writer, int capacity)
+	{
+		Preconditions.checkNotNull(writer);
+		Preconditions.checkArgument(capacity > 0, "capacity must be greater than 0");
+		this.writer = writer;
+		this.buffer = new ArrayBlockingQueue<>(capacity);
+
+		thread = new Thread(new Runnable()
+		{
+
+			@Override
+			public void run()
+			{
+				drain();
+			}
+		}, "AsyncAuditor");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	public AsyncAuditor setBatchSize(int batchSize)
+	{
+		Preconditions.checkArgument(batchSize > 0, "batchSize must be greater than 0");
+		this.batchSize = batchSize;
+		return this;
+	}
+
+	public AsyncAuditor setFlushInterval(long flushInterval, TimeUnit unit)
+	{
+		this.flushIntervalMillis = unit.toMillis(flushInterval);
+		return this;
+	}
+
+	public AsyncAuditor setBackPressurePolicy(BackPressurePolicy backPressurePolicy)
+	{
+		Preconditions.checkNotNull(backPressurePolicy);
+		this.backPressurePolicy = backPressurePolicy;
+		return this;
+	}
+
+	@Override
+	public void audit(CrudEventType event, CrudEntity entity)
+	{
+		AuditRecord record = new AuditRecord(event, entity);
+		runningLock.readLock().lock();
+		try
+		{
+			if (!running)
+			{
+				logger.warn("Auditor has been shutdown, dropping {}", record);
+				dropped.incrementAndGet();
+				return;
+			}
+			enqueue(record);
+		}
+		finally
+		{
+			runningLock.readLock().unlock();
+		}
+	}
+
+	private void enqueue(AuditRecord record)
+	{
+		if (buffer.offer(record))
+		{
+			return;
+		}
+
+		switch (backPressurePolicy)
+		{
+			case DROP_OLDEST:
+				while (!buffer.offer(record))
+				{
+					if (buffer.poll() != null)
+					{
+						dropped.incrementAndGet();
+					}
+				}
+				return;
+			case BLOCK:
+				try
+				{
+					// the writer drains the buffer even if the AuditWriter fails
+					buffer.put(record);
+					return;
+				}
+				catch (InterruptedException e)
+				{
+					logger.warn("Interrupted waiting to audit, dropping {}", record);
+					Thread.currentThread().interrupt();
+				}
+				break;
+			default:
+				break;
+		}
+		dropped.incrementAndGet();
+	}
+
+	private void drain()
+	{
+		List<AuditRecord> batch = new ArrayList<>();
+		while (running || !buffer.isEmpty())
+		{
+			try
+			{
+				AuditRecord first = buffer.poll(flushIntervalMillis, TimeUnit.MILLISECONDS);
+				if (first == null)
+				{
+					continue;
+				}
+				batch.add(first);
+
+				long deadline = System.currentTimeMillis() + flushIntervalMillis;
+				int size = batchSize;
+				while (batch.size() < size && running)
+				{
+					buffer.drainTo(batch, size - batch.size());
+					long remaining = deadline - System.currentTimeMillis();
+					if (batch.size() >= size || remaining <= 0)
+					{
+						break;
+					}
+					AuditRecord next = buffer.poll(remaining, TimeUnit.MILLISECONDS);
+					if (next == null)
+					{
+						break;
+					}
+					batch.add(next);
+				}
+				// when shutting down write whatever is left without waiting
+				buffer.drainTo(batch, size - batch.size());
+				write(batch);
+			}
+			catch (InterruptedException e)
+			{
+				logger.warn("Audit writer interrupted");
+			}
+			finally
+			{
+				batch.clear();
+			}
+		}
+		try
+		{
+			writer.close();
+		}
+		catch (Exception e)
+		{
+			logger.error(e, e);
+		}
+	}
+
+	private void write(List<AuditRecord> batch)
+	{
+		if (batch.isEmpty())
+		{
+			return;
+		}
+		try
+		{
+			writer.write(batch);
+			written.addAndGet(batch.size());
+		}
+		catch (Throwable e)
+		{
+			failed.addAndGet(batch.size());
+			logger.error("Failed to write {} audit records", batch.size());
+			logger.error(e, e);
+		}
+	}
+
+	/**
+	 * Stops accepting events and waits for the queued events to be written.
+	 *
+	 * @param timeout
+	 * @param unit
+	 * @return false if the queued events weren't written before the timeout
+	 * @throws InterruptedException
+	 */
+	public boolean shutdown(long timeout, TimeUnit unit) throws InterruptedException
+	{
+		// the writer thread notices within the flush interval, it isn't
+		// interrupted as that could abort a write in progress
+		runningLock.writeLock().lock();
+		try
+		{
+			running = false;
+		}
+		finally
+		{
+			runningLock.writeLock().unlock();
+		}
+		thread.join(unit.toMillis(timeout));
+		return !thread.isAlive();
+	}
+
+	/**
+	 * @return the number of events waiting to be written
+	 */
+	public int getQueueDepth()
+	{
+		return buffer.size();
+	}
+
+	/**
+	 * @return the number of events discarded because the buffer was full or
+	 *         the auditor had been shutdown
+	 */
+	public long getDroppedCount()
+	{
+		return dropped.get();
+	}
+
+	/**
+	 * @return the number of events written
+	 */
+	public long getWrittenCount()
+	{
+		return written.get();
+	}
+
+	/**
+	 * @return the number of events lost because the AuditWriter failed
+	 */
+	public long getFailedCount()
+	{
+		return failed.get();
+	}
+}
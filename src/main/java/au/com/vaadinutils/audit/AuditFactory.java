@@ -19,6 +19,15 @@ public enum AuditFactory
 	return AuditFactory.SELF.auditor.get();
     }
 
+    /**
+     * Replaces the auditor used for CRUD events, e.g. to write the audit in
+     * the background rather than on the request thread:
+     *
+     * AuditFactory.setAuditor(new AsyncAuditor(new JdbcAuditWriter(dataSource,
+     * "audit")));
+     *
+     * @param auditor
+     */
     public static void setAuditor(Auditor auditor)
     {
 	AuditFactory.SELF.auditor.set(auditor);
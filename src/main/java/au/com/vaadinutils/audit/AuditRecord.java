@@ -0,0 +1,64 @@
+package au.com.vaadinutils.audit;
+
+import java.util.Date;
+
+import au.com.vaadinutils.crud.CrudEntity;
+import au.com.vaadinutils.crud.events.CrudEventType;
+
+/**
+ * The details of an audited event, taken from the entity at the time of the
+ * event so the entity isn't held (or lazy loaded) by the background writer.
+ */
+public class AuditRecord
+{
+	private final long time;
+	private final CrudEventType event;
+	private final String entityType;
+	private final Long entityId;
+	private final String entityName;
+
+	public AuditRecord(CrudEventType event, CrudEntity entity)
+	{
+		this.time = System.currentTimeMillis();
+		this.event = event;
+		this.entityType = entity.getClass().getSimpleName();
+		this.entityId = entity.getId();
+		this.entityName = entity.getName();
+	}
+
+	public Date getTime()
+	{
+		return new Date(time);
+	}
+
+	public long getTimeMillis()
+	{
+		return time;
+	}
+
+	public CrudEventType getEvent()
+	{
+		return event;
+	}
+
+	public String getEntityType()
+	{
+		return entityType;
+	}
+
+	public Long getEntityId()
+	{
+		return entityId;
+	}
+
+	public String getEntityName()
+	{
+		return entityName;
+	}
+
+	@Override
+	public String toString()
+	{
+		return event + " " + entityType + " " + entityName + " " + entityId;
+	}
+}
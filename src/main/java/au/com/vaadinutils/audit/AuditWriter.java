@@ -0,0 +1,17 @@
+package au.com.vaadinutils.audit;
+
+import java.util.List;
+
+/**
+ * Writes batches of audit records for the AsyncAuditor, called from its
+ * writer thread only.
+ */
+public interface AuditWriter
+{
+	void write(List<AuditRecord> batch) throws Exception;
+
+	/**
+	 * called once the AsyncAuditor has shut down
+	 */
+	void close() throws Exception;
+}
@@ -0,0 +1,70 @@
+package au.com.vaadinutils.audit;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
+import java.util.List;
+
+/**
+ * Appends audit records to a file, one tab separated line per record, flushed
+ * after each batch.
+ */
+public class FileAuditWriter implements AuditWriter
+{
+	private final File file;
+	private final SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS");
+	private Writer writer;
+
+	public FileAuditWriter(File file)
+	{
+		this.file = file;
+	}
+
+	@Override
+	public void write(List<AuditRecord> batch) throws IOException
+	{
+		if (writer == null)
+		{
+			writer = new BufferedWriter(
+					new OutputStreamWriter(new FileOutputStream(file, true), StandardCharsets.UTF_8));
+		}
+		for (AuditRecord record : batch)
+		{
+			writer.write(format.format(record.getTime()));
+			writer.write('\t');
+			writer.write(record.getEvent().toString());
+			writer.write('\t');
+			writer.write(record.getEntityType());
+			writer.write('\t');
+			writer.write(String.valueOf(record.getEntityId()));
+			writer.write('\t');
+			writer.write(clean(record.getEntityName()));
+			writer.write('\n');
+		}
+		writer.flush();
+	}
+
+	private String clean(String value)
+	{
+		if (value == null)
+		{
+			return "";
+		}
+		return value.replace('\t', ' ').replace('\n', ' ').replace('\r', ' ');
+	}
+
+	@Override
+	public void close() throws IOException
+	{
+		if (writer != null)
+		{
+			writer.close();
+			writer = null;
+		}
+	}
+}
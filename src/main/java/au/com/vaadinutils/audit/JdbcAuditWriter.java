@@ -0,0 +1,77 @@
+package au.com.vaadinutils.audit;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.List;
+
+import javax.sql.DataSource;
+
+/**
+ * Inserts audit records into a table using a JDBC batch per batch of records.
+ *
+ * The table needs the columns:
+ *
+ * audit_time TIMESTAMP, event VARCHAR, entity_type VARCHAR, entity_id BIGINT,
+ * entity_name VARCHAR
+ */
+public class JdbcAuditWriter implements AuditWriter
+{
+	private final DataSource dataSource;
+	private final String sql;
+
+	public JdbcAuditWriter(DataSource dataSource, String tableName)
+	{
+		this.dataSource = dataSource;
+		this.sql = "insert into " + tableName
+				+ " (audit_time, event, entity_type, entity_id, entity_name) values (?, ?, ?, ?, ?)";
+	}
+
+	@Override
+	public void write(List<AuditRecord> batch) throws SQLException
+	{
+		try (Connection connection = dataSource.getConnection())
+		{
+			boolean autoCommit = connection.getAutoCommit();
+			connection.setAutoCommit(false);
+			try (PreparedStatement statement = connection.prepareStatement(sql))
+			{
+				for (AuditRecord record : batch)
+				{
+					statement.setTimestamp(1, new Timestamp(record.getTimeMillis()));
+					statement.setString(2, record.getEvent().toString());
+					statement.setString(3, record.getEntityType());
+					if (record.getEntityId() != null)
+					{
+						statement.setLong(4, record.getEntityId());
+					}
+					else
+					{
+						statement.setNull(4, Types.BIGINT);
+					}
+					statement.setString(5, record.getEntityName());
+					statement.addBatch();
+				}
+				statement.executeBatch();
+				connection.commit();
+			}
+			catch (SQLException e)
+			{
+				connection.rollback();
+				throw e;
+			}
+			finally
+			{
+				connection.setAutoCommit(autoCommit);
+			}
+		}
+	}
+
+	@Override
+	public void close()
+	{
+		// connections are returned to the DataSource after each batch
+	}
+}
@@ -0,0 +1,293 @@
+package au.com.vaadinutils.crud;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.List;
+
+import javax.persistence.EntityManager;
+
+import org.apache.logging.log4j.Logger;
+
+import com.vaadin.data.Container;
+import com.vaadin.ui.UI;
+
+import au.com.bytecode.opencsv.CSVWriter;
+import au.com.vaadinutils.dao.EntityManagerProvider;
+import au.com.vaadinutils.dao.EntityManagerRunnable;
+import au.com.vaadinutils.util.BufferedPipe;
+
+/**
+ * Streams the contents of a container out as CSV without holding the whole
+ * export in memory.
+ *
+ * The container is paged through in fixed size chunks. Each chunk is rendered
+ * while holding the UI lock and then written to a BufferedPipe
+ * outside of the lock, so the download can drain the pipe while the next
+ * chunk is being produced.
+ *
+ * The rows are produced on a background thread with its own EntityManager,
+ * which is cleared after each chunk so the persistence context doesn't grow
+ * with the size of the export.
+ *
+ */
+class CSVExportStreamer
+{
+	public static final int DEFAULT_CHUNK_SIZE = 500;
+
+	private static final Logger logger = org.apache.logging.log4j.LogManager.getLogger();
+
+	interface RowRenderer
+	{
+		/**
+		 * called with the UI lock held
+		 *
+		 * @param id
+		 * @return the csv values for the row
+		 */
+		String[] renderRow(Object id);
+	}
+
+	private final UI ui;
+	private final Container container;
+	private final int chunkSize;
+	private final int maxRows;
+	private final String maxRowsMessage;
+
+	/**
+	 *
+	 * @param ui
+	 * @param container
+	 * @param chunkSize
+	 *            - the number of rows rendered each time the UI is locked
+	 * @param maxRows
+	 *            - the export stops after this many rows, 0 for no limit
+	 * @param maxRowsMessage
+	 *            - written as the last line when the export is stopped at
+	 *            maxRows
+	 */
+	CSVExportStreamer(UI ui, Container container, int chunkSize, int maxRows, String maxRowsMessage)
+	{
+		this.ui = ui;
+		this.container = container;
+		this.chunkSize = chunkSize;
+		this.maxRows = maxRows;
+		this.maxRowsMessage = maxRowsMessage;
+	}
+
+	interface CSVProducer
+	{
+		/**
+		 * called on the producer thread, which has its own EntityManager
+		 *
+		 * @param writer
+		 * @throws Exception
+		 */
+		void produce(Writer writer) throws Exception;
+	}
+
+	/**
+	 * Starts the thread that produces the csv and returns the stream the csv
+	 * can be read from.
+	 *
+	 * The caller will normally be holding the UI lock (e.g. from
+	 * StreamSource.getStream()) so only the headers are written before the
+	 * stream is handed back, the rows are produced once the lock is released.
+	 *
+	 * @param headers
+	 * @param renderer
+	 * @return
+	 * @throws InterruptedException
+	 */
+	InputStream stream(final List<String> headers, final RowRenderer renderer) throws InterruptedException
+	{
+		return stream(new CSVProducer()
+		{
+
+			@Override
+			public void produce(Writer writer) throws IOException
+			{
+				writeCsv(new CSVWriter(writer), headers, renderer);
+			}
+		});
+	}
+
+	/**
+	 * Runs the producer on a background thread with its own EntityManager and
+	 * returns the stream that the producer's output can be read from.
+	 *
+	 * @param producer
+	 * @return
+	 * @throws InterruptedException
+	 */
+	static InputStream stream(final CSVProducer producer) throws InterruptedException
+	{
+		final BufferedPipe pipe = new BufferedPipe();
+
+		Thread thread = new Thread(new EntityManagerRunnable(new Runnable()
+		{
+
+			@Override
+			public void run()
+			{
+				Writer writer = new BufferedWriter(new OutputStreamWriter(pipe));
+				try
+				{
+					producer.produce(writer);
+					writer.close();
+				}
+				catch (Throwable e)
+				{
+					logger.error(e, e);
+					// the download fails rather than ending early
+					pipe.fail(e);
+				}
+			}
+		}), "CSV Export");
+		thread.setDaemon(true);
+		thread.start();
+
+		return pipe.getInputStream();
+	}
+
+	private void writeCsv(CSVWriter writer, List<String> headers, RowRenderer renderer) throws IOException
+	{
+		writer.writeNext(headers.toArray(new String[] {}));
+		writer.flush();
+
+		final ItemIdPages pages = new ItemIdPages(container);
+		int written = 0;
+		List<String[]> rows;
+		do
+		{
+			rows = renderChunk(pages, renderer);
+			for (String[] row : rows)
+			{
+				if (maxRows > 0 && written >= maxRows)
+				{
+					writer.writeNext(new String[] { maxRowsMessage });
+					writer.flush();
+					return;
+				}
+				writer.writeNext(row);
+				written++;
+			}
+
+			EntityManager em = EntityManagerProvider.getEntityManager();
+			if (em != null)
+			{
+				em.clear();
+			}
+		}
+		while (rows.size() == chunkSize);
+		writer.flush();
+	}
+
+	private List<String[]> renderChunk(final ItemIdPages pages, final RowRenderer renderer)
+	{
+		final List<String[]> rows = new ArrayList<>(chunkSize);
+		ui.accessSynchronously(new Runnable()
+		{
+
+			@Override
+			public void run()
+			{
+				for (Object id : pages.next(chunkSize))
+				{
+					rows.add(renderer.renderRow(id));
+				}
+			}
+		});
+		return rows;
+	}
+
+	/**
+	 * Pages through a container's item ids, using Container.Indexed where
+	 * possible so that the full list of ids is never requested from the
+	 * container. Otherwise the ids are walked once, with the iterator kept
+	 * from one page to the next.
+	 */
+	static class ItemIdPages
+	{
+		private final Container container;
+		private Iterator<?> ids;
+		private int position = 0;
+
+		ItemIdPages(Container container)
+		{
+			this.container = container;
+		}
+
+		/**
+		 * called with the UI lock held
+		 *
+		 * @param count
+		 * @return the next count ids, fewer at the end of the container
+		 */
+		List<?> next(int count)
+		{
+			int size = container.size();
+			if (position >= size)
+			{
+				return Collections.emptyList();
+			}
+			int end = Math.min(size, position + count);
+
+			final List<?> page;
+			if (container instanceof Container.Indexed)
+			{
+				page = ((Container.Indexed) container).getItemIds(position, end - position);
+			}
+			else
+			{
+				page = nextFromIterator(end - position);
+			}
+			position += page.size();
+			return page;
+		}
+
+		private List<Object> nextFromIterator(int count)
+		{
+			if (ids == null)
+			{
+				ids = idsFrom(position);
+			}
+			List<Object> page = new ArrayList<>(count);
+			try
+			{
+				while (page.size() < count && ids.hasNext())
+				{
+					page.add(ids.next());
+				}
+			}
+			catch (ConcurrentModificationException e)
+			{
+				// the container changed since the last page, walk back to
+				// where we were
+				page.clear();
+				ids = idsFrom(position);
+				while (page.size() < count && ids.hasNext())
+				{
+					page.add(ids.next());
+				}
+			}
+			return page;
+		}
+
+		private Iterator<?> idsFrom(int index)
+		{
+			Iterator<?> iterator = container.getItemIds().iterator();
+			for (int i = 0; i < index && iterator.hasNext(); i++)
+			{
+				iterator.next();
+			}
+			return iterator;
+		}
+	}
+}
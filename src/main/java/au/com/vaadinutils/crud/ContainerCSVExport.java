@@ -37,15 +37,18 @@ import com.vaadin.ui.Window;
 import au.com.bytecode.opencsv.CSVWriter;
 import au.com.vaadinutils.fields.ClickableLabel;
 import au.com.vaadinutils.jasper.AttachmentType;
-import au.com.vaadinutils.util.PipedOutputStreamWrapper;
 
 public class ContainerCSVExport<E>
 {
-        PipedOutputStreamWrapper stream = new PipedOutputStreamWrapper();
         Logger logger = org.apache.logging.log4j.LogManager.getLogger();
         private HeadingPropertySet headingsSet;
         private Table table;
         private LinkedHashMap<String, Object> extraColumnHeadersAndPropertyIds;
+        private boolean streaming = true;
+        private int chunkSize = CSVExportStreamer.DEFAULT_CHUNK_SIZE;
+
+        private static final int MAX_ROWS = 100000;
+        private static final String MAX_ROWS_MESSAGE = "Export stopped at 100,000 lines.";
 
         public ContainerCSVExport(final String fileName, final Table table, final HeadingPropertySet headingsSet)
         {
@@ -91,6 +94,10 @@ public class ContainerCSVExport<E>
 
                                 try
                                 {
+                                        if (streaming)
+                                        {
+                                                return stream(table, headingsSet);
+                                        }
                                         ByteArrayOutputStream arrayOutputStream = new ByteArrayOutputStream();
                                         BufferedWriter bufferedWriter = new BufferedWriter(new OutputStreamWriter(arrayOutputStream));
 
@@ -147,11 +154,86 @@ public class ContainerCSVExport<E>
                 return downloadButton;
         }
 
+        /**
+         * When streaming (the default) the rows are written to the download as
+         * they are produced rather than the whole export being rendered into
+         * memory first.
+         * 
+         * @param streaming
+         */
+        public void setStreaming(boolean streaming)
+        {
+                this.streaming = streaming;
+        }
+
+        /**
+         * The number of rows read from the container at a time.
+         * 
+         * @param chunkSize
+         */
+        public void setChunkSize(int chunkSize)
+        {
+                this.chunkSize = chunkSize;
+        }
+
+        private InputStream stream(final Table table, HeadingPropertySet headingsSet) throws InterruptedException
+        {
+                final Set<Object> properties = new LinkedHashSet<>();
+                List<String> headerList = getHeaders(headingsSet, properties);
+
+                CSVExportStreamer streamer = new CSVExportStreamer(table.getUI(), table.getContainerDataSource(), chunkSize,
+                                MAX_ROWS, MAX_ROWS_MESSAGE);
+                return streamer.stream(headerList, new CSVExportStreamer.RowRenderer()
+                {
+
+                        @Override
+                        public String[] renderRow(Object id)
+                        {
+                                return getRowValues(table, id, properties);
+                        }
+                });
+        }
+
         public void export(Table table, Writer stream, HeadingPropertySet headingsSet) throws IOException
         {
 
                 CSVWriter writer = new CSVWriter(stream);
 
+                Set<Object> properties = new LinkedHashSet<>();
+                List<String> headerList = getHeaders(headingsSet, properties);
+
+                writeHeaders(writer, headerList);
+
+                final CSVExportStreamer.ItemIdPages pages = new CSVExportStreamer.ItemIdPages(table.getContainerDataSource());
+                int ctr = 0;
+                List<?> ids;
+                do
+                {
+                        ids = pages.next(chunkSize);
+                        for (Object id : ids)
+                        {
+                                if (ctr >= MAX_ROWS)
+                                {
+                                        writer.writeNext(new String[] { MAX_ROWS_MESSAGE });
+                                        writer.flush();
+                                        return;
+                                }
+                                writeRow(writer, table, id, properties);
+                                ctr++;
+                        }
+                }
+                while (ids.size() == chunkSize);
+
+                writer.flush();
+
+        }
+
+        /**
+         * builds the list of column headers and adds the propertyIds of the
+         * heading columns to properties
+         */
+        private List<String> getHeaders(HeadingPropertySet headingsSet, Set<Object> properties)
+        {
                 Map<String, Object> headerPropertyMap = new LinkedHashMap<>();
 
                 List<HeadingToPropertyId> cols = headingsSet.getColumns();
@@ -165,28 +247,16 @@ public class ContainerCSVExport<E>
                 extraColumnHeadersAndPropertyIds = getExtraColumnHeadersAndPropertyIds();
                 headerList.addAll(extraColumnHeadersAndPropertyIds.keySet());
 
-                writeHeaders(writer, headerList);
-
-                Set<Object> properties = new LinkedHashSet<>();
                 properties.addAll(headerPropertyMap.values());
-
-                int ctr = 0;
-                for (Object id : table.getContainerDataSource().getItemIds())
-                {
-                        writeRow(writer, table, id, properties);
-                        ctr++;
-                        if (ctr > 100000)
-                        {
-                                writer.writeNext(new String[] { "Export stopped at 100,000 lines." });
-                                break;
-                        }
-                }
-
-                writer.flush();
-
+                return headerList;
         }
 
         private void writeRow(CSVWriter writer, Table table, Object id, Set<Object> properties)
+        {
+                writer.writeNext(getRowValues(table, id, properties));
+        }
+
+        private String[] getRowValues(Table table, Object id, Set<Object> properties)
         {
                 Item item = table.getItem(id);
                 String[] values = new String[properties.size() + extraColumnHeadersAndPropertyIds.size()];
@@ -289,7 +359,7 @@ public class ContainerCSVExport<E>
                         }
                         values[i++] = value;
                 }
-                writer.writeNext(values);
+                return values;
 
         }
 
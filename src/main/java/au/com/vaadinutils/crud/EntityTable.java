@@ -1,5 +1,6 @@
 package au.com.vaadinutils.crud;
 
+import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
@@ -18,6 +19,8 @@ import com.vaadin.ui.themes.ValoTheme;
 
 import org.apache.logging.log4j.LogManager;
 
+import au.com.vaadinutils.dao.BatchingPerRequestEntityProvider;
+import au.com.vaadinutils.dao.RowCount;
 import au.com.vaadinutils.errorHandling.ErrorWindow;
 
 @Deprecated
@@ -57,6 +60,26 @@ public class EntityTable<E> extends Table implements EntityList<E>
 		return prev;
 	}
 
+	/**
+	 * @return the number of rows for a caption, e.g. "10,000+" when the
+	 *         container's CountStrategy capped the count, grouped for the
+	 *         table's locale
+	 */
+	public String getRowCountCaption()
+	{
+		final Locale locale = getLocale() != null ? getLocale() : Locale.ROOT;
+		if (entityContainer.getEntityProvider() instanceof BatchingPerRequestEntityProvider)
+		{
+			final RowCount count = ((BatchingPerRequestEntityProvider<?>) entityContainer.getEntityProvider())
+					.getLastCount();
+			if (count != null)
+			{
+				return count.format(locale);
+			}
+		}
+		return String.format(locale, "%,d", size());
+	}
+
 	@Override
 	public void setRowChangeListener(RowChangeListener<E> rowChangeListener)
 	{
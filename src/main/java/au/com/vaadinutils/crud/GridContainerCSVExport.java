@@ -17,8 +17,11 @@ import java.util.Set;
 import org.apache.logging.log4j.Logger;
 import org.jsoup.Jsoup;
 
+import com.vaadin.addon.jpacontainer.JPAContainer;
+import com.vaadin.data.Container;
 import com.vaadin.data.Item;
 import com.vaadin.data.Property;
+import com.vaadin.data.util.GeneratedPropertyContainer;
 import com.vaadin.server.FileDownloader;
 import com.vaadin.server.StreamResource;
 import com.vaadin.server.StreamResource.StreamSource;
@@ -32,15 +35,16 @@ import com.vaadin.ui.Window;
 
 import au.com.bytecode.opencsv.CSVWriter;
 import au.com.vaadinutils.jasper.AttachmentType;
-import au.com.vaadinutils.util.PipedOutputStreamWrapper;
 
 public class GridContainerCSVExport<E>
 {
-        PipedOutputStreamWrapper stream = new PipedOutputStreamWrapper();
         Logger logger = org.apache.logging.log4j.LogManager.getLogger();
         private GridHeadingPropertySet<E> headingsSet;
         private Grid grid;
         private LinkedHashMap<String, Object> extraColumnHeadersAndPropertyIds;
+        private boolean streaming = true;
+        private boolean databaseExport = false;
+        private int chunkSize = CSVExportStreamer.DEFAULT_CHUNK_SIZE;
 
         public GridContainerCSVExport(final String fileName, final Grid grid, final GridHeadingPropertySet<E> headingsSet)
         {
@@ -85,6 +89,10 @@ public class GridContainerCSVExport<E>
 
                                 try
                                 {
+                                        if (streaming)
+                                        {
+                                                return stream(grid, headingsSet);
+                                        }
                                         ByteArrayOutputStream arrayOutputStream = new ByteArrayOutputStream();
                                         BufferedWriter bufferedWriter = new BufferedWriter(new OutputStreamWriter(arrayOutputStream));
 
@@ -141,11 +149,120 @@ public class GridContainerCSVExport<E>
                 return downloadButton;
         }
 
+        /**
+         * When streaming (the default) the rows are written to the download as
+         * they are produced rather than the whole export being rendered into
+         * memory first.
+         * 
+         * @param streaming
+         */
+        public void setStreaming(boolean streaming)
+        {
+                this.streaming = streaming;
+        }
+
+        /**
+         * The number of rows read from the container at a time.
+         * 
+         * @param chunkSize
+         */
+        public void setChunkSize(int chunkSize)
+        {
+                this.chunkSize = chunkSize;
+        }
+
+        /**
+         * When the grid is backed by a JPAContainer the export is read
+         * directly from the database with a keyset paged tuple query rather
+         * than through the container. See JpaKeysetCSVExport for the
+         * limitations, extra columns are not supported in this mode.
+         * 
+         * @param databaseExport
+         */
+        public void setDatabaseExport(boolean databaseExport)
+        {
+                this.databaseExport = databaseExport;
+        }
+
+        private InputStream stream(final Grid grid, GridHeadingPropertySet<E> headingsSet) throws InterruptedException
+        {
+                final JPAContainer<E> jpaContainer = getJpaContainer(grid.getContainerDataSource());
+                if (databaseExport && jpaContainer != null)
+                {
+                        final JpaKeysetCSVExport<E> export = new JpaKeysetCSVExport<>(jpaContainer, headingsSet);
+                        return CSVExportStreamer.stream(new CSVExportStreamer.CSVProducer()
+                        {
+
+                                @Override
+                                public void produce(Writer writer) throws IOException
+                                {
+                                        export.export(writer);
+                                }
+                        });
+                }
+
+                final Set<Object> properties = new LinkedHashSet<>();
+                List<String> headerList = getHeaders(headingsSet, properties);
+
+                CSVExportStreamer streamer = new CSVExportStreamer(grid.getUI(), grid.getContainerDataSource(), chunkSize, 0,
+                                null);
+                return streamer.stream(headerList, new CSVExportStreamer.RowRenderer()
+                {
+
+                        @Override
+                        public String[] renderRow(Object id)
+                        {
+                                return getRowValues(grid, id, properties);
+                        }
+                });
+        }
+
         public void export(Grid grid, Writer stream, GridHeadingPropertySet<E> headingsSet) throws IOException
         {
 
                 CSVWriter writer = new CSVWriter(stream);
 
+                Set<Object> properties = new LinkedHashSet<>();
+                List<String> headerList = getHeaders(headingsSet, properties);
+
+                writeHeaders(writer, headerList);
+
+                final CSVExportStreamer.ItemIdPages pages = new CSVExportStreamer.ItemIdPages(grid.getContainerDataSource());
+                List<?> ids;
+                do
+                {
+                        ids = pages.next(chunkSize);
+                        for (Object id : ids)
+                        {
+                                writeRow(writer, grid, id, properties);
+                        }
+                }
+                while (ids.size() == chunkSize);
+
+                writer.flush();
+
+        }
+
+        @SuppressWarnings("unchecked")
+        private JPAContainer<E> getJpaContainer(Container container)
+        {
+                if (container instanceof GeneratedPropertyContainer)
+                {
+                        container = ((GeneratedPropertyContainer) container).getWrappedContainer();
+                }
+                if (container instanceof JPAContainer)
+                {
+                        return (JPAContainer<E>) container;
+                }
+                return null;
+        }
+
+        /**
+         * builds the list of column headers and adds the propertyIds of the
+         * heading columns to properties
+         */
+        private List<String> getHeaders(GridHeadingPropertySet<E> headingsSet, Set<Object> properties)
+        {
                 Map<String, Object> headerPropertyMap = new LinkedHashMap<>();
 
                 List<GridHeadingToPropertyId> cols = headingsSet.getColumns();
@@ -159,21 +276,16 @@ public class GridContainerCSVExport<E>
                 extraColumnHeadersAndPropertyIds = getExtraColumnHeadersAndPropertyIds();
                 headerList.addAll(extraColumnHeadersAndPropertyIds.keySet());
 
-                writeHeaders(writer, headerList);
-
-                Set<Object> properties = new LinkedHashSet<>();
                 properties.addAll(headerPropertyMap.values());
-
-                for (Object id : grid.getContainerDataSource().getItemIds())
-                {
-                        writeRow(writer, grid, id, properties);
-                }
-
-                writer.flush();
-
+                return headerList;
         }
 
         private void writeRow(CSVWriter writer, Grid grid, Object id, Set<Object> properties)
+        {
+                writer.writeNext(getRowValues(grid, id, properties));
+        }
+
+        private String[] getRowValues(Grid grid, Object id, Set<Object> properties)
         {
                 Item item = grid.getContainerDataSource().getItem(id);
                 String[] values = new String[properties.size() + extraColumnHeadersAndPropertyIds.size()];
@@ -213,7 +325,7 @@ public class GridContainerCSVExport<E>
                         }
                         values[i++] = value;
                 }
-                writer.writeNext(values);
+                return values;
 
         }
 
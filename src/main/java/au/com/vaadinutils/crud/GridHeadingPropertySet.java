@@ -583,6 +583,7 @@ public class GridHeadingPropertySet<E> implements GridHeadingPropertySetIfc<E>
 
 			if (!deferLoadSettings)
 			{
+				UserSettingsStorageFactory.preload(uniqueId + "-");
 				configureSaveColumnWidths(grid, uniqueId);
 				configureSaveColumnOrder(grid, uniqueId);
 				configureSaveColumnVisible(grid, uniqueId);
@@ -623,6 +624,7 @@ public class GridHeadingPropertySet<E> implements GridHeadingPropertySetIfc<E>
 	{
 		Preconditions.checkState(grid != null, "You must call applytoGrid first");
 
+		UserSettingsStorageFactory.preload(uniqueId + "-");
 		configureSaveColumnWidths(grid, uniqueId);
 		configureSaveColumnOrder(grid, uniqueId);
 		configureSaveColumnVisible(grid, uniqueId);
@@ -473,6 +473,7 @@ public class GridHeadingV2PropertySet<E> implements GridHeadingPropertySetIfc<E>
 
 			if (!deferLoadSettings)
 			{
+				UserSettingsStorageFactory.preload(uniqueId + "-");
 				configureSaveColumnWidths(grid);
 				configureSaveColumnOrder(grid);
 				configureSaveColumnVisible(grid);
@@ -523,6 +524,7 @@ public class GridHeadingV2PropertySet<E> implements GridHeadingPropertySetIfc<E>
 	{
 		Preconditions.checkState(grid != null, "You must call applytoGrid first");
 
+		UserSettingsStorageFactory.preload(uniqueId + "-");
 		configureSaveColumnWidths(grid);
 		configureSaveColumnOrder(grid);
 		configureSaveColumnVisible(grid);
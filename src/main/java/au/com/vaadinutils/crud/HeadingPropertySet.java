@@ -638,6 +638,7 @@ public class HeadingPropertySet
 				eraseSavedConfig(uniqueTableId);
 			}
 
+			UserSettingsStorageFactory.preload(uniqueTableId + "-");
 			configureSaveColumnWidths(table, uniqueTableId);
 			configureSaveColumnOrder(table, uniqueTableId);
 			configureSaveColumnVisible(table, uniqueTableId);
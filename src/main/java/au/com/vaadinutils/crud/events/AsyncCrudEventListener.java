@@ -0,0 +1,352 @@
+package au.com.vaadinutils.crud.events;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.logging.log4j.Logger;
+
+import com.google.common.base.Preconditions;
+import com.vaadin.server.ErrorHandlingRunnable;
+import com.vaadin.ui.UI;
+
+import au.com.vaadinutils.crud.CrudEntity;
+import au.com.vaadinutils.dao.EntityManagerProvider;
+import au.com.vaadinutils.dao.EntityManagerRunnable;
+
+/**
+ * Delivers crud events to a listener in the background so a slow listener
+ * doesn't hold up the save that published the event.
+ *
+ * Each AsyncCrudEventListener has its own bounded queue which is drained on
+ * the EntityManagerProvider's shared executor, with its own EntityManager.
+ * Events are delivered to the listener in the order they were published, one
+ * at a time. The entity passed to the listener was loaded by the publisher's
+ * EntityManager, reload it if you need it to be managed.
+ *
+ * If a UI is set the listener is called through UI.access(), for listeners
+ * that update components. The drain doesn't wait for the UI's session, it
+ * hands the session one event and the next event is only taken from the queue
+ * once the session has delivered it, so the queue limit and coalescing still
+ * apply while the UI is busy.
+ *
+ * With coalescing enabled, an event that is still queued is replaced by a
+ * later event of the same type for the same entity class, so a burst of 50
+ * edits results in a single refresh. The replacement goes to the back of the
+ * queue, so it is still delivered after the events published before it.
+ *
+ * Register with CrudEventDistributer.addListener() (or addAsyncListener()) and
+ * remove using this object rather than the wrapped listener.
+ */
+public class AsyncCrudEventListener implements CrudEventListener
+{
+	public static final int DEFAULT_QUEUE_LIMIT = 1000;
+
+	private static final Logger logger = org.apache.logging.log4j.LogManager.getLogger();
+
+	private final CrudEventListener listener;
+
+	private final Object lock = new Object();
+
+	/**
+	 * keyed by the coalescing key when coalescing, otherwise by a sequence
+	 * number. Guarded by lock.
+	 */
+	private final LinkedHashMap<Object, Event> queue = new LinkedHashMap<>();
+	private boolean draining = false;
+	private long sequence = 0;
+
+	private volatile UI ui;
+	private volatile boolean coalesce = false;
+	private volatile int queueLimit = DEFAULT_QUEUE_LIMIT;
+
+	private final AtomicLong dropped = new AtomicLong();
+	private final AtomicLong coalesced = new AtomicLong();
+
+	private static class Event
+	{
+		final CrudEventType type;
+		final CrudEntity entity;
+
+		Event(CrudEventType type, CrudEntity entity)
+		{
+			this.type = type;
+			this.entity = entity;
+		}
+	}
+
+	private static class CoalescingKey
+	{
+		final CrudEventType type;
+		final Class<?> entityClass;
+
+		CoalescingKey(CrudEventType type, Class<?> entityClass)
+		{
+			this.type = type;
+			this.entityClass = entityClass;
+		}
+
+		@Override
+		public int hashCode()
+		{
+			return 31 * type.hashCode() + entityClass.hashCode();
+		}
+
+		@Override
+		public boolean equals(Object obj)
+		{
+			if (!(obj instanceof CoalescingKey))
+			{
+				return false;
+			}
+			CoalescingKey other = (CoalescingKey) obj;
+			return type == other.type && entityClass == other.entityClass;
+		}
+	}
+
+	public AsyncCrudEventListener(CrudEventListener listener)
+	{
+		Preconditions.checkNotNull(listener);
+		this.listener = listener;
+	}
+
+	/**
+	 * deliver events with the UI locked
+	 *
+	 * @param ui
+	 * @return
+	 */
+	public AsyncCrudEventListener setUI(UI ui)
+	{
+		this.ui = ui;
+		return this;
+	}
+
+	/**
+	 * replace a queued event with a later event of the same type for the same
+	 * entity class
+	 *
+	 * @param coalesce
+	 * @return
+	 */
+	public AsyncCrudEventListener setCoalesce(boolean coalesce)
+	{
+		this.coalesce = coalesce;
+		return this;
+	}
+
+	/**
+	 * @param queueLimit
+	 *            - events published while this many are queued are dropped
+	 * @return
+	 */
+	public AsyncCrudEventListener setQueueLimit(int queueLimit)
+	{
+		Preconditions.checkArgument(queueLimit > 0, "queueLimit must be greater than 0");
+		this.queueLimit = queueLimit;
+		return this;
+	}
+
+	public CrudEventListener getListener()
+	{
+		return listener;
+	}
+
+	@Override
+	public void crudEvent(CrudEventType event, CrudEntity entity)
+	{
+		boolean startDrain = false;
+		synchronized (lock)
+		{
+			final Object key = coalesce ? new CoalescingKey(event, entity.getClass()) : sequence++;
+			if (coalesce && queue.remove(key) != null)
+			{
+				// to the back, after any events published since
+				queue.put(key, new Event(event, entity));
+				coalesced.incrementAndGet();
+			}
+			else if (queue.size() >= queueLimit)
+			{
+				dropped.incrementAndGet();
+				logger.warn("Event queue for {} is full, dropping {} {}", listener, event, entity.getName());
+			}
+			else
+			{
+				queue.put(key, new Event(event, entity));
+			}
+
+			// also after a rejected drain, which left events queued
+			if (!draining && !queue.isEmpty())
+			{
+				draining = true;
+				startDrain = true;
+			}
+		}
+		if (startDrain)
+		{
+			startDrain();
+		}
+	}
+
+	/**
+	 * submits a drain, draining must already be set
+	 */
+	private void startDrain()
+	{
+		try
+		{
+			submitDrain(new Runnable()
+			{
+
+				@Override
+				public void run()
+				{
+					drain();
+				}
+			});
+		}
+		catch (RejectedExecutionException e)
+		{
+			// the events stay queued, the next event published retries
+			logger.warn("Executor is full, delivery to {} is delayed", listener);
+			synchronized (lock)
+			{
+				draining = false;
+			}
+		}
+	}
+
+	void submitDrain(Runnable drain)
+	{
+		EntityManagerProvider.submit(new EntityManagerRunnable(drain));
+	}
+
+	void drain()
+	{
+		while (true)
+		{
+			final Event event;
+			synchronized (lock)
+			{
+				Iterator<Map.Entry<Object, Event>> itr = queue.entrySet().iterator();
+				if (!itr.hasNext())
+				{
+					draining = false;
+					return;
+				}
+				event = itr.next().getValue();
+				itr.remove();
+			}
+			try
+			{
+				if (deliver(event))
+				{
+					// the UI's session continues the drain once it has run
+					return;
+				}
+			}
+			catch (Throwable e)
+			{
+				logger.error(e, e);
+			}
+		}
+	}
+
+	/**
+	 * @return true if the event was handed to the UI's session, which starts
+	 *         the next drain after delivering it
+	 */
+	private boolean deliver(final Event event)
+	{
+		UI target = ui;
+		if (target == null)
+		{
+			listener.crudEvent(event.type, event.entity);
+			return false;
+		}
+		if (target.getSession() == null)
+		{
+			logger.debug("UI is detached, dropping {} {}", event.type, event.entity.getName());
+			return false;
+		}
+		target.access(new ErrorHandlingRunnable()
+		{
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			public void run()
+			{
+				try
+				{
+					runWithEntityManager(new Runnable()
+					{
+
+						@Override
+						public void run()
+						{
+							listener.crudEvent(event.type, event.entity);
+						}
+					});
+				}
+				finally
+				{
+					startDrain();
+				}
+			}
+
+			@Override
+			public void handleError(Exception exception)
+			{
+				// detached before the session ran it
+				logger.debug("UI is detached, dropping {} {}", event.type, event.entity.getName());
+				startDrain();
+			}
+		});
+		return true;
+	}
+
+	/**
+	 * the session may run an access() task on a thread without an
+	 * EntityManager
+	 */
+	void runWithEntityManager(Runnable runnable)
+	{
+		if (EntityManagerProvider.getEntityManager() == null)
+		{
+			new EntityManagerRunnable(runnable).run();
+		}
+		else
+		{
+			runnable.run();
+		}
+	}
+
+	/**
+	 * @return the number of events waiting to be delivered
+	 */
+	public int getQueueDepth()
+	{
+		synchronized (lock)
+		{
+			return queue.size();
+		}
+	}
+
+	/**
+	 * @return the number of events dropped because the queue was full
+	 */
+	public long getDroppedCount()
+	{
+		return dropped.get();
+	}
+
+	/**
+	 * @return the number of events replaced by a later event
+	 */
+	public long getCoalescedCount()
+	{
+		return coalesced.get();
+	}
+}
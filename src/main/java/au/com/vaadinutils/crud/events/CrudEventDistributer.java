@@ -3,6 +3,8 @@ package au.com.vaadinutils.crud.events;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 
+import com.vaadin.ui.UI;
+
 import au.com.vaadinutils.audit.AuditFactory;
 import au.com.vaadinutils.crud.BaseCrudView;
 import au.com.vaadinutils.crud.CrudEntity;
@@ -29,6 +31,27 @@ public enum CrudEventDistributer
 		list.addListener(listener);
 	}
 
+	/**
+	 * Registers a listener that is called in the background rather than on
+	 * the thread publishing the event, see AsyncCrudEventListener.
+	 *
+	 * @param type
+	 * @param listener
+	 * @param ui
+	 *            - if not null the listener is called with the UI locked
+	 * @param coalesce
+	 *            - collapse queued events of the same type for the same entity
+	 *            class into one
+	 * @return the registered listener, pass this to removeListener
+	 */
+	public static AsyncCrudEventListener addAsyncListener(Class<? extends BaseCrudView<?>> type,
+			CrudEventListener listener, UI ui, boolean coalesce)
+	{
+		AsyncCrudEventListener asyncListener = new AsyncCrudEventListener(listener).setUI(ui).setCoalesce(coalesce);
+		addListener(type, asyncListener);
+		return asyncListener;
+	}
+
 	public static void removeListener(Class<? extends BaseCrudView<?>> type, CrudEventListener listener)
 	{
 		ListenerManager<CrudEventListener> list = SELF.listeners.get(type);
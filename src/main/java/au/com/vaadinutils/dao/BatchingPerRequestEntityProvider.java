@@ -18,11 +18,15 @@ package au.com.vaadinutils.dao;
 
 import javax.persistence.EntityManager;
 
+import com.google.common.base.Objects;
 import com.vaadin.addon.jpacontainer.BatchableEntityProvider;
 import com.vaadin.addon.jpacontainer.CachingEntityProvider;
+import com.vaadin.addon.jpacontainer.EntityContainer;
+import com.vaadin.addon.jpacontainer.EntityProviderChangeEvent;
 import com.vaadin.addon.jpacontainer.provider.BatchUpdatePerformedEvent;
 import com.vaadin.addon.jpacontainer.provider.BatchableLocalEntityProvider;
 import com.vaadin.addon.jpacontainer.provider.CachingMutableLocalEntityProvider;
+import com.vaadin.data.Container.Filter;
 
 /**
  * A very simple implementation of {@link BatchableEntityProvider} with caching
@@ -41,6 +45,14 @@ public class BatchingPerRequestEntityProvider<T> extends CachingMutableLocalEnti
 
 	private static final long serialVersionUID = 9174163487778140520L;
 
+	private CountStrategy countStrategy;
+
+	/**
+	 * the last count, so repeated calls to size() don't count again
+	 */
+	private transient RowCount lastCount;
+	private transient Filter lastCountFilter;
+
 //	EntityManager em = EntityManagerProvider.getEntityManager();
 	/**
 	 * Creates a new <code>CachingBatchableLocalEntityProvider</code>. The
@@ -57,6 +69,88 @@ public class BatchingPerRequestEntityProvider<T> extends CachingMutableLocalEnti
 	}
 
 
+	/**
+	 * How the rows are counted, for example capped at a limit or estimated,
+	 * when an exact count of a large table is too slow.
+	 * 
+	 * Containers with a QueryModifierDelegate are always counted exactly, as
+	 * the strategy can't see the delegate's changes to the query.
+	 * 
+	 * @param countStrategy
+	 *            - null for an exact count, the default
+	 */
+	public void setCountStrategy(CountStrategy countStrategy)
+	{
+		this.countStrategy = countStrategy;
+		resetCount();
+	}
+
+	public CountStrategy getCountStrategy()
+	{
+		return countStrategy;
+	}
+
+	/**
+	 * @return the last count returned to the container, e.g. to show "10,000+"
+	 *         when the count was capped, or null if the rows haven't been
+	 *         counted since they last changed
+	 */
+	public RowCount getLastCount()
+	{
+		return lastCount;
+	}
+
+	@Override
+	public int getEntityCount(final EntityContainer<T> container, final Filter filter)
+	{
+		if (countStrategy == null || (container != null && container.getQueryModifierDelegate() != null))
+		{
+			final int count = super.getEntityCount(container, filter);
+			lastCount = RowCount.exact(count);
+			lastCountFilter = filter;
+			return count;
+		}
+		if (lastCount != null && Objects.equal(filter, lastCountFilter))
+		{
+			return lastCount.getCount();
+		}
+
+		lastCount = countStrategy.count(getEntityClass(), filter, new CountStrategy.ExactCounter()
+		{
+			@Override
+			public int count()
+			{
+				return BatchingPerRequestEntityProvider.super.getEntityCount(container, filter);
+			}
+		});
+		lastCountFilter = filter;
+		return lastCount.getCount();
+	}
+
+	private void resetCount()
+	{
+		lastCount = null;
+		lastCountFilter = null;
+	}
+
+	@Override
+	public void clearCache()
+	{
+		resetCount();
+		super.clearCache();
+	}
+
+	@Override
+	protected void fireEntityProviderChangeEvent(EntityProviderChangeEvent<T> event)
+	{
+		resetCount();
+		if (countStrategy != null)
+		{
+			countStrategy.entitiesChanged(getEntityClass());
+		}
+		super.fireEntityProviderChangeEvent(event);
+	}
+
 	static private ThreadLocal<Integer> updating = new ThreadLocal<Integer>();
 	
 	public void batchUpdate(final BatchUpdateCallback<T> callback) throws UnsupportedOperationException
@@ -0,0 +1,85 @@
+package au.com.vaadinutils.dao;
+
+import java.util.Collection;
+import java.util.List;
+
+import javax.persistence.Cache;
+import javax.persistence.EntityManager;
+import javax.persistence.TypedQuery;
+import javax.persistence.criteria.CriteriaQuery;
+import javax.persistence.criteria.Predicate;
+import javax.persistence.criteria.Root;
+import javax.persistence.metamodel.EntityType;
+import javax.persistence.metamodel.SingularAttribute;
+
+import org.eclipse.persistence.descriptors.ClassDescriptor;
+import org.eclipse.persistence.jpa.JpaEntityManager;
+
+/**
+ * Evicts the rows changed by a bulk delete or update from the shared cache,
+ * rather than every cached entity of the class. See
+ * JpaSettings.setEvictionThreshold().
+ */
+final class CacheEvictor
+{
+	private CacheEvictor()
+	{
+	}
+
+	/**
+	 * Selects the ids of the rows that match the predicate, before they are
+	 * deleted or updated.
+	 *
+	 * The ids are selected by a query of their own so the caller's query isn't
+	 * changed. The predicate is built on the caller's root, so that root is
+	 * selected from rather than a new one, as the delete and update queries do.
+	 *
+	 * @return the ids, or null if the whole class should be evicted because
+	 *         there are more than the threshold or the class isn't in the
+	 *         shared cache
+	 */
+	static <E> List<Object> selectIds(final EntityManager em, final Class<E> entityClass, final Root<E> root,
+			final Predicate predicate)
+	{
+		final int threshold = JpaSettings.getEvictionThreshold();
+		if (predicate == null || threshold == 0 || !isShared(em, entityClass))
+		{
+			return null;
+		}
+
+		final EntityType<E> entityType = em.getMetamodel().entity(entityClass);
+		final SingularAttribute<? super E, ?> idField = entityType.getId(entityType.getIdType().getJavaType());
+		final CriteriaQuery<Object> criteria = em.getCriteriaBuilder().createQuery(Object.class);
+		criteria.select(root.get(idField));
+		criteria.where(predicate);
+		final TypedQuery<Object> query = em.createQuery(criteria);
+		query.setMaxResults(threshold + 1);
+		final List<Object> ids = query.getResultList();
+		return ids.size() > threshold ? null : ids;
+	}
+
+	/**
+	 * @param ids
+	 *            - null to evict the whole class
+	 */
+	static void evict(final EntityManager em, final Class<?> entityClass, final Collection<?> ids)
+	{
+		final Cache cache = em.getEntityManagerFactory().getCache();
+		if (ids == null)
+		{
+			cache.evict(entityClass);
+			return;
+		}
+		for (Object id : ids)
+		{
+			cache.evict(entityClass, id);
+		}
+	}
+
+	private static boolean isShared(final EntityManager em, final Class<?> entityClass)
+	{
+		final ClassDescriptor descriptor = em.unwrap(JpaEntityManager.class).getServerSession()
+				.getClassDescriptor(entityClass);
+		return descriptor != null && !descriptor.isIsolated();
+	}
+}
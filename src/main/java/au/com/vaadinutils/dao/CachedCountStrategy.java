@@ -0,0 +1,101 @@
+package au.com.vaadinutils.dao;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.base.Preconditions;
+import com.vaadin.data.Container.Filter;
+
+/**
+ * Remembers the counts of another strategy for a time, keyed by the entity
+ * class and filter, so the same search run again (by this or another user)
+ * doesn't count the rows again. Counts for an entity class are forgotten when
+ * its entities change through a container.
+ *
+ * One instance is normally shared by the containers of an entity class. The
+ * key doesn't include anything a container adds to the query itself, which is
+ * why BatchingPerRequestEntityProvider counts containers with a
+ * QueryModifierDelegate exactly rather than through the strategy.
+ */
+public class CachedCountStrategy implements CountStrategy
+{
+	private static final int MAX_ENTRIES = 500;
+
+	private final CountStrategy delegate;
+	private final long ttlNanos;
+
+	private final Map<List<Object>, Entry> counts = new LinkedHashMap<List<Object>, Entry>(16, 0.75f, true)
+	{
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<List<Object>, Entry> eldest)
+		{
+			return size() > MAX_ENTRIES;
+		}
+	};
+
+	private static class Entry
+	{
+		final RowCount count;
+		final long expires;
+
+		Entry(RowCount count, long expires)
+		{
+			this.count = count;
+			this.expires = expires;
+		}
+	}
+
+	public CachedCountStrategy(CountStrategy delegate, long ttl, TimeUnit unit)
+	{
+		Preconditions.checkNotNull(delegate);
+		Preconditions.checkArgument(ttl > 0, "ttl must be greater than 0");
+		this.delegate = delegate;
+		this.ttlNanos = unit.toNanos(ttl);
+	}
+
+	@Override
+	public RowCount count(Class<?> entityClass, Filter filter, ExactCounter exact)
+	{
+		final List<Object> key = Arrays.<Object> asList(entityClass, filter);
+		final long now = System.nanoTime();
+		synchronized (counts)
+		{
+			final Entry entry = counts.get(key);
+			if (entry != null && entry.expires - now > 0)
+			{
+				return entry.count;
+			}
+		}
+
+		// counted outside the lock, two users may count the same filter
+		final RowCount count = delegate.count(entityClass, filter, exact);
+		synchronized (counts)
+		{
+			counts.put(key, new Entry(count, now + ttlNanos));
+		}
+		return count;
+	}
+
+	@Override
+	public void entitiesChanged(Class<?> entityClass)
+	{
+		synchronized (counts)
+		{
+			final Iterator<List<Object>> keys = counts.keySet().iterator();
+			while (keys.hasNext())
+			{
+				if (keys.next().get(0) == entityClass)
+				{
+					keys.remove();
+				}
+			}
+		}
+		delegate.entitiesChanged(entityClass);
+	}
+}
@@ -0,0 +1,50 @@
+package au.com.vaadinutils.dao;
+
+import java.util.Collections;
+
+import com.google.common.base.Preconditions;
+import com.vaadin.data.Container.Filter;
+
+/**
+ * Counts at most cap rows, by selecting the ids of up to cap + 1 rows, so the
+ * database can stop reading once it has found enough. When there are more
+ * than cap rows the count is cap and RowCount.Kind.AT_LEAST, e.g. "10,000+".
+ */
+public class CappedCountStrategy implements CountStrategy
+{
+	private final int cap;
+
+	public CappedCountStrategy(int cap)
+	{
+		Preconditions.checkArgument(cap > 0, "cap must be greater than 0");
+		this.cap = cap;
+	}
+
+	@Override
+	public RowCount count(Class<?> entityClass, Filter filter, ExactCounter exact)
+	{
+		final int rows = countUpTo(entityClass, filter);
+		if (rows > cap)
+		{
+			return new RowCount(cap, RowCount.Kind.AT_LEAST);
+		}
+		return RowCount.exact(rows);
+	}
+
+	private <E> int countUpTo(Class<E> entityClass, Filter filter)
+	{
+		final JpaDslTupleBuilder<E> q = new JpaDslTupleBuilder<>(entityClass);
+		q.multiselect(JpaBaseDao.getIdField(entityClass));
+		if (filter != null)
+		{
+			q.where(q.filters(Collections.singleton(filter)));
+		}
+		q.limit(cap + 1);
+		return q.getResultList().size();
+	}
+
+	@Override
+	public void entitiesChanged(Class<?> entityClass)
+	{
+	}
+}
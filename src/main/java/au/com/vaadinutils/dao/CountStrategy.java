@@ -0,0 +1,38 @@
+package au.com.vaadinutils.dao;
+
+import com.vaadin.data.Container.Filter;
+
+/**
+ * How BatchingPerRequestEntityProvider counts the rows of a JPAContainer. An
+ * exact count(*) of a large table can cost more than fetching the rows that
+ * are visible, so a strategy can cap, cache or estimate the count instead.
+ *
+ * @see ExactCountStrategy
+ * @see CappedCountStrategy
+ * @see CachedCountStrategy
+ * @see EstimatedCountStrategy
+ */
+public interface CountStrategy
+{
+	/**
+	 * the exact count, as JPAContainer would run it
+	 */
+	interface ExactCounter
+	{
+		int count();
+	}
+
+	/**
+	 * @param entityClass
+	 * @param filter
+	 *            - the container's filters, null if there are none
+	 * @param exact
+	 * @return
+	 */
+	RowCount count(Class<?> entityClass, Filter filter, ExactCounter exact);
+
+	/**
+	 * called when entities of the class are added, removed or updated
+	 */
+	void entitiesChanged(Class<?> entityClass);
+}
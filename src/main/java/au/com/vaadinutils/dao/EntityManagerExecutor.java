@@ -0,0 +1,368 @@
+package au.com.vaadinutils.dao;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.logging.log4j.Logger;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * A bounded, named pool of worker threads for background work that needs an
+ * EntityManager (EntityManagerThread, WorkingDialog etc).
+ *
+ * The pool is owned by the EntityManagerProvider, see
+ * EntityManagerProvider.configureExecutor() to size it and
+ * EntityManagerProvider.getExecutor() for the queue and thread metrics.
+ *
+ * Idle threads time out so a quiet server doesn't hold onto the pool.
+ *
+ * On a JDK with virtual threads (21+) the executor can instead run each task
+ * on its own virtual thread, see virtualThreads(). The thread local
+ * EntityManager is set and cleared per task so works unchanged on a virtual
+ * thread. Work that mostly blocks on JDBC then costs no OS thread while it
+ * waits, the number of tasks running at once is still capped so a burst of
+ * jobs can't exhaust the connection pool.
+ *
+ * A task that submits more work and waits for it can starve the pool once
+ * every worker is waiting, so work forked from a worker thread is run inline,
+ * see isWorkerThread() and EntityManagerProvider.fork().
+ */
+public class EntityManagerExecutor
+{
+	public static final int DEFAULT_POOL_SIZE = 20;
+	public static final int DEFAULT_QUEUE_LIMIT = 1000;
+
+	/**
+	 * When the queue is full submit() throws a RejectedExecutionException. A
+	 * request thread is told the server is busy rather than running a long job
+	 * inline while it holds the session lock.
+	 */
+	public static final RejectedExecutionHandler DEFAULT_REJECTION_POLICY = new ThreadPoolExecutor.AbortPolicy();
+
+	private static final long KEEP_ALIVE_SECONDS = 60;
+
+	private static final Logger logger = org.apache.logging.log4j.LogManager.getLogger();
+
+	/**
+	 * set while a thread is running a task for any EntityManagerExecutor
+	 */
+	private static final ThreadLocal<Boolean> worker = new ThreadLocal<>();
+
+	private final ExecutorService executor;
+
+	/**
+	 * only set for a pool of platform threads
+	 */
+	private final ThreadPoolExecutor pool;
+
+	/**
+	 * only set when running on virtual threads, limits how many tasks run at
+	 * once
+	 */
+	private final Semaphore permits;
+
+	private final AtomicInteger active = new AtomicInteger();
+	private final AtomicLong rejected = new AtomicLong();
+
+	/**
+	 *
+	 * @param name
+	 *            - prefix for the worker thread names
+	 * @param poolSize
+	 *            - the maximum number of worker threads
+	 * @param queueLimit
+	 *            - the maximum number of tasks waiting for a thread
+	 * @param rejectionPolicy
+	 *            - what to do with a task when the queue is full
+	 */
+	public EntityManagerExecutor(final String name, int poolSize, int queueLimit,
+			final RejectedExecutionHandler rejectionPolicy)
+	{
+		Preconditions.checkArgument(poolSize > 0, "poolSize must be greater than 0");
+		Preconditions.checkArgument(queueLimit > 0, "queueLimit must be greater than 0");
+		Preconditions.checkNotNull(rejectionPolicy);
+
+		pool = new ThreadPoolExecutor(poolSize, poolSize, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+				new LinkedBlockingQueue<Runnable>(queueLimit), new ThreadFactory()
+				{
+					private final AtomicInteger threadNumber = new AtomicInteger();
+
+					@Override
+					public Thread newThread(Runnable r)
+					{
+						Thread thread = new Thread(r, name + "-" + threadNumber.incrementAndGet());
+						thread.setDaemon(true);
+						return thread;
+					}
+				}, new RejectedExecutionHandler()
+				{
+
+					@Override
+					public void rejectedExecution(Runnable r, ThreadPoolExecutor executor)
+					{
+						rejected.incrementAndGet();
+						logger.warn("{} queue is full, {} tasks queued", name, executor.getQueue().size());
+						rejectionPolicy.rejectedExecution(r, executor);
+					}
+				});
+		pool.allowCoreThreadTimeOut(true);
+		executor = pool;
+		permits = null;
+	}
+
+	private EntityManagerExecutor(ExecutorService executor, int maxConcurrency)
+	{
+		this.executor = executor;
+		this.pool = null;
+		this.permits = new Semaphore(maxConcurrency, true);
+	}
+
+	/**
+	 * Creates an executor that runs each task on a new virtual thread.
+	 *
+	 * @param name
+	 *            - prefix for the virtual thread names
+	 * @param maxConcurrency
+	 *            - the maximum number of tasks that run at once, the rest wait
+	 *            (on their virtual thread) for a task to finish. Normally no
+	 *            more than the size of the JDBC connection pool.
+	 * @return
+	 * @throws UnsupportedOperationException
+	 *             if the JVM doesn't support virtual threads
+	 */
+	public static EntityManagerExecutor virtualThreads(String name, int maxConcurrency)
+	{
+		Preconditions.checkArgument(maxConcurrency > 0, "maxConcurrency must be greater than 0");
+		return new EntityManagerExecutor(createVirtualThreadExecutor(name), maxConcurrency);
+	}
+
+	/**
+	 * @return true if the running JVM supports virtual threads
+	 */
+	public static boolean isVirtualThreadsSupported()
+	{
+		try
+		{
+			Thread.class.getMethod("ofVirtual");
+			return true;
+		}
+		catch (NoSuchMethodException e)
+		{
+			return false;
+		}
+	}
+
+	/**
+	 * We compile against java 8, so the virtual thread api is called
+	 * reflectively. Equivalent to
+	 * Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name(name + "-",
+	 * 1).factory())
+	 */
+	private static ExecutorService createVirtualThreadExecutor(String name)
+	{
+		if (!isVirtualThreadsSupported())
+		{
+			throw new UnsupportedOperationException(
+					"Virtual threads are not supported by this JVM " + System.getProperty("java.version"));
+		}
+		try
+		{
+			Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+			Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+			builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, name + "-", 1L);
+			ThreadFactory factory = (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+
+			Method newThreadPerTaskExecutor = Executors.class.getMethod("newThreadPerTaskExecutor",
+					ThreadFactory.class);
+			return (ExecutorService) newThreadPerTaskExecutor.invoke(null, factory);
+		}
+		catch (ReflectiveOperationException e)
+		{
+			throw new UnsupportedOperationException("Unable to create a virtual thread executor", e);
+		}
+	}
+
+	public boolean isVirtualThreads()
+	{
+		return pool == null;
+	}
+
+	/**
+	 * @return true if the current thread is running a task for an
+	 *         EntityManagerExecutor
+	 */
+	public static boolean isWorkerThread()
+	{
+		return worker.get() != null;
+	}
+
+	public Future<?> submit(final Runnable runnable)
+	{
+		return executor.submit(new Runnable()
+		{
+
+			@Override
+			public void run()
+			{
+				acquire();
+				try
+				{
+					runnable.run();
+				}
+				finally
+				{
+					release();
+				}
+			}
+		});
+	}
+
+	public <T> Future<T> submit(final Callable<T> callable)
+	{
+		return executor.submit(new Callable<T>()
+		{
+
+			@Override
+			public T call() throws Exception
+			{
+				acquire();
+				try
+				{
+					return callable.call();
+				}
+				finally
+				{
+					release();
+				}
+			}
+		});
+	}
+
+	private void acquire()
+	{
+		if (permits != null)
+		{
+			permits.acquireUninterruptibly();
+		}
+		active.incrementAndGet();
+		worker.set(Boolean.TRUE);
+	}
+
+	private void release()
+	{
+		worker.remove();
+		active.decrementAndGet();
+		if (permits != null)
+		{
+			permits.release();
+		}
+	}
+
+	/**
+	 * @return the number of tasks waiting for a worker thread, or on virtual
+	 *         threads the number of tasks waiting for a permit to run
+	 */
+	public int getQueueDepth()
+	{
+		if (pool != null)
+		{
+			return pool.getQueue().size();
+		}
+		return permits.getQueueLength();
+	}
+
+	/**
+	 * @return the number of tasks currently running
+	 */
+	public int getActiveCount()
+	{
+		return active.get();
+	}
+
+	/**
+	 * @return the number of threads currently in the pool, on virtual threads
+	 *         the number of running tasks
+	 */
+	public int getPoolSize()
+	{
+		if (pool != null)
+		{
+			return pool.getPoolSize();
+		}
+		return active.get();
+	}
+
+	/**
+	 * @return the largest number of threads that have been in the pool at the
+	 *         same time, -1 on virtual threads
+	 */
+	public int getLargestPoolSize()
+	{
+		if (pool != null)
+		{
+			return pool.getLargestPoolSize();
+		}
+		return -1;
+	}
+
+	/**
+	 * @return the number of completed tasks, -1 on virtual threads
+	 */
+	public long getCompletedTaskCount()
+	{
+		if (pool != null)
+		{
+			return pool.getCompletedTaskCount();
+		}
+		return -1;
+	}
+
+	/**
+	 * @return the number of tasks that were handed to the rejection policy
+	 *         because the queue was full
+	 */
+	public long getRejectedCount()
+	{
+		return rejected.get();
+	}
+
+	/**
+	 * Stops accepting new tasks, tasks already submitted will still be run.
+	 */
+	public void shutdown()
+	{
+		executor.shutdown();
+	}
+
+	/**
+	 * Stops accepting new tasks and waits for the running and queued tasks to
+	 * complete.
+	 *
+	 * @param timeout
+	 * @param unit
+	 * @return false if the tasks didn't finish before the timeout
+	 * @throws InterruptedException
+	 */
+	public boolean shutdown(long timeout, TimeUnit unit) throws InterruptedException
+	{
+		executor.shutdown();
+		return executor.awaitTermination(timeout, unit);
+	}
+
+	public boolean isShutdown()
+	{
+		return executor.isShutdown();
+	}
+}
@@ -0,0 +1,336 @@
+package au.com.vaadinutils.dao;
+
+import java.lang.management.ManagementFactory;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.Date;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.persistence.EntityManager;
+
+import org.apache.logging.log4j.Logger;
+
+import com.google.common.base.Preconditions;
+
+import au.com.vaadinutils.errorHandling.ErrorWindow;
+
+/**
+ * Detects EntityManagers that are left open, used by EntityManagerWrapper and
+ * EntityManagerTrackerWrapper.
+ *
+ * Open EntityManagers are held in a weakly referenced registry and a single
+ * sweeper thread checks them periodically, reporting any that have been open
+ * for longer than the leak threshold (once per EntityManager) and any that
+ * were garbage collected without being closed.
+ *
+ * Capturing the stack of where each EntityManager was created is expensive
+ * when there is one per request, so EntityManagerWrapper only captures it for
+ * 1 in stackSampleRate EntityManagers, or for all of them when debug logging
+ * is enabled for this class. EntityManagerTrackerWrapper is only used when
+ * hunting leaks and always captures it.
+ *
+ * The counts are available via JMX as
+ * au.com.vaadinutils:type=EntityManagerLeakDetector
+ */
+public enum EntityManagerLeakDetector implements EntityManagerLeakDetectorMBean
+{
+	INSTANCE;
+
+	public static final int DEFAULT_STACK_SAMPLE_RATE = 10;
+	public static final long DEFAULT_LEAK_THRESHOLD_SECONDS = 60;
+	private static final long SWEEP_INTERVAL_SECONDS = 20;
+
+	private static final String OBJECT_NAME = "au.com.vaadinutils:type=EntityManagerLeakDetector";
+
+	private static final Logger logger = org.apache.logging.log4j.LogManager.getLogger();
+
+	private final Map<Long, Tracked> open = new ConcurrentHashMap<>();
+	private final ReferenceQueue<EntityManager> collected = new ReferenceQueue<>();
+
+	private final AtomicLong idSeed = new AtomicLong();
+	private final AtomicLong leakCount = new AtomicLong();
+	private final AtomicLong collectedUnclosedCount = new AtomicLong();
+
+	private volatile int stackSampleRate = DEFAULT_STACK_SAMPLE_RATE;
+	private volatile long leakThresholdMillis = TimeUnit.SECONDS.toMillis(DEFAULT_LEAK_THRESHOLD_SECONDS);
+
+	private volatile ScheduledExecutorService sweeper;
+
+	/**
+	 * An EntityManager registered with the detector, call closed() when the
+	 * EntityManager is closed.
+	 */
+	public static class Tracked extends WeakReference<EntityManager>
+	{
+		private final long id;
+		private final long createdAt = System.currentTimeMillis();
+		private final String threadName = Thread.currentThread().getName();
+		private final Exception stack;
+		private final boolean showErrorWindow;
+		private volatile boolean reported;
+
+		private Tracked(EntityManager em, ReferenceQueue<EntityManager> queue, long id, boolean captureStack,
+				boolean showErrorWindow)
+		{
+			super(em, queue);
+			this.id = id;
+			this.stack = captureStack ? new Exception("Unclosed Entity Manager created here at " + new Date()) : null;
+			this.showErrorWindow = showErrorWindow;
+		}
+
+		public long getId()
+		{
+			return id;
+		}
+
+		/**
+		 * stops tracking the EntityManager
+		 */
+		public void closed()
+		{
+			INSTANCE.open.remove(id);
+			clear();
+		}
+	}
+
+	/**
+	 * Starts tracking an EntityManager until Tracked.closed() is called.
+	 *
+	 * @param em
+	 * @param showErrorWindow
+	 *            - also report the leak via ErrorWindow
+	 * @return
+	 */
+	public static Tracked track(EntityManager em, boolean showErrorWindow)
+	{
+		return track(em, showErrorWindow, false);
+	}
+
+	/**
+	 * @param em
+	 * @param showErrorWindow
+	 *            - also report the leak via ErrorWindow
+	 * @param alwaysCaptureStack
+	 *            - capture the creation stack regardless of the
+	 *            stackSampleRate
+	 * @return
+	 */
+	public static Tracked track(EntityManager em, boolean showErrorWindow, boolean alwaysCaptureStack)
+	{
+		Preconditions.checkNotNull(em);
+		INSTANCE.startSweeper();
+
+		long id = INSTANCE.idSeed.incrementAndGet();
+		int sampleRate = INSTANCE.stackSampleRate;
+		boolean captureStack = alwaysCaptureStack || logger.isDebugEnabled()
+				|| (sampleRate > 0 && id % sampleRate == 0);
+
+		Tracked tracked = new Tracked(em, INSTANCE.collected, id, captureStack, showErrorWindow);
+		INSTANCE.open.put(id, tracked);
+		return tracked;
+	}
+
+	/**
+	 * EntityManagers open for longer than this are reported as leaks
+	 *
+	 * @param threshold
+	 * @param unit
+	 */
+	public static void setLeakThreshold(long threshold, TimeUnit unit)
+	{
+		INSTANCE.leakThresholdMillis = unit.toMillis(threshold);
+	}
+
+	/**
+	 * Stops the sweeper thread and removes the JMX bean, call when the
+	 * application is shutting down.
+	 */
+	public static synchronized void shutdown()
+	{
+		if (INSTANCE.sweeper != null)
+		{
+			INSTANCE.sweeper.shutdownNow();
+			INSTANCE.sweeper = null;
+			try
+			{
+				MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+				ObjectName name = new ObjectName(OBJECT_NAME);
+				if (server.isRegistered(name))
+				{
+					server.unregisterMBean(name);
+				}
+			}
+			catch (Exception e)
+			{
+				logger.warn("Unable to unregister {}: {}", OBJECT_NAME, e.getMessage());
+			}
+		}
+	}
+
+	private void startSweeper()
+	{
+		if (sweeper != null)
+		{
+			return;
+		}
+		synchronized (EntityManagerLeakDetector.class)
+		{
+			if (sweeper != null)
+			{
+				return;
+			}
+			ScheduledExecutorService service = Executors.newSingleThreadScheduledExecutor(new ThreadFactory()
+			{
+
+				@Override
+				public Thread newThread(Runnable r)
+				{
+					Thread thread = new Thread(r, "EntityManagerLeakSweeper");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+			service.scheduleWithFixedDelay(new Runnable()
+			{
+
+				@Override
+				public void run()
+				{
+					try
+					{
+						sweep();
+					}
+					catch (Throwable e)
+					{
+						logger.error(e, e);
+					}
+				}
+			}, SWEEP_INTERVAL_SECONDS, SWEEP_INTERVAL_SECONDS, TimeUnit.SECONDS);
+
+			try
+			{
+				MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+				ObjectName name = new ObjectName(OBJECT_NAME);
+				if (!server.isRegistered(name))
+				{
+					server.registerMBean(this, name);
+				}
+			}
+			catch (Exception e)
+			{
+				logger.warn("Unable to register {}: {}", OBJECT_NAME, e.getMessage());
+			}
+			sweeper = service;
+		}
+	}
+
+	void sweep()
+	{
+		Tracked tracked;
+		while ((tracked = (Tracked) collected.poll()) != null)
+		{
+			if (open.remove(tracked.id) != null)
+			{
+				collectedUnclosedCount.incrementAndGet();
+				logger.error("Entity Manager {} created on thread {} was garbage collected without being closed",
+						tracked.id, tracked.threadName);
+				if (tracked.stack != null)
+				{
+					logger.error(tracked.stack, tracked.stack);
+				}
+			}
+		}
+
+		long now = System.currentTimeMillis();
+		long threshold = leakThresholdMillis;
+		for (Tracked entry : open.values())
+		{
+			if (!entry.reported && now - entry.createdAt > threshold)
+			{
+				entry.reported = true;
+				leakCount.incrementAndGet();
+				report(entry, now - entry.createdAt);
+			}
+		}
+	}
+
+	private void report(Tracked entry, long ageMillis)
+	{
+		logger.error("Entity Manager {} created on thread {} has been open for {} seconds", entry.id,
+				entry.threadName, TimeUnit.MILLISECONDS.toSeconds(ageMillis));
+		if (entry.stack != null)
+		{
+			logger.error(entry.stack, entry.stack);
+			if (entry.showErrorWindow)
+			{
+				ErrorWindow.showErrorWindow(entry.stack);
+			}
+		}
+	}
+
+	@Override
+	public int getOpenCount()
+	{
+		return open.size();
+	}
+
+	@Override
+	public long getOldestOpenMillis()
+	{
+		long oldest = Long.MAX_VALUE;
+		for (Tracked entry : open.values())
+		{
+			oldest = Math.min(oldest, entry.createdAt);
+		}
+		if (oldest == Long.MAX_VALUE)
+		{
+			return 0;
+		}
+		return System.currentTimeMillis() - oldest;
+	}
+
+	@Override
+	public long getLeakCount()
+	{
+		return leakCount.get();
+	}
+
+	@Override
+	public long getCollectedUnclosedCount()
+	{
+		return collectedUnclosedCount.get();
+	}
+
+	@Override
+	public long getTrackedCount()
+	{
+		return idSeed.get();
+	}
+
+	@Override
+	public int getStackSampleRate()
+	{
+		return stackSampleRate;
+	}
+
+	/**
+	 * @param stackSampleRate
+	 *            - capture the creation stack of 1 in stackSampleRate
+	 *            EntityManagers, 1 for all of them, 0 for none. Doesn't apply
+	 *            to EntityManagerTrackerWrapper, which always captures it.
+	 */
+	@Override
+	public void setStackSampleRate(int stackSampleRate)
+	{
+		Preconditions.checkArgument(stackSampleRate >= 0, "stackSampleRate must not be negative");
+		this.stackSampleRate = stackSampleRate;
+	}
+}
@@ -0,0 +1,40 @@
+package au.com.vaadinutils.dao;
+
+/**
+ * JMX view of the EntityManagerLeakDetector, registered as
+ * au.com.vaadinutils:type=EntityManagerLeakDetector
+ */
+public interface EntityManagerLeakDetectorMBean
+{
+	/**
+	 * @return the number of tracked EntityManagers that haven't been closed
+	 */
+	int getOpenCount();
+
+	/**
+	 * @return how long the oldest open EntityManager has been open, 0 if none
+	 *         are open
+	 */
+	long getOldestOpenMillis();
+
+	/**
+	 * @return the number of EntityManagers that have been reported as open for
+	 *         longer than the leak threshold
+	 */
+	long getLeakCount();
+
+	/**
+	 * @return the number of EntityManagers that were garbage collected without
+	 *         being closed
+	 */
+	long getCollectedUnclosedCount();
+
+	/**
+	 * @return the number of EntityManagers that have been tracked
+	 */
+	long getTrackedCount();
+
+	int getStackSampleRate();
+
+	void setStackSampleRate(int stackSampleRate);
+}
@@ -4,6 +4,9 @@ import java.util.ArrayList;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.TimeUnit;
 
 import javax.persistence.EntityManager;
 import javax.validation.ConstraintViolationException;
@@ -11,6 +14,7 @@ import javax.validation.ConstraintViolationException;
 import org.apache.logging.log4j.Logger;
 
 import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.Futures;
 
 import au.com.vaadinutils.errorHandling.ErrorWindow;
 
@@ -81,6 +85,8 @@ public enum EntityManagerProvider
 	private ThreadLocal<EntityManager> entityManagerThreadLocal = new ThreadLocal<>();
 	private javax.persistence.EntityManagerFactory emf;
 
+	private volatile EntityManagerExecutor executor;
+
 	/**
 	 * Get the entity manager attached to this thread.
 	 *
@@ -156,6 +162,161 @@ public enum EntityManagerProvider
 		INSTANCE.emf = emf;
 	}
 
+	/**
+	 * Sizes the shared pool used to run background work (EntityManagerThread,
+	 * WorkingDialog, ProgressBarWorker and
+	 * registerTransientPostActionOnNewThread). Call this during application
+	 * startup, before any work has been submitted.
+	 *
+	 * @param poolSize
+	 *            - the maximum number of worker threads
+	 * @param queueLimit
+	 *            - the maximum number of tasks waiting for a thread
+	 * @param rejectionPolicy
+	 *            - what to do with a task when the queue is full, see
+	 *            EntityManagerExecutor.DEFAULT_REJECTION_POLICY
+	 */
+	public static synchronized void configureExecutor(int poolSize, int queueLimit,
+			RejectedExecutionHandler rejectionPolicy)
+	{
+		if (INSTANCE.executor != null)
+		{
+			logger.warn("Replacing the EntityManager executor, tasks already queued will still run on the old one");
+			INSTANCE.executor.shutdown();
+		}
+		INSTANCE.executor = new EntityManagerExecutor("EntityManagerWorker", poolSize, queueLimit, rejectionPolicy);
+	}
+
+	/**
+	 * Runs background work on virtual threads instead of a pool of platform
+	 * threads, requires JDK 21+. Call this during application startup, before
+	 * any work has been submitted.
+	 *
+	 * @param maxConcurrency
+	 *            - the maximum number of tasks running at once, normally no
+	 *            more than the size of the JDBC connection pool
+	 * @throws UnsupportedOperationException
+	 *             if the JVM doesn't support virtual threads, see
+	 *             EntityManagerExecutor.isVirtualThreadsSupported()
+	 */
+	public static synchronized void configureVirtualThreadExecutor(int maxConcurrency)
+	{
+		EntityManagerExecutor virtual = EntityManagerExecutor.virtualThreads("EntityManagerWorker", maxConcurrency);
+		if (INSTANCE.executor != null)
+		{
+			logger.warn("Replacing the EntityManager executor, tasks already queued will still run on the old one");
+			INSTANCE.executor.shutdown();
+		}
+		INSTANCE.executor = virtual;
+	}
+
+	/**
+	 * The shared pool used to run background work, also provides the queue
+	 * depth and active count metrics for sizing the pool.
+	 *
+	 * @return
+	 */
+	public static EntityManagerExecutor getExecutor()
+	{
+		EntityManagerExecutor current = INSTANCE.executor;
+		if (current == null)
+		{
+			synchronized (EntityManagerProvider.class)
+			{
+				current = INSTANCE.executor;
+				if (current == null)
+				{
+					current = new EntityManagerExecutor("EntityManagerWorker",
+							EntityManagerExecutor.DEFAULT_POOL_SIZE, EntityManagerExecutor.DEFAULT_QUEUE_LIMIT,
+							EntityManagerExecutor.DEFAULT_REJECTION_POLICY);
+					INSTANCE.executor = current;
+				}
+			}
+		}
+		return current;
+	}
+
+	/**
+	 * Runs the runnable on the shared pool. The runnable is responsible for
+	 * setting up its own EntityManager, e.g. by using an EntityManagerRunnable.
+	 *
+	 * @param runnable
+	 * @return
+	 */
+	public static Future<?> submit(Runnable runnable)
+	{
+		return getExecutor().submit(runnable);
+	}
+
+	/**
+	 * Runs the callable on the shared pool. The callable is responsible for
+	 * setting up its own EntityManager, e.g. by using an
+	 * EntityManagerCallable.
+	 *
+	 * @param callable
+	 * @return
+	 */
+	public static <T> Future<T> submit(Callable<T> callable)
+	{
+		return getExecutor().submit(callable);
+	}
+
+	/**
+	 * For work the caller is going to wait for. Runs the callable on the
+	 * shared pool, or straight away on the calling thread if it is already a
+	 * worker, so that tasks waiting on tasks queued behind them can't starve
+	 * the pool.
+	 *
+	 * Either way the callable doesn't see the caller's EntityManager, when run
+	 * inline it is put aside until the callable returns. Wrap the callable in
+	 * an EntityManagerCallable to give it its own EntityManager and
+	 * transaction.
+	 *
+	 * @param callable
+	 * @return
+	 */
+	public static <T> Future<T> fork(Callable<T> callable)
+	{
+		if (!EntityManagerExecutor.isWorkerThread())
+		{
+			return submit(callable);
+		}
+		final EntityManager caller = INSTANCE.entityManagerThreadLocal.get();
+		INSTANCE.entityManagerThreadLocal.remove();
+		try
+		{
+			return Futures.immediateFuture(callable.call());
+		}
+		catch (Exception e)
+		{
+			return Futures.immediateFailedFuture(e);
+		}
+		finally
+		{
+			INSTANCE.entityManagerThreadLocal.set(caller);
+		}
+	}
+
+	/**
+	 * Stops the shared pool, waiting for running and queued tasks to complete.
+	 * Normally called when the servlet context is destroyed.
+	 *
+	 * @param timeout
+	 * @param unit
+	 * @throws InterruptedException
+	 */
+	public static synchronized void shutdownExecutor(long timeout, TimeUnit unit) throws InterruptedException
+	{
+		if (INSTANCE.executor != null)
+		{
+			if (!INSTANCE.executor.shutdown(timeout, unit))
+			{
+				logger.warn("EntityManager executor tasks didn't complete before shutdown");
+			}
+			INSTANCE.executor = null;
+		}
+	}
+
 	/**
 	 * T return type from EntityWorker.
 	 *
@@ -262,6 +423,9 @@ public enum EntityManagerProvider
 	 * i.e. don't run you own runnable directly rather use the returned
 	 * Runnable.
 	 *
+	 * To run it in the background pass it to submit(), which uses the shared
+	 * pool or virtual threads (see configureVirtualThreadExecutor()).
+	 *
 	 * @param runnable
 	 *            - the runnable to run as contains an entity manager.
 	 * @return
@@ -293,6 +457,9 @@ public enum EntityManagerProvider
 	 * i.e. don't run you own Callable directly rather use the returned
 	 * Callable.
 	 *
+	 * To run it in the background pass it to submit(), which uses the shared
+	 * pool or virtual threads (see configureVirtualThreadExecutor()).
+	 *
 	 * @param Callable
 	 *            - the Callable to run as contains an entity manager.
 	 * @return
@@ -454,7 +621,7 @@ public enum EntityManagerProvider
 			@Override
 			public void run()
 			{
-				new Thread(runnable).start();
+				submit(runnable);
 
 			}
 		});
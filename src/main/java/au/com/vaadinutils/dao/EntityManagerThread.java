@@ -2,12 +2,13 @@ package au.com.vaadinutils.dao;
 
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 
 /**
- * Creates a Thread that has its own private EntityManager attached.
+ * Runs a Callable on the EntityManagerProvider's shared worker pool with its
+ * own private EntityManager attached. When created on one of the pool's worker
+ * threads the Callable is run by the constructor instead, still with its own
+ * EntityManager and transaction rather than the worker's.
  *
  * This class should be used if you need to access a Dao object in a background
  * thread that doesn't have an entity manager injected. This class injects the
@@ -53,8 +54,6 @@ final public class EntityManagerThread<T>
 	public EntityManagerThread(final Callable<T> callable)
 	{
 
-		ExecutorService executor = Executors.newFixedThreadPool(1);
-
 		Callable<T> thread = new Callable<T>()
 		{
 
@@ -77,8 +76,8 @@ final public class EntityManagerThread<T>
 
 		};
 
-		future = executor.submit(thread);
-		executor.shutdown();
+		// when started from a worker the caller waits for it there
+		future = EntityManagerProvider.fork(thread);
 
 	}
 
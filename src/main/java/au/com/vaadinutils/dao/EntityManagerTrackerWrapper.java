@@ -3,11 +3,6 @@ package au.com.vaadinutils.dao;
 import java.util.Date;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.ScheduledFuture;
-import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicLong;
 
 import javax.persistence.EntityGraph;
 import javax.persistence.EntityManager;
@@ -26,41 +21,23 @@ import javax.persistence.metamodel.Metamodel;
 
 import org.apache.logging.log4j.Logger;
 
-import au.com.vaadinutils.errorHandling.ErrorWindow;
-
 public class EntityManagerTrackerWrapper implements EntityManager
 {
 	final private EntityManager em;
 
-	Exception created = new Exception("Unclosed Entity Manager created here at " + new Date());
-
-	private static ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(1);
-
 	Logger logger = org.apache.logging.log4j.LogManager.getLogger();
 
-	private ScheduledFuture<?> future;
-
-	private static final AtomicLong idSeed = new AtomicLong();
+	private final EntityManagerLeakDetector.Tracked tracked;
 
 	private final Long id;
 	private Exception closedAt;
 
 	EntityManagerTrackerWrapper(EntityManager em)
 	{
-
-		id = idSeed.incrementAndGet();
-		logger.error("Created entityManager {}", id);
 		this.em = em;
-		Runnable runnable = new Runnable()
-		{
-
-			@Override
-			public void run()
-			{
-				ErrorWindow.showErrorWindow(created);
-			}
-		};
-		future = scheduler.scheduleAtFixedRate(runnable, 40, 40, TimeUnit.SECONDS);
+		tracked = EntityManagerLeakDetector.track(this, true, true);
+		id = tracked.getId();
+		logger.debug("Created entityManager {}", id);
 
 	}
 
@@ -371,9 +348,9 @@ public class EntityManagerTrackerWrapper implements EntityManager
 	@Override
 	public void close()
 	{
-		logger.error("Closed entityManager {}", id);
+		logger.debug("Closed entityManager {}", id);
 
-		future.cancel(false);
+		tracked.closed();
 		closedAt = new Exception("Closed here at " + new Date());
 		if (em.getTransaction().isActive())
 		{
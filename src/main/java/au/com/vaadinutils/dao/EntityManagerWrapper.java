@@ -2,11 +2,6 @@ package au.com.vaadinutils.dao;
 
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.ScheduledFuture;
-import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicLong;
 
 import javax.persistence.EntityGraph;
 import javax.persistence.EntityManager;
@@ -29,36 +24,19 @@ public class EntityManagerWrapper implements EntityManager
 {
 	final private EntityManager em;
 
-	final static AtomicLong seen = new AtomicLong();
-
 	Logger logger = org.apache.logging.log4j.LogManager.getLogger();
 
 	private long emid;
 
-	final private ScheduledFuture<?> future;
-	
-	private final static ScheduledExecutorService ex = Executors.newScheduledThreadPool(1);
-	
+	final private EntityManagerLeakDetector.Tracked tracked;
 
 	EntityManagerWrapper(EntityManager em)
 	{
-		emid = seen.incrementAndGet();
 		this.em = em;
+		tracked = EntityManagerLeakDetector.track(this, false);
+		emid = tracked.getId();
 //		logger.error("Created entity Manager " + emid);
-		
-		final Exception here = new Exception("Entity Manager Still Open");
-		
-		future = ex.scheduleAtFixedRate(new Runnable()
-		{
-			
-			@Override
-			public void run()
-			{
-				logger.error(here,here);
-				
-			}
-		},1, 1,TimeUnit.MINUTES);
-		
+
 	}
 
 	@Override
@@ -414,7 +392,7 @@ public class EntityManagerWrapper implements EntityManager
 		}
 		
 		em.close();
-		future.cancel(false);
+		tracked.closed();
 
 	}
 
@@ -0,0 +1,85 @@
+package au.com.vaadinutils.dao;
+
+import java.util.List;
+
+import javax.persistence.EntityManager;
+
+import org.apache.logging.log4j.Logger;
+import org.eclipse.persistence.descriptors.ClassDescriptor;
+import org.eclipse.persistence.jpa.JpaEntityManager;
+
+import com.google.common.base.Preconditions;
+import com.vaadin.data.Container.Filter;
+
+/**
+ * Uses the database's estimate of the number of rows in the entity's table
+ * when the container isn't filtered, which costs nothing however large the
+ * table is. Filtered counts are passed to another strategy, e.g. a
+ * CappedCountStrategy.
+ *
+ * Reads information_schema.TABLES, MySQL syntax. For InnoDB tables the
+ * estimate can be out by a large fraction, so it is shown as e.g. "~2,000,000".
+ * Only supports entities mapped to a single table.
+ */
+public class EstimatedCountStrategy implements CountStrategy
+{
+	private static final Logger logger = org.apache.logging.log4j.LogManager.getLogger();
+
+	private final CountStrategy filteredStrategy;
+
+	/**
+	 * @param filteredStrategy
+	 *            - counts the rows when the container is filtered
+	 */
+	public EstimatedCountStrategy(CountStrategy filteredStrategy)
+	{
+		Preconditions.checkNotNull(filteredStrategy);
+		this.filteredStrategy = filteredStrategy;
+	}
+
+	@Override
+	public RowCount count(Class<?> entityClass, Filter filter, ExactCounter exact)
+	{
+		if (filter == null)
+		{
+			final Long estimate = estimate(entityClass);
+			if (estimate != null)
+			{
+				return new RowCount((int) Math.min(Integer.MAX_VALUE, estimate), RowCount.Kind.ESTIMATE);
+			}
+		}
+		return filteredStrategy.count(entityClass, filter, exact);
+	}
+
+	/**
+	 * @return the estimated rows in the table, or null if the database didn't
+	 *         give an estimate
+	 */
+	private Long estimate(Class<?> entityClass)
+	{
+		final EntityManager em = EntityManagerProvider.getEntityManager();
+		final ClassDescriptor descriptor = em.unwrap(JpaEntityManager.class).getServerSession()
+				.getClassDescriptor(entityClass);
+		if (descriptor == null || descriptor.getTables().size() != 1)
+		{
+			return null;
+		}
+
+		final List<?> rows = em
+				.createNativeQuery("SELECT TABLE_ROWS FROM information_schema.TABLES"
+						+ " WHERE TABLE_SCHEMA = DATABASE() AND TABLE_NAME = ?")
+				.setParameter(1, descriptor.getTableName()).getResultList();
+		if (rows.isEmpty() || rows.get(0) == null)
+		{
+			logger.debug("No row estimate for {}", descriptor.getTableName());
+			return null;
+		}
+		return ((Number) rows.get(0)).longValue();
+	}
+
+	@Override
+	public void entitiesChanged(Class<?> entityClass)
+	{
+		filteredStrategy.entitiesChanged(entityClass);
+	}
+}
@@ -0,0 +1,20 @@
+package au.com.vaadinutils.dao;
+
+import com.vaadin.data.Container.Filter;
+
+/**
+ * count(*), as JPAContainer does by default
+ */
+public class ExactCountStrategy implements CountStrategy
+{
+	@Override
+	public RowCount count(Class<?> entityClass, Filter filter, ExactCounter exact)
+	{
+		return RowCount.exact(exact.count());
+	}
+
+	@Override
+	public void entitiesChanged(Class<?> entityClass)
+	{
+	}
+}
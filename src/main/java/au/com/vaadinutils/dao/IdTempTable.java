@@ -0,0 +1,74 @@
+package au.com.vaadinutils.dao;
+
+import java.util.Collection;
+import java.util.List;
+
+import javax.persistence.EntityManager;
+import javax.persistence.Query;
+
+import org.eclipse.persistence.descriptors.ClassDescriptor;
+import org.eclipse.persistence.jpa.JpaEntityManager;
+
+/**
+ * Loads entities by id by inserting the ids into a temporary table and joining
+ * it to the entity's table, for id lists too long for IN lists.
+ *
+ * Temporary tables belong to the connection, so this must be run in a
+ * transaction for the statements to share a connection. Uses MySQL syntax and
+ * only supports entities mapped to a single table.
+ */
+final class IdTempTable
+{
+	private static final String TABLE = "vu_find_by_ids";
+
+	private IdTempTable()
+	{
+	}
+
+	/**
+	 * @return the entities, or null if the entity isn't mapped to a single
+	 *         table
+	 */
+	@SuppressWarnings("unchecked")
+	static <E> List<E> find(final EntityManager em, final Class<E> entityClass, final Collection<Long> ids)
+	{
+		final ClassDescriptor descriptor = em.unwrap(JpaEntityManager.class).getServerSession()
+				.getClassDescriptor(entityClass);
+		if (descriptor == null || descriptor.getTables().size() != 1)
+		{
+			return null;
+		}
+		final String table = descriptor.getTableName();
+		final String idColumn = descriptor.getPrimaryKeyFields().get(0).getName();
+
+		em.createNativeQuery("CREATE TEMPORARY TABLE IF NOT EXISTS " + TABLE + " (id BIGINT NOT NULL PRIMARY KEY)")
+				.executeUpdate();
+		try
+		{
+			em.createNativeQuery("DELETE FROM " + TABLE).executeUpdate();
+
+			// padded chunks, so the inserts reuse a handful of statements
+			for (List<Long> chunk : InListChunker.chunk(ids))
+			{
+				final StringBuilder sql = new StringBuilder("INSERT IGNORE INTO " + TABLE + " (id) VALUES (?)");
+				for (int i = 1; i < chunk.size(); i++)
+				{
+					sql.append(",(?)");
+				}
+				final Query insert = em.createNativeQuery(sql.toString());
+				for (int i = 0; i < chunk.size(); i++)
+				{
+					insert.setParameter(i + 1, chunk.get(i));
+				}
+				insert.executeUpdate();
+			}
+
+			return em.createNativeQuery("SELECT e.* FROM " + table + " e JOIN " + TABLE + " i ON e." + idColumn
+					+ " = i.id", entityClass).getResultList();
+		}
+		finally
+		{
+			em.createNativeQuery("DROP TEMPORARY TABLE IF EXISTS " + TABLE).executeUpdate();
+		}
+	}
+}
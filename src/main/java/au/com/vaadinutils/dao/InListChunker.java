@@ -0,0 +1,63 @@
+package au.com.vaadinutils.dao;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+
+/**
+ * Splits the values of an IN list into chunks of at most
+ * JpaSettings.getMaxInListSize() values. Each chunk is padded to a power of
+ * two by repeating its last value, so a query with 3 values and one with 4
+ * values produce the same SQL and share a cached statement.
+ */
+final class InListChunker
+{
+	private InListChunker()
+	{
+	}
+
+	static <V> List<List<V>> chunk(final Collection<V> values)
+	{
+		return chunk(values, JpaSettings.getMaxInListSize());
+	}
+
+	/**
+	 * @param values
+	 *            - duplicates are removed
+	 * @param maxChunkSize
+	 *            - a power of two
+	 * @return the padded chunks, empty if there are no values
+	 */
+	static <V> List<List<V>> chunk(final Collection<V> values, final int maxChunkSize)
+	{
+		final List<V> distinct = new ArrayList<>(new LinkedHashSet<>(values));
+		final List<List<V>> chunks = new ArrayList<>(distinct.size() / maxChunkSize + 1);
+		for (int start = 0; start < distinct.size(); start += maxChunkSize)
+		{
+			final List<V> slice = distinct.subList(start, Math.min(start + maxChunkSize, distinct.size()));
+			final int size = paddedSize(slice.size());
+			final List<V> chunk = new ArrayList<>(size);
+			chunk.addAll(slice);
+			final V last = slice.get(slice.size() - 1);
+			while (chunk.size() < size)
+			{
+				chunk.add(last);
+			}
+			chunks.add(chunk);
+		}
+		return chunks;
+	}
+
+	/**
+	 * @return the smallest power of two that is at least size
+	 */
+	static int paddedSize(final int size)
+	{
+		if (size <= 1)
+		{
+			return 1;
+		}
+		return Integer.highestOneBit(size - 1) << 1;
+	}
+}
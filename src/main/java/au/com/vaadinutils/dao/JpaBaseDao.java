@@ -1,14 +1,20 @@
 package au.com.vaadinutils.dao;
 
 import java.lang.reflect.ParameterizedType;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.concurrent.Callable;
 
 import javax.persistence.EntityManager;
+import javax.persistence.PersistenceUnitUtil;
 import javax.persistence.Query;
 import javax.persistence.Table;
 import javax.persistence.TypedQuery;
@@ -33,6 +39,11 @@ import com.google.common.base.Preconditions;
 import com.vaadin.addon.jpacontainer.JPAContainer;
 
 import au.com.vaadinutils.crud.CrudEntity;
+import au.com.vaadinutils.crud.GridHeadingV2PropertySet;
+import au.com.vaadinutils.crud.GridHeadingV2ToPropertyId;
+import au.com.vaadinutils.crud.HeadingPropertySet;
+import au.com.vaadinutils.crud.HeadingToPropertyId;
+import au.com.vaadinutils.dao.JpaSettings.QueryKind;
 import au.com.vaadinutils.entity.BaseCrudEntity;
 import au.com.vaadinutils.entity.BaseCrudEntity_;
 
@@ -139,6 +150,28 @@ public class JpaBaseDao<E, K> implements Dao<E, K>
 	}
 
 	public Collection<E> findByIds(Collection<Long> ids)
+	{
+		return findByIds(ids, false, false);
+	}
+
+	/**
+	 * Long id lists are split into several queries, see
+	 * JpaSettings.setMaxInListSize() and JpaSettings.setIdTableThreshold().
+	 *
+	 * @param ids
+	 * @param parallel
+	 *            - run the queries concurrently, each with its own
+	 *            EntityManager. The entities from all but the first query
+	 *            were loaded by an EntityManager that has since been closed.
+	 *            Those EntityManagers don't see uncommitted changes, so when
+	 *            this EntityManager's transaction has changes, or this is a
+	 *            worker thread, the queries are run one after another here.
+	 * @param inIdOrder
+	 *            - return the entities in the order of the ids, otherwise the
+	 *            order is undefined
+	 * @return null if no ids are provided
+	 */
+	public List<E> findByIds(Collection<Long> ids, boolean parallel, boolean inIdOrder)
 	{
 		if (ids == null || ids.isEmpty())
 		{
@@ -154,10 +187,85 @@ public class JpaBaseDao<E, K> implements Dao<E, K>
 			return null;
 		}
 
-		final JpaDslBuilder<E> q = select();
-		q.where(q.in(getIdField(), ids));
+		final EntityManager em = getEntityManager();
+		List<E> results = null;
+		final int idTableThreshold = JpaSettings.getIdTableThreshold();
+		if (idTableThreshold > 0 && ids.size() >= idTableThreshold && em.isJoinedToTransaction())
+		{
+			// null if the entity isn't mapped to a single table
+			results = IdTempTable.find(em, entityClass, ids);
+		}
+		if (results == null)
+		{
+			final List<List<Long>> chunks = InListChunker.chunk(ids);
+			if (parallel && chunks.size() > 1)
+			{
+				final List<Callable<List<E>>> queries = new ArrayList<>(chunks.size());
+				for (final List<Long> chunk : chunks)
+				{
+					queries.add(new Callable<List<E>>()
+					{
+
+						@Override
+						public List<E> call() throws Exception
+						{
+							return findByIdChunk(chunk);
+						}
+					});
+				}
+				results = JpaDslGroupSupport.append(JpaDslGroupSupport.runParallel(queries), null);
+			}
+			else
+			{
+				results = new ArrayList<>(ids.size());
+				for (List<Long> chunk : chunks)
+				{
+					results.addAll(findByIdChunk(chunk));
+				}
+			}
+		}
+
+		if (!inIdOrder)
+		{
+			return results;
+		}
+		final PersistenceUnitUtil util = em.getEntityManagerFactory().getPersistenceUnitUtil();
+		final Map<Object, E> byId = new HashMap<>();
+		for (E entity : results)
+		{
+			byId.put(util.getIdentifier(entity), entity);
+		}
+		final List<E> ordered = new ArrayList<>(byId.size());
+		for (Long id : new LinkedHashSet<>(ids))
+		{
+			final E entity = byId.get(id);
+			if (entity != null)
+			{
+				ordered.add(entity);
+			}
+		}
+		return ordered;
+	}
+
+	/**
+	 * @param ids
+	 *            - a chunk from InListChunker, already padded, so it is used as
+	 *            the IN list as it is
+	 */
+	private List<E> findByIdChunk(List<Long> ids)
+	{
+		CriteriaBuilder builder = getEntityManager().getCriteriaBuilder();
+
+		CriteriaQuery<E> criteria = builder.createQuery(entityClass);
+
+		Root<E> root = criteria.from(entityClass);
+		criteria.select(root);
+		criteria.where(root.get(getIdField()).in(ids));
 
-		return q.getResultList();
+		TypedQuery<E> query = getEntityManager().createQuery(criteria);
+		JpaSettings.setQueryHints(query, entityClass, QueryKind.SELECT);
+
+		return query.getResultList();
 	}
 
 	@Override
@@ -269,7 +377,7 @@ public class JpaBaseDao<E, K> implements Dao<E, K>
 		}
 
 		TypedQuery<E> query = getEntityManager().createQuery(criteria);
-		JpaSettings.setQueryHints(query);
+		JpaSettings.setQueryHints(query, entityClass, QueryKind.SELECT);
 
 		return query.getResultList();
 	}
@@ -315,7 +423,7 @@ public class JpaBaseDao<E, K> implements Dao<E, K>
 		criteria.orderBy(ordering);
 
 		TypedQuery<E> query = getEntityManager().createQuery(criteria);
-		JpaSettings.setQueryHints(query);
+		JpaSettings.setQueryHints(query, entityClass, QueryKind.SELECT);
 
 		return query.getResultList();
 
@@ -350,7 +458,7 @@ public class JpaBaseDao<E, K> implements Dao<E, K>
 		}
 
 		TypedQuery<E> query = getEntityManager().createQuery(criteria);
-		JpaSettings.setQueryHints(query);
+		JpaSettings.setQueryHints(query, entityClass, QueryKind.SELECT);
 		if (limit != null)
 		{
 			query = query.setMaxResults(limit);
@@ -376,7 +484,7 @@ public class JpaBaseDao<E, K> implements Dao<E, K>
 		}
 
 		TypedQuery<E> query = getEntityManager().createQuery(criteria);
-		JpaSettings.setQueryHints(query);
+		JpaSettings.setQueryHints(query, entityClass, QueryKind.SELECT);
 
 		return query.getResultList();
 	}
@@ -434,7 +542,7 @@ public class JpaBaseDao<E, K> implements Dao<E, K>
 		}
 
 		TypedQuery<E> query = getEntityManager().createQuery(criteria);
-		JpaSettings.setQueryHints(query);
+		JpaSettings.setQueryHints(query, entityClass, QueryKind.SELECT);
 
 		return query.getResultList();
 	}
@@ -492,7 +600,7 @@ public class JpaBaseDao<E, K> implements Dao<E, K>
 		}
 
 		TypedQuery<E> query = getEntityManager().createQuery(criteria);
-		JpaSettings.setQueryHints(query);
+		JpaSettings.setQueryHints(query, entityClass, QueryKind.SELECT);
 
 		return query.getResultList();
 	}
@@ -513,7 +621,7 @@ public class JpaBaseDao<E, K> implements Dao<E, K>
 		cq.where(qb.equal(root.get(vKey), value));
 
 		TypedQuery<Long> query = getEntityManager().createQuery(cq);
-		JpaSettings.setQueryHints(query);
+		JpaSettings.setQueryHints(query, entityClass, QueryKind.COUNT);
 
 		return query.getSingleResult();
 	}
@@ -526,6 +634,53 @@ public class JpaBaseDao<E, K> implements Dao<E, K>
 
 	}
 
+	/**
+	 * a container that pages forward through large tables using the sort
+	 * values of the last row, see KeysetEntityProvider
+	 */
+	public JPAContainer<E> createKeysetVaadinContainer()
+	{
+		JPAContainer<E> container = new JPAContainer<>(entityClass);
+		container.setEntityProvider(new KeysetEntityProvider<>(entityClass));
+		return container;
+
+	}
+
+	/**
+	 * a read only container that selects only the heading columns, see
+	 * ProjectionContainer
+	 */
+	public ProjectionContainer<E> createProjectionContainer(HeadingPropertySet headings)
+	{
+		List<String> propertyIds = new ArrayList<>();
+		for (HeadingToPropertyId column : headings.getColumns())
+		{
+			if (column.getColumnGenerator() == null)
+			{
+				propertyIds.add(column.getPropertyId());
+			}
+		}
+		return new ProjectionContainer<>(entityClass, propertyIds);
+	}
+
+	/**
+	 * a read only container that selects only the heading columns, see
+	 * ProjectionContainer. Generated columns aren't supported, as the
+	 * GridHeadingV2PropertySet replaces the container with a list of entities
+	 * to generate them.
+	 */
+	public ProjectionContainer<E> createProjectionContainer(GridHeadingV2PropertySet<E> headings)
+	{
+		List<String> propertyIds = new ArrayList<>();
+		for (GridHeadingV2ToPropertyId column : headings.getColumns())
+		{
+			Preconditions.checkArgument(!column.isGenerated(), "Generated columns aren't supported, %s",
+					column.getPropertyId());
+			propertyIds.add(column.getPropertyId());
+		}
+		return new ProjectionContainer<>(entityClass, propertyIds);
+	}
+
 	public EntityContainer<E> createLazyQueryContainer()
 	{
 		EntityManager em = getEntityManager();
@@ -572,7 +727,10 @@ public class JpaBaseDao<E, K> implements Dao<E, K>
 				return Math.min(sizeLimit, size);
 			}
 		};
-		container.setEntityProvider(new BatchingPerRequestEntityProvider<>(entityClass));
+		// stop counting at the limit, rather than counting every row
+		final BatchingPerRequestEntityProvider<E> provider = new BatchingPerRequestEntityProvider<>(entityClass);
+		provider.setCountStrategy(new CappedCountStrategy(sizeLimit));
+		container.setEntityProvider(provider);
 		return container;
 
 	}
@@ -601,7 +759,7 @@ public class JpaBaseDao<E, K> implements Dao<E, K>
 
 		CriteriaDelete<E> criteria = builder.createCriteriaDelete(entityClass);
 		Query query = getEntityManager().createQuery(criteria);
-		JpaSettings.setQueryHints(query);
+		JpaSettings.setQueryHints(query, entityClass, QueryKind.DELETE);
 
 		int result = query.executeUpdate();
 
@@ -623,7 +781,7 @@ public class JpaBaseDao<E, K> implements Dao<E, K>
 		criteria.where(builder.equal(root.get(vKey), value));
 
 		Query query = getEntityManager().createQuery(criteria);
-		JpaSettings.setQueryHints(query);
+		JpaSettings.setQueryHints(query, entityClass, QueryKind.DELETE);
 
 		return query.executeUpdate();
 	}
@@ -643,7 +801,7 @@ public class JpaBaseDao<E, K> implements Dao<E, K>
 		criteria.where(builder.equal(join.get(vKey), value));
 
 		TypedQuery<E> query = getEntityManager().createQuery(criteria);
-		JpaSettings.setQueryHints(query);
+		JpaSettings.setQueryHints(query, entityClass, QueryKind.SELECT);
 
 		return query.getResultList();
 	}
@@ -663,7 +821,7 @@ public class JpaBaseDao<E, K> implements Dao<E, K>
 
 		getEntityManager().getClass();
 		Query query = getEntityManager().createQuery(criteria);
-		JpaSettings.setQueryHints(query);
+		JpaSettings.setQueryHints(query, entityClass, QueryKind.DELETE);
 
 		return query.executeUpdate();
 
@@ -688,7 +846,7 @@ public class JpaBaseDao<E, K> implements Dao<E, K>
 
 		String qry = "select count(" + entityName + ") from " + tableName + " " + entityName;
 		Query query = getEntityManager().createQuery(qry);
-		JpaSettings.setQueryHints(query);
+		JpaSettings.setQueryHints(query, entityClass, QueryKind.COUNT);
 		Number countResult = (Number) query.getSingleResult();
 		return countResult.longValue();
 
@@ -731,6 +889,14 @@ public class JpaBaseDao<E, K> implements Dao<E, K>
 		return new JpaDslTupleBuilder<>(entityClass);
 	}
 
+	/**
+	 * a bulk update, see JpaDslUpdateBuilder
+	 */
+	public JpaDslUpdateBuilder<E> update()
+	{
+		return new JpaDslUpdateBuilder<>(entityClass);
+	}
+
 	public JpaDslBuilder<E> jpaContainerDelegate(CriteriaQuery<E> criteria)
 	{
 		return new JpaDslBuilder<>(criteria, entityClass);
@@ -884,7 +1050,7 @@ public class JpaBaseDao<E, K> implements Dao<E, K>
 				criteria.where(filter);
 			}
 			TypedQuery<E> query = EntityManagerProvider.getEntityManager().createQuery(criteria);
-			JpaSettings.setQueryHints(query);
+			JpaSettings.setQueryHints(query, entityClass, QueryKind.SELECT);
 			if (limit != null)
 			{
 				query.setMaxResults(limit);
@@ -19,9 +19,11 @@ import javax.persistence.criteria.CriteriaDelete;
 import javax.persistence.criteria.CriteriaQuery;
 import javax.persistence.criteria.CriteriaUpdate;
 import javax.persistence.criteria.Expression;
+import javax.persistence.criteria.From;
 import javax.persistence.criteria.Join;
 import javax.persistence.criteria.JoinType;
 import javax.persistence.criteria.Order;
+import javax.persistence.criteria.ParameterExpression;
 import javax.persistence.criteria.Path;
 import javax.persistence.criteria.Predicate;
 import javax.persistence.criteria.Root;
@@ -33,8 +35,11 @@ import org.apache.logging.log4j.Logger;
 import org.eclipse.persistence.jpa.JpaQuery;
 
 import com.google.common.base.Preconditions;
+import com.vaadin.addon.jpacontainer.filter.util.FilterConverter;
+import com.vaadin.data.Container.Filter;
 
 import au.com.vaadinutils.dao.JpaBaseDao.Condition;
+import au.com.vaadinutils.dao.JpaSettings.QueryKind;
 
 /**
  * 
@@ -51,6 +56,11 @@ public abstract class JpaDslAbstract<E, R>
 
 	Logger logger = org.apache.logging.log4j.LogManager.getLogger();
 
+	/**
+	 * the fewest consecutive ids in a LongIdSet that are queried as a BETWEEN
+	 */
+	static final int MIN_ID_RUN = 4;
+
 	public abstract class AbstractCondition<Z> implements Condition<Z>
 	{
 		@Override
@@ -113,6 +123,8 @@ public abstract class JpaDslAbstract<E, R>
 
 	Map<JoinBuilder<E, ?>, Join<E, ?>> joins2 = new HashMap<>();
 
+	private final Map<String, Join<?, ?>> propertyJoins = new HashMap<>();
+
 	boolean isJpaContainerDelegate;
 
 	public Condition<E> and(final Condition<E> c1)
@@ -301,7 +313,7 @@ public abstract class JpaDslAbstract<E, R>
 		criteria.select(builder.count(root));
 
 		TypedQuery<Long> query = getEntityManager().createQuery(criteria);
-		JpaSettings.setQueryHints(query);
+		JpaSettings.setQueryHints(query, entityClass, QueryKind.COUNT);
 
 		return query.getSingleResult();
 	}
@@ -319,11 +331,15 @@ public abstract class JpaDslAbstract<E, R>
 	/**
 	 * WARNING, order will not be honoured by this method
 	 * 
+	 * Only the deleted rows are evicted from the shared cache, see
+	 * JpaSettings.setEvictionThreshold()
+	 * 
 	 * @return
 	 */
 	public int delete()
 	{
 		Preconditions.checkArgument(orders.size() == 0, "Order is not supported for delete");
+		final List<Object> evictIds = CacheEvictor.selectIds(getEntityManager(), entityClass, root, predicate);
 		CriteriaDelete<E> deleteCriteria = builder.createCriteriaDelete(entityClass);
 		root = deleteCriteria.getRoot();
 		if (predicate != null)
@@ -331,7 +347,7 @@ public abstract class JpaDslAbstract<E, R>
 			deleteCriteria.where(predicate);
 		}
 		Query query = getEntityManager().createQuery(deleteCriteria);
-		JpaSettings.setQueryHints(query);
+		JpaSettings.setQueryHints(query, entityClass, QueryKind.DELETE);
 
 		if (limit != null)
 		{
@@ -342,7 +358,7 @@ public abstract class JpaDslAbstract<E, R>
 			query.setFirstResult(startPosition);
 		}
 		int result = query.executeUpdate();
-		getEntityManager().getEntityManagerFactory().getCache().evict(entityClass);
+		CacheEvictor.evict(getEntityManager(), entityClass, evictIds);
 
 		return result;
 	}
@@ -686,6 +702,27 @@ public abstract class JpaDslAbstract<E, R>
 		}
 	}
 
+	/**
+	 * applies the filters of a vaadin container (e.g.
+	 * JPAContainer.getAppliedFilters()) as a condition of this query
+	 * 
+	 * @param filters
+	 * @return
+	 */
+	public Condition<E> filters(final Collection<Filter> filters)
+	{
+		return new AbstractCondition<E>()
+		{
+
+			@Override
+			public Predicate getPredicates()
+			{
+				List<Predicate> predicates = FilterConverter.convertFilters(filters, builder, root);
+				return builder.and(predicates.toArray(new Predicate[predicates.size()]));
+			}
+		};
+	}
+
 	public <K, T> Path<T> get(final JoinBuilder<E, K> join, final SingularAttribute<K, T> attribute)
 	{
 		return getJoin(join).get(attribute);
@@ -696,6 +733,38 @@ public abstract class JpaDslAbstract<E, R>
 		return root.get(attribute);
 	}
 
+	/**
+	 * resolves a dotted vaadin container property id such as
+	 * "contact.address.suburb". Each intermediate entity is joined using
+	 * joinType, so use JoinType.LEFT if rows with a null relationship should
+	 * still be returned.
+	 * 
+	 * @param propertyId
+	 * @param joinType
+	 * @return
+	 * @throws IllegalArgumentException
+	 *             if the property id doesn't resolve to a persistent attribute
+	 */
+	@SuppressWarnings("unchecked")
+	public <T> Path<T> get(final String propertyId, final JoinType joinType)
+	{
+		final String[] attributes = propertyId.split("\\.");
+		Path<?> path = root;
+		String joinKey = "";
+		for (int i = 0; i < attributes.length - 1; i++)
+		{
+			joinKey += attributes[i] + ".";
+			Join<?, ?> join = propertyJoins.get(joinKey);
+			if (join == null && path instanceof From)
+			{
+				join = ((From<?, ?>) path).join(attributes[i], joinType);
+				propertyJoins.put(joinKey, join);
+			}
+			path = join != null ? join : path.get(attributes[i]);
+		}
+		return (Path<T>) path.get(attributes[attributes.length - 1]);
+	}
+
 	/**
 	 * it's very important that we don't retain a reference to the
 	 * entitymanager, as when you instance this class and then use it in a
@@ -1101,7 +1170,7 @@ public abstract class JpaDslAbstract<E, R>
 			@Override
 			public Predicate getPredicates()
 			{
-				return getJoin(join).get(attribute).in(values);
+				return chunkedIn(getJoin(join).get(attribute), values);
 			}
 		};
 	}
@@ -1160,7 +1229,7 @@ public abstract class JpaDslAbstract<E, R>
 							+ attribute.getName());
 					return builder.isFalse(builder.literal(true));
 				}
-				return root.get(attribute).in(values);
+				return chunkedIn(root.get(attribute), values);
 			}
 		};
 	}
@@ -1173,11 +1242,92 @@ public abstract class JpaDslAbstract<E, R>
 			@Override
 			public Predicate getPredicates()
 			{
-				return root.get(attribute).in(values);
+				return chunkedIn(root.get(attribute), Arrays.asList(values));
+			}
+		};
+	}
+
+	/**
+	 * attribute IN ids, with each run of consecutive ids as a BETWEEN rather
+	 * than IN list values
+	 */
+	public Condition<E> in(final SingularAttribute<E, Long> attribute, final LongIdSet ids)
+	{
+		return new AbstractCondition<E>()
+		{
+
+			@Override
+			public Predicate getPredicates()
+			{
+				return idSetIn(root.get(attribute), ids);
+			}
+		};
+	}
+
+	/**
+	 * attribute NOT IN ids, e.g. for a selection of every row except a few
+	 */
+	public Condition<E> notIn(final SingularAttribute<E, Long> attribute, final LongIdSet ids)
+	{
+		return new AbstractCondition<E>()
+		{
+
+			@Override
+			public Predicate getPredicates()
+			{
+				if (ids.isEmpty())
+				{
+					return builder.conjunction();
+				}
+				return builder.not(idSetIn(root.get(attribute), ids));
 			}
 		};
 	}
 
+	private Predicate idSetIn(final Path<Long> path, final LongIdSet ids)
+	{
+		if (ids.isEmpty())
+		{
+			return builder.disjunction();
+		}
+		final List<Predicate> predicates = new ArrayList<>();
+		for (long[] run : ids.getRuns(MIN_ID_RUN))
+		{
+			predicates.add(builder.between(path, run[0], run[1]));
+		}
+		final List<Long> outside = ids.getIdsOutsideRuns(MIN_ID_RUN);
+		if (!outside.isEmpty())
+		{
+			predicates.add(chunkedIn(path, outside));
+		}
+		if (predicates.size() == 1)
+		{
+			return predicates.get(0);
+		}
+		return builder.or(predicates.toArray(new Predicate[predicates.size()]));
+	}
+
+	/**
+	 * path IN values. The values are split into IN lists of at most
+	 * JpaSettings.getMaxInListSize() which are or'ed together, each padded to
+	 * a power of two so that the statement can be reused for a similar number
+	 * of values.
+	 */
+	private <V> Predicate chunkedIn(final Expression<V> path, final Collection<V> values)
+	{
+		final List<List<V>> chunks = InListChunker.chunk(values);
+		if (chunks.size() == 1)
+		{
+			return path.in(chunks.get(0));
+		}
+		final Predicate[] predicates = new Predicate[chunks.size()];
+		for (int i = 0; i < chunks.size(); i++)
+		{
+			predicates[i] = path.in(chunks.get(i));
+		}
+		return builder.or(predicates);
+	}
+
 	public Condition<E> isEmptyString(final SingularAttribute<E, String> attribute)
 	{
 		return new AbstractCondition<E>()
@@ -1800,12 +1950,29 @@ public abstract class JpaDslAbstract<E, R>
 		return this;
 	}
 
+	/**
+	 * a named parameter to use in place of a value, the value is bound to the
+	 * TypedQuery. See JpaDslQueryCache.
+	 */
+	public <T> ParameterExpression<T> param(final Class<T> type, final String name)
+	{
+		return builder.parameter(type, name);
+	}
+
 	public <V, J> TypedPath<E, V> path(SingularAttribute<? super E, J> partA, SingularAttribute<? super J, V> partB)
 	{
 		return new TypedPath<>(root.get(partA).get(partB));
 
 	}
 
+	/**
+	 * the kind of query used to select the hints from JpaSettings
+	 */
+	protected QueryKind getQueryKind()
+	{
+		return QueryKind.SELECT;
+	}
+
 	TypedQuery<R> prepareQuery()
 	{
 		if (predicate != null)
@@ -1817,7 +1984,7 @@ public abstract class JpaDslAbstract<E, R>
 			criteria.orderBy(orders);
 		}
 		TypedQuery<R> query = getEntityManager().createQuery(criteria);
-		JpaSettings.setQueryHints(query);
+		JpaSettings.setQueryHints(query, entityClass, getQueryKind());
 
 		if (limit != null)
 		{
@@ -1893,19 +2060,19 @@ public abstract class JpaDslAbstract<E, R>
 	public <F extends Object> int update(Map<SingularAttribute<E, F>, F> updatemap)
 	{
 		Preconditions.checkArgument(orders.size() == 0, "Order is not supported for delete");
+		final List<Object> evictIds = CacheEvictor.selectIds(getEntityManager(), entityClass, root, predicate);
 		CriteriaUpdate<E> updateCriteria = builder.createCriteriaUpdate(entityClass);
 		root = updateCriteria.getRoot();
 		if (predicate != null)
 		{
 			updateCriteria.where(predicate);
-			for (Entry<SingularAttribute<E, F>, F> update : updatemap.entrySet())
-			{
-				updateCriteria.set(update.getKey(), update.getValue());
-			}
-
+		}
+		for (Entry<SingularAttribute<E, F>, F> update : updatemap.entrySet())
+		{
+			updateCriteria.set(update.getKey(), update.getValue());
 		}
 		Query query = getEntityManager().createQuery(updateCriteria);
-		JpaSettings.setQueryHints(query);
+		JpaSettings.setQueryHints(query, entityClass, QueryKind.UPDATE);
 
 		if (limit != null)
 		{
@@ -1916,7 +2083,7 @@ public abstract class JpaDslAbstract<E, R>
 			query.setFirstResult(startPosition);
 		}
 		int result = query.executeUpdate();
-		getEntityManager().getEntityManagerFactory().getCache().evict(entityClass);
+		CacheEvictor.evict(getEntityManager(), entityClass, evictIds);
 
 		return result;
 	}
@@ -1924,6 +2091,8 @@ public abstract class JpaDslAbstract<E, R>
 	/**
 	 * WARNING, order will not be honoured by this method
 	 * 
+	 * See JpaDslUpdateBuilder for updates using expressions or joins
+	 * 
 	 * @param attribute
 	 * @param value
 	 * 
@@ -1932,15 +2101,16 @@ public abstract class JpaDslAbstract<E, R>
 	public <F> int update(SingularAttribute<E, F> attribute, F value)
 	{
 		Preconditions.checkArgument(orders.size() == 0, "Order is not supported for delete");
+		final List<Object> evictIds = CacheEvictor.selectIds(getEntityManager(), entityClass, root, predicate);
 		CriteriaUpdate<E> updateCriteria = builder.createCriteriaUpdate(entityClass);
 		root = updateCriteria.getRoot();
 		if (predicate != null)
 		{
 			updateCriteria.where(predicate);
-			updateCriteria.set(attribute, value);
 		}
+		updateCriteria.set(attribute, value);
 		Query query = getEntityManager().createQuery(updateCriteria);
-		JpaSettings.setQueryHints(query);
+		JpaSettings.setQueryHints(query, entityClass, QueryKind.UPDATE);
 
 		if (limit != null)
 		{
@@ -1951,7 +2121,7 @@ public abstract class JpaDslAbstract<E, R>
 			query.setFirstResult(startPosition);
 		}
 		int result = query.executeUpdate();
-		getEntityManager().getEntityManagerFactory().getCache().evict(entityClass);
+		CacheEvictor.evict(getEntityManager(), entityClass, evictIds);
 
 		return result;
 	}
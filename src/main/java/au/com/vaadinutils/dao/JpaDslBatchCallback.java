@@ -0,0 +1,13 @@
+package au.com.vaadinutils.dao;
+
+import java.util.List;
+
+/**
+ * Processes one batch of the rows of JpaDslBuilder.forEachBatch()
+ */
+public interface JpaDslBatchCallback<E>
+{
+
+	void process(List<E> batch) throws Exception;
+
+}
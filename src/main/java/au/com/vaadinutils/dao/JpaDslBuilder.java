@@ -1,7 +1,19 @@
 package au.com.vaadinutils.dao;
 
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import javax.persistence.EntityManager;
+import javax.persistence.TypedQuery;
 import javax.persistence.criteria.CriteriaQuery;
+import javax.persistence.criteria.Path;
+import javax.persistence.criteria.Predicate;
 import javax.persistence.criteria.Root;
+import javax.persistence.metamodel.SingularAttribute;
+
+import com.google.common.base.Preconditions;
 
 public class JpaDslBuilder<E> extends JpaDslAbstract<E, E>
 {
@@ -33,6 +45,207 @@ public class JpaDslBuilder<E> extends JpaDslAbstract<E, E>
 		isJpaContainerDelegate = true;
 	}
 
+	/**
+	 * Runs the query a batch at a time, in id order, so the rows don't all
+	 * have to fit in memory. Each batch is selected with where id > (the last
+	 * id of the previous batch), rather than an offset which gets slower the
+	 * further through the table it gets.
+	 * 
+	 * Once a batch has been processed any changes are flushed (when in a
+	 * transaction) and the batch's entities are detached, so the EntityManager
+	 * doesn't keep every row. Only the selected entities are detached, not
+	 * the entities they reference, unless the relationship cascades detach. A
+	 * selected entity the caller also holds elsewhere is detached too.
+	 * 
+	 * Outside a transaction nothing is flushed, so changes the callback makes
+	 * to a batch are lost when it is detached.
+	 * 
+	 * @param batchSize
+	 * @param callback
+	 * @throws Exception
+	 *             thrown by the callback
+	 */
+	public void forEachBatch(final int batchSize, final JpaDslBatchCallback<E> callback) throws Exception
+	{
+		forEachBatch(batchSize, false, callback);
+	}
+
+	/**
+	 * As forEachBatch(batchSize, callback)
+	 * 
+	 * @param clearEntityManager
+	 *            - clear the EntityManager after each batch rather than
+	 *            detaching the batch, which also releases the entities the
+	 *            batch loaded through its relationships. Every entity the
+	 *            EntityManager manages is detached, including ones loaded
+	 *            before the batches were started.
+	 */
+	public void forEachBatch(final int batchSize, final boolean clearEntityManager,
+			final JpaDslBatchCallback<E> callback) throws Exception
+	{
+		final BatchLoader loader = new BatchLoader(batchSize, clearEntityManager);
+		for (List<E> batch = loader.next(); !batch.isEmpty(); batch = loader.next())
+		{
+			callback.process(batch);
+		}
+		loader.release();
+	}
+
+	/**
+	 * Iterates over the rows a batch at a time, see forEachBatch(). The
+	 * previous batch is detached when the next one is selected.
+	 * 
+	 * @param batchSize
+	 * @return
+	 */
+	public Iterable<E> iterate(final int batchSize)
+	{
+		return iterate(batchSize, false);
+	}
+
+	/**
+	 * As iterate(batchSize), see forEachBatch(batchSize, clearEntityManager,
+	 * callback)
+	 * 
+	 * @param batchSize
+	 * @param clearEntityManager
+	 * @return
+	 */
+	public Iterable<E> iterate(final int batchSize, final boolean clearEntityManager)
+	{
+		return new Iterable<E>()
+		{
+
+			@Override
+			public Iterator<E> iterator()
+			{
+				return new Iterator<E>()
+				{
+					private final BatchLoader loader = new BatchLoader(batchSize, clearEntityManager);
+					private Iterator<E> batch = Collections.emptyIterator();
+					private boolean done = false;
+
+					@Override
+					public boolean hasNext()
+					{
+						while (!batch.hasNext() && !done)
+						{
+							final List<E> next = loader.next();
+							done = next.isEmpty();
+							if (done)
+							{
+								loader.release();
+							}
+							batch = next.iterator();
+						}
+						return batch.hasNext();
+					}
+
+					@Override
+					public E next()
+					{
+						if (!hasNext())
+						{
+							throw new NoSuchElementException();
+						}
+						return batch.next();
+					}
+
+					@Override
+					public void remove()
+					{
+						throw new UnsupportedOperationException();
+					}
+				};
+			}
+		};
+	}
+
+	/**
+	 * selects the batches, detaching the previous batch or clearing the
+	 * EntityManager
+	 */
+	private class BatchLoader
+	{
+		private final int batchSize;
+		private final boolean clearEntityManager;
+		private final SingularAttribute<E, Long> idField;
+		private List<E> previous = Collections.emptyList();
+		private Long after = null;
+		private boolean last = false;
+
+		BatchLoader(final int batchSize, final boolean clearEntityManager)
+		{
+			Preconditions.checkArgument(batchSize > 0, "batchSize must be greater than 0");
+			Preconditions.checkState(orders.size() == 0, "Batches are always in id order");
+			this.batchSize = batchSize;
+			this.clearEntityManager = clearEntityManager;
+			this.idField = JpaBaseDao.getIdField(entityClass);
+		}
+
+		List<E> next()
+		{
+			release();
+			if (last)
+			{
+				return Collections.emptyList();
+			}
+
+			final Path<Long> id = root.get(idField);
+			Predicate where = predicate;
+			if (after != null)
+			{
+				final Predicate afterPrevious = builder.greaterThan(id, after);
+				where = where == null ? afterPrevious : builder.and(where, afterPrevious);
+			}
+			if (where != null)
+			{
+				criteria.where(where);
+			}
+			criteria.orderBy(builder.asc(id));
+
+			final EntityManager em = getEntityManager();
+			final TypedQuery<E> query = em.createQuery(criteria);
+			JpaSettings.setQueryHints(query, entityClass, getQueryKind());
+			query.setMaxResults(batchSize);
+			final List<E> batch = query.getResultList();
+
+			last = batch.size() < batchSize;
+			if (!batch.isEmpty())
+			{
+				after = (Long) em.getEntityManagerFactory().getPersistenceUnitUtil()
+						.getIdentifier(batch.get(batch.size() - 1));
+			}
+			previous = batch;
+			return batch;
+		}
+
+		void release()
+		{
+			if (previous.isEmpty())
+			{
+				return;
+			}
+			final EntityManager em = getEntityManager();
+			if (em.isJoinedToTransaction())
+			{
+				em.flush();
+			}
+			if (clearEntityManager)
+			{
+				em.clear();
+			}
+			else
+			{
+				for (E entity : previous)
+				{
+					em.detach(entity);
+				}
+			}
+			previous = Collections.emptyList();
+		}
+	}
+
 	// /**
 	// * @deprecated This method is broken! You should use a JpaDslCountBuilder
 	// to
@@ -2,9 +2,16 @@ package au.com.vaadinutils.dao;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Comparator;
 import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.Callable;
+
+import javax.persistence.PersistenceUnitUtil;
+
+import com.google.common.base.Function;
+import com.google.common.base.Preconditions;
 
 import au.com.vaadinutils.dao.JpaBaseDao.Condition;
 
@@ -43,6 +50,8 @@ import au.com.vaadinutils.dao.JpaBaseDao.Condition;
  * </code>
  * </pre>
  *
+ * By default the queries are run one after another, see setExecution() to run
+ * them concurrently or as a single OR'ed query.
  */
 public class JpaDslBuilderGroup<E>
 {
@@ -53,6 +62,8 @@ public class JpaDslBuilderGroup<E>
 	private List<E> results;
 	private boolean distinct = false;
 	private List<JpaDslOrder> orders = new ArrayList<>();
+	private JpaDslGroupExecution execution = JpaDslGroupExecution.SEQUENTIAL;
+	private Comparator<? super E> mergeComparator;
 
 	public JpaDslBuilderGroup(final Class<E> entityClass)
 	{
@@ -79,8 +90,49 @@ public class JpaDslBuilderGroup<E>
 		public void conditionsWillBeAdded(final JpaDslBuilder<E> builder, final List<Condition<E>> conditions);
 	}
 
+	/**
+	 * With PARALLEL the common and item callbacks are called concurrently from
+	 * different threads, and the entities returned by all but the first item
+	 * were loaded by an EntityManager that has since been closed, so reload
+	 * any that need to be modified.
+	 *
+	 * PARALLEL items don't see changes the caller hasn't committed, so when
+	 * the caller's transaction has changes, or it is a worker thread of the
+	 * EntityManagerProvider's executor, they are run one after another on the
+	 * caller's EntityManager instead and return what SEQUENTIAL would.
+	 *
+	 * @param execution
+	 *            - defaults to SEQUENTIAL
+	 */
+	public void setExecution(final JpaDslGroupExecution execution)
+	{
+		Preconditions.checkNotNull(execution);
+		this.execution = execution;
+	}
+
+	/**
+	 * the order used to merge the results of PARALLEL execution, it must match
+	 * the order by of the queries. Defaults to comparing the order by
+	 * properties of the entities.
+	 */
+	public void setMergeComparator(final Comparator<? super E> mergeComparator)
+	{
+		this.mergeComparator = mergeComparator;
+	}
+
 	public List<E> getResults()
 	{
+		if (builders.size() > 0 && execution == JpaDslGroupExecution.OR)
+		{
+			this.results = makeOrQuery();
+			return this.results;
+		}
+		if (builders.size() > 1 && execution == JpaDslGroupExecution.PARALLEL)
+		{
+			this.results = runParallel();
+			return this.results;
+		}
+
 		final Collection<E> results;
 		if (distinct)
 		{
@@ -130,6 +182,38 @@ public class JpaDslBuilderGroup<E>
 			builder.conditionsWillBeAdded(q, conditions);
 		}
 
+		return runQuery(q, conditions);
+	}
+
+	/**
+	 * a single query with the common conditions and'ed with the or of each
+	 * item's conditions
+	 */
+	@SuppressWarnings("unchecked")
+	private List<E> makeOrQuery()
+	{
+		final JpaDslBuilder<E> q = new JpaDslBuilder<>(entityClass);
+		final List<Condition<E>> conditions = new LinkedList<>();
+
+		if (common != null)
+		{
+			common.conditionsWillBeAdded(q, conditions);
+		}
+
+		final List<Condition<E>> alternatives = new ArrayList<>(builders.size());
+		for (JpaDslBuilderGroupItem<E> builder : builders)
+		{
+			final List<Condition<E>> itemConditions = new LinkedList<>();
+			builder.conditionsWillBeAdded(q, itemConditions);
+			alternatives.add(q.and(itemConditions));
+		}
+		conditions.add(q.or(alternatives.toArray(new Condition[alternatives.size()])));
+
+		return runQuery(q, conditions);
+	}
+
+	private List<E> runQuery(final JpaDslBuilder<E> q, final List<Condition<E>> conditions)
+	{
 		if (distinct)
 		{
 			q.distinct();
@@ -145,6 +229,71 @@ public class JpaDslBuilderGroup<E>
 		return q.getResultList();
 	}
 
+	private List<E> runParallel()
+	{
+		final List<Callable<List<E>>> queries = new ArrayList<>(builders.size());
+		for (final JpaDslBuilderGroupItem<E> builder : builders)
+		{
+			queries.add(new Callable<List<E>>()
+			{
+
+				@Override
+				public List<E> call() throws Exception
+				{
+					return makeQuery(builder);
+				}
+			});
+		}
+		final List<List<E>> results = JpaDslGroupSupport.runParallel(queries);
+
+		Function<E, Object> distinctKey = null;
+		if (distinct)
+		{
+			// the same row loaded by different EntityManagers is a different
+			// instance, so compare the ids
+			final PersistenceUnitUtil util = EntityManagerProvider.getEntityManager().getEntityManagerFactory()
+					.getPersistenceUnitUtil();
+			distinctKey = new Function<E, Object>()
+			{
+
+				@Override
+				public Object apply(E input)
+				{
+					return util.getIdentifier(input);
+				}
+			};
+		}
+
+		if (mergeComparator != null)
+		{
+			return JpaDslGroupSupport.merge(results, mergeComparator, distinctKey);
+		}
+		if (orders.size() > 0)
+		{
+			return JpaDslGroupSupport.merge(results, new Comparator<E>()
+			{
+
+				@Override
+				public int compare(E o1, E o2)
+				{
+					int result = 0;
+					for (JpaDslOrder order : orders)
+					{
+						result = JpaDslGroupSupport.compareValues(
+								JpaDslGroupSupport.readPath(o1, order.getField()),
+								JpaDslGroupSupport.readPath(o2, order.getField()), order.getAscending());
+						if (result != 0)
+						{
+							break;
+						}
+					}
+					return result;
+				}
+			}, distinctKey);
+		}
+		return JpaDslGroupSupport.append(results, distinctKey);
+	}
+
 	public void distinct()
 	{
 		distinct = true;
@@ -1,4 +1,5 @@
 package au.com.vaadinutils.dao;
+import javax.persistence.TypedQuery;
 import javax.persistence.criteria.Expression;
 public class JpaDslCountBuilder<E> extends JpaDslAbstract<E, Long>
 {
@@ -19,7 +20,7 @@ public class JpaDslCountBuilder<E> extends JpaDslAbstract<E, Long>
 		}
 		criteria.select(builder.count(root));
 
-		return getEntityManager().createQuery(criteria).getSingleResult();
+		return prepareCountQuery().getSingleResult();
 	}
 
 	public Long countDistinct()
@@ -30,7 +31,7 @@ public class JpaDslCountBuilder<E> extends JpaDslAbstract<E, Long>
 		}
 		criteria.select(builder.countDistinct(root));
 
-		return getEntityManager().createQuery(criteria).getSingleResult();
+		return prepareCountQuery().getSingleResult();
 	}
 	
     public Long countDistinct(Expression<?> x) {
@@ -39,6 +40,33 @@ public class JpaDslCountBuilder<E> extends JpaDslAbstract<E, Long>
         }
         criteria.select(builder.countDistinct(x));
 
-        return getEntityManager().createQuery(criteria).getSingleResult();
+        return prepareCountQuery().getSingleResult();
     }
+
+	/**
+	 * counts the rows unless something else has been selected, for queries
+	 * built for JpaDslQueryCache
+	 */
+	@Override
+	TypedQuery<Long> prepareQuery()
+	{
+		if (criteria.getSelection() == null)
+		{
+			criteria.select(builder.count(root));
+		}
+		return super.prepareQuery();
+	}
+
+	@Override
+	protected JpaSettings.QueryKind getQueryKind()
+	{
+		return JpaSettings.QueryKind.COUNT;
+	}
+
+	private TypedQuery<Long> prepareCountQuery()
+	{
+		TypedQuery<Long> query = getEntityManager().createQuery(criteria);
+		JpaSettings.setQueryHints(query, entityClass, JpaSettings.QueryKind.COUNT);
+		return query;
+	}
 }
@@ -0,0 +1,34 @@
+package au.com.vaadinutils.dao;
+
+/**
+ * How the items of a JpaDslBuilderGroup or JpaDslTupleBuilderGroup are run.
+ */
+public enum JpaDslGroupExecution
+{
+	/**
+	 * one query per item, run one after another on the caller's
+	 * EntityManager, the results are appended in item order
+	 */
+	SEQUENTIAL,
+
+	/**
+	 * a single query with the conditions of each item OR'ed together. Only
+	 * suitable when the items add conditions and not joins, as joins are
+	 * shared by all of the items. A row matching more than one item is only
+	 * returned once.
+	 */
+	OR,
+
+	/**
+	 * one query per item, run concurrently on the EntityManagerProvider's
+	 * shared executor, each with its own EntityManager. When the group is
+	 * ordered the sorted results of each item are merged, otherwise they are
+	 * appended in item order.
+	 *
+	 * The other EntityManagers only see committed rows, so when the caller's
+	 * transaction has changes, flushed or not, or the caller is already one of
+	 * the executor's workers, the items are run one after another on the
+	 * caller's EntityManager, as SEQUENTIAL does, and merged the same way.
+	 */
+	PARALLEL
+}
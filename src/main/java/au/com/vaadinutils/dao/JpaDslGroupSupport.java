@@ -0,0 +1,326 @@
+package au.com.vaadinutils.dao;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+import javax.persistence.EntityManager;
+
+import org.eclipse.persistence.internal.sessions.UnitOfWorkImpl;
+import org.eclipse.persistence.jpa.JpaEntityManager;
+
+import com.google.common.base.Function;
+
+/**
+ * Running and merging the queries of JpaDslBuilderGroup and
+ * JpaDslTupleBuilderGroup, also used by JpaBaseDao.findByIds() and
+ * Path.evict().
+ */
+final class JpaDslGroupSupport
+{
+	private JpaDslGroupSupport()
+	{
+	}
+
+	/**
+	 * Runs the queries concurrently, each with its own EntityManager. The
+	 * first query is run on the calling thread, so a group with a single item
+	 * doesn't use the executor at all.
+	 *
+	 * The other EntityManagers can't see changes the caller hasn't committed,
+	 * so when the caller's EntityManager has changes in its transaction, or
+	 * this is already a worker thread, the queries are run one after another
+	 * on the caller's EntityManager instead.
+	 *
+	 * @param queries
+	 * @return the results of each query, in the same order as the queries
+	 */
+	static <T> List<List<T>> runParallel(List<Callable<List<T>>> queries)
+	{
+		if (EntityManagerExecutor.isWorkerThread() || hasUncommittedChanges(EntityManagerProvider.getEntityManager()))
+		{
+			return runSequentially(queries);
+		}
+		return runParallel(queries, new Function<Callable<List<T>>, Future<List<T>>>()
+		{
+
+			@Override
+			public Future<List<T>> apply(Callable<List<T>> query)
+			{
+				return EntityManagerProvider.submit(new EntityManagerCallable<>(query));
+			}
+		});
+	}
+
+	/**
+	 * @return true if the EntityManager has flushed changes, or changes still
+	 *         to be flushed, in its transaction
+	 */
+	static boolean hasUncommittedChanges(EntityManager em)
+	{
+		if (em == null || !em.isJoinedToTransaction())
+		{
+			return false;
+		}
+		final UnitOfWorkImpl unitOfWork = (UnitOfWorkImpl) em.unwrap(JpaEntityManager.class).getUnitOfWork();
+		return unitOfWork.wasTransactionBegunPrematurely() || unitOfWork.hasChanges();
+	}
+
+	static <T> List<List<T>> runSequentially(List<Callable<List<T>>> queries)
+	{
+		List<List<T>> results = new ArrayList<>(queries.size());
+		try
+		{
+			for (Callable<List<T>> query : queries)
+			{
+				results.add(query.call());
+			}
+		}
+		catch (RuntimeException e)
+		{
+			throw e;
+		}
+		catch (Exception e)
+		{
+			throw new RuntimeException(e);
+		}
+		return results;
+	}
+
+	/**
+	 * @param queries
+	 * @param starter
+	 *            - starts each query after the first in the background
+	 * @return the results of each query, in the same order as the queries
+	 */
+	static <T> List<List<T>> runParallel(List<Callable<List<T>>> queries,
+			Function<Callable<List<T>>, Future<List<T>>> starter)
+	{
+		List<Future<List<T>>> futures = new ArrayList<>(queries.size());
+		for (int i = 1; i < queries.size(); i++)
+		{
+			futures.add(starter.apply(queries.get(i)));
+		}
+
+		List<List<T>> results = new ArrayList<>(queries.size());
+		try
+		{
+			results.add(queries.get(0).call());
+			for (Future<List<T>> future : futures)
+			{
+				results.add(future.get());
+			}
+		}
+		catch (ExecutionException e)
+		{
+			cancel(futures);
+			if (e.getCause() instanceof RuntimeException)
+			{
+				throw (RuntimeException) e.getCause();
+			}
+			throw new RuntimeException(e.getCause());
+		}
+		catch (InterruptedException e)
+		{
+			cancel(futures);
+			Thread.currentThread().interrupt();
+			throw new RuntimeException(e);
+		}
+		catch (RuntimeException e)
+		{
+			cancel(futures);
+			throw e;
+		}
+		catch (Exception e)
+		{
+			cancel(futures);
+			throw new RuntimeException(e);
+		}
+		return results;
+	}
+
+	private static void cancel(List<? extends Future<?>> futures)
+	{
+		for (Future<?> future : futures)
+		{
+			future.cancel(true);
+		}
+	}
+
+	/**
+	 * appends the results in order
+	 *
+	 * @param distinctKey
+	 *            - null to keep every row, otherwise rows with the same key as
+	 *            an earlier row are dropped
+	 */
+	static <T> List<T> append(List<List<T>> results, Function<? super T, ?> distinctKey)
+	{
+		int size = 0;
+		for (List<T> result : results)
+		{
+			size += result.size();
+		}
+		List<T> appended = new ArrayList<>(size);
+		Set<Object> seen = distinctKey != null ? new HashSet<>() : null;
+		for (List<T> result : results)
+		{
+			for (T row : result)
+			{
+				if (seen == null || seen.add(distinctKey.apply(row)))
+				{
+					appended.add(row);
+				}
+			}
+		}
+		return appended;
+	}
+
+	/**
+	 * k-way merge of lists that are each already sorted by the comparator.
+	 * Rows that compare as equal keep the order of the lists they came from.
+	 */
+	static <T> List<T> merge(final List<List<T>> sorted, final Comparator<? super T> comparator,
+			Function<? super T, ?> distinctKey)
+	{
+		int size = 0;
+		for (List<T> result : sorted)
+		{
+			size += result.size();
+		}
+		List<T> merged = new ArrayList<>(size);
+		Set<Object> seen = distinctKey != null ? new HashSet<>() : null;
+
+		// each entry is {list index, position in list}
+		PriorityQueue<int[]> heads = new PriorityQueue<>(Math.max(1, sorted.size()), new Comparator<int[]>()
+		{
+
+			@Override
+			public int compare(int[] o1, int[] o2)
+			{
+				int result = comparator.compare(sorted.get(o1[0]).get(o1[1]), sorted.get(o2[0]).get(o2[1]));
+				if (result == 0)
+				{
+					result = Integer.compare(o1[0], o2[0]);
+				}
+				return result;
+			}
+		});
+		for (int i = 0; i < sorted.size(); i++)
+		{
+			if (!sorted.get(i).isEmpty())
+			{
+				heads.add(new int[] { i, 0 });
+			}
+		}
+
+		while (!heads.isEmpty())
+		{
+			int[] head = heads.poll();
+			List<T> list = sorted.get(head[0]);
+			T row = list.get(head[1]);
+			if (seen == null || seen.add(distinctKey.apply(row)))
+			{
+				merged.add(row);
+			}
+			if (head[1] + 1 < list.size())
+			{
+				head[1]++;
+				heads.add(head);
+			}
+		}
+		return merged;
+	}
+
+	/**
+	 * Compares values the way the database orders them by default, nulls
+	 * first when ascending. Strings are compared with String.compareTo, set a
+	 * merge comparator on the group if the database collation differs.
+	 */
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	static int compareValues(Object v1, Object v2, boolean ascending)
+	{
+		int result;
+		if (v1 == v2)
+		{
+			result = 0;
+		}
+		else if (v1 == null)
+		{
+			result = -1;
+		}
+		else if (v2 == null)
+		{
+			result = 1;
+		}
+		else
+		{
+			result = ((Comparable) v1).compareTo(v2);
+		}
+		return ascending ? result : -result;
+	}
+
+	/**
+	 * reads a dotted property path, e.g. "contact.surname", using the getter
+	 * if there is one and the field if not
+	 */
+	static Object readPath(Object bean, String path)
+	{
+		Object value = bean;
+		for (String property : path.split("\\."))
+		{
+			if (value == null)
+			{
+				return null;
+			}
+			value = readProperty(value, property);
+		}
+		return value;
+	}
+
+	private static Object readProperty(Object bean, String property)
+	{
+		String suffix = Character.toUpperCase(property.charAt(0)) + property.substring(1);
+		try
+		{
+			for (String prefix : new String[] { "get", "is" })
+			{
+				try
+				{
+					Method getter = bean.getClass().getMethod(prefix + suffix);
+					return getter.invoke(bean);
+				}
+				catch (NoSuchMethodException e)
+				{
+					// try the next prefix
+				}
+			}
+			for (Class<?> type = bean.getClass(); type != null; type = type.getSuperclass())
+			{
+				try
+				{
+					Field field = type.getDeclaredField(property);
+					field.setAccessible(true);
+					return field.get(bean);
+				}
+				catch (NoSuchFieldException e)
+				{
+					// try the super class
+				}
+			}
+		}
+		catch (ReflectiveOperationException e)
+		{
+			throw new IllegalStateException("Unable to read " + property + " from " + bean.getClass(), e);
+		}
+		throw new IllegalArgumentException(property + " isn't a property of " + bean.getClass());
+	}
+}
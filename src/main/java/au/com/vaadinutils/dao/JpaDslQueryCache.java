@@ -0,0 +1,142 @@
+package au.com.vaadinutils.dao;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.TypedQuery;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Caches the queries built by JpaDslBuilder, JpaDslTupleBuilder and
+ * JpaDslCountBuilder so a query that is run over and over with different
+ * values is only built, and translated to SQL, once.
+ *
+ * The first time a key is used the shape is built and registered as a named
+ * query with the EntityManagerFactory. After that the named query is used and
+ * the shape isn't called, so the shape must use parameters rather than values
+ * and must always build the same query for its key.
+ *
+ * <pre>
+ * <code>
+ * final TypedQuery&lt;Contact&gt; query = JpaDslQueryCache.createQuery("contactsBySurname", Contact.class,
+ * 		new JpaDslQueryCache.Shape&lt;Contact&gt;()
+ * 		{
+ * 			&#64;Override
+ * 			public JpaDslAbstract&lt;?, Contact&gt; build()
+ * 			{
+ * 				final JpaDslBuilder&lt;Contact&gt; q = new JpaDslBuilder&lt;&gt;(Contact.class);
+ * 				q.where(q.eq(q.get(Contact_.surname), q.param(String.class, "surname")));
+ * 				q.orderBy(Contact_.firstname, true);
+ * 				return q;
+ * 			}
+ * 		});
+ * query.setParameter("surname", surname);
+ * final List&lt;Contact&gt; contacts = query.getResultList();
+ * </code>
+ * </pre>
+ */
+public final class JpaDslQueryCache
+{
+	/**
+	 * builds the query for a key
+	 */
+	public interface Shape<R>
+	{
+		JpaDslAbstract<?, R> build();
+	}
+
+	private static final String PREFIX = JpaDslQueryCache.class.getSimpleName() + ".";
+
+	private static volatile boolean enabled = true;
+
+	/**
+	 * the keys registered with each EntityManagerFactory
+	 */
+	private static final Map<EntityManagerFactory, Set<String>> registered = Collections
+			.synchronizedMap(new WeakHashMap<EntityManagerFactory, Set<String>>());
+
+	private JpaDslQueryCache()
+	{
+	}
+
+	/**
+	 * @param key
+	 *            - identifies the shape, must be unique across the
+	 *            application
+	 * @param resultClass
+	 *            - the type the shape selects, e.g. Tuple.class or Long.class
+	 * @param shape
+	 * @return a query to bind the parameters to, with the JpaSettings hints
+	 *         for the entity and kind of query applied
+	 */
+	public static <R> TypedQuery<R> createQuery(final String key, final Class<R> resultClass, final Shape<R> shape)
+	{
+		Preconditions.checkNotNull(key);
+		Preconditions.checkNotNull(resultClass);
+		Preconditions.checkNotNull(shape);
+
+		if (!enabled)
+		{
+			return build(resultClass, shape).prepareQuery();
+		}
+
+		final EntityManager em = JpaBaseDao.getEntityManager();
+		final Set<String> keys = getKeys(em.getEntityManagerFactory());
+		final String name = PREFIX + key;
+		if (!keys.contains(key))
+		{
+			final TypedQuery<R> query = build(resultClass, shape).prepareQuery();
+			em.getEntityManagerFactory().addNamedQuery(name, query);
+			keys.add(key);
+			return query;
+		}
+		// the hints were captured when the query was registered
+		return em.createNamedQuery(name, resultClass);
+	}
+
+	private static <R> JpaDslAbstract<?, R> build(final Class<R> resultClass, final Shape<R> shape)
+	{
+		final JpaDslAbstract<?, R> q = shape.build();
+		Preconditions.checkArgument(resultClass.isAssignableFrom(q.criteria.getResultType()),
+				"The shape selects %s, not %s", q.criteria.getResultType(), resultClass);
+		return q;
+	}
+
+	private static Set<String> getKeys(final EntityManagerFactory emf)
+	{
+		synchronized (registered)
+		{
+			Set<String> keys = registered.get(emf);
+			if (keys == null)
+			{
+				keys = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+				registered.put(emf, keys);
+			}
+			return keys;
+		}
+	}
+
+	/**
+	 * When disabled the shape is built every time, which is useful when
+	 * changing a shape during development. Enabled by default.
+	 */
+	public static void setEnabled(final boolean enabled)
+	{
+		JpaDslQueryCache.enabled = enabled;
+	}
+
+	/**
+	 * forget the registered queries, the next use of each key will build its
+	 * shape again
+	 */
+	public static void clear()
+	{
+		registered.clear();
+	}
+}
@@ -4,6 +4,7 @@ import java.util.LinkedList;
 import java.util.List;
 
 import javax.persistence.Tuple;
+import javax.persistence.TypedQuery;
 import javax.persistence.criteria.Path;
 import javax.persistence.criteria.Selection;
 import javax.persistence.metamodel.SingularAttribute;
@@ -60,24 +61,20 @@ public class JpaDslTupleBuilder<E> extends JpaDslAbstract<E, Tuple>
 	}
 
 	@Override
-	public List<Tuple> getResultList()
+	protected JpaSettings.QueryKind getQueryKind()
 	{
-		criteria.multiselect(multiselects);
-		return super.getResultList();
-	}
-
-	@Override
-	public Tuple getSingleResult()
-	{
-		criteria.multiselect(multiselects);
-		return super.getSingleResult();
+		return JpaSettings.QueryKind.TUPLE;
 	}
 
+	/**
+	 * applies the multiselects, so every way of running the query, including
+	 * JpaDslQueryCache, selects them
+	 */
 	@Override
-	public Tuple getSingleResultOrNull()
+	TypedQuery<Tuple> prepareQuery()
 	{
 		criteria.multiselect(multiselects);
-		return super.getSingleResultOrNull();
+		return super.prepareQuery();
 	}
 
 }
@@ -1,17 +1,24 @@
 package au.com.vaadinutils.dao;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Comparator;
 import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.concurrent.Callable;
 
 import javax.persistence.Tuple;
+import javax.persistence.criteria.JoinType;
 import javax.persistence.metamodel.SingularAttribute;
 
+import com.google.common.base.Function;
+import com.google.common.base.Preconditions;
+
 import au.com.vaadinutils.dao.JpaBaseDao.Condition;
 
 /**
@@ -55,6 +62,8 @@ import au.com.vaadinutils.dao.JpaBaseDao.Condition;
  * </code>
  * </pre>
  *
+ * By default the queries are run one after another, see setExecution() to run
+ * them concurrently or as a single OR'ed query.
  */
 public class JpaDslTupleBuilderGroup<E>
 {
@@ -67,6 +76,8 @@ public class JpaDslTupleBuilderGroup<E>
 	private Map<SingularAttribute<E, ?>, Integer> multiselects = new LinkedHashMap<>();
 	private int positionCounter = 0;
 	private List<JpaDslOrder> orders = new ArrayList<>();
+	private JpaDslGroupExecution execution = JpaDslGroupExecution.SEQUENTIAL;
+	private Comparator<? super Tuple> mergeComparator;
 
 	public JpaDslTupleBuilderGroup(final Class<E> entityClass)
 	{
@@ -119,8 +130,47 @@ public class JpaDslTupleBuilderGroup<E>
 		}
 	}
 
+	/**
+	 * With PARALLEL the common and item callbacks are called concurrently from
+	 * different threads.
+	 *
+	 * PARALLEL items don't see changes the caller hasn't committed, so when
+	 * the caller's transaction has changes, or it is a worker thread of the
+	 * EntityManagerProvider's executor, they are run one after another on the
+	 * caller's EntityManager instead and return what SEQUENTIAL would.
+	 *
+	 * @param execution
+	 *            - defaults to SEQUENTIAL
+	 */
+	public void setExecution(final JpaDslGroupExecution execution)
+	{
+		Preconditions.checkNotNull(execution);
+		this.execution = execution;
+	}
+
+	/**
+	 * the order used to merge the results of PARALLEL execution, it must match
+	 * the order by of the queries. Defaults to comparing the order by values,
+	 * which are selected after the multiselects for the purpose.
+	 */
+	public void setMergeComparator(final Comparator<? super Tuple> mergeComparator)
+	{
+		this.mergeComparator = mergeComparator;
+	}
+
 	public List<Tuple> getResults()
 	{
+		if (builders.size() > 0 && execution == JpaDslGroupExecution.OR)
+		{
+			this.results = makeOrQuery();
+			return this.results;
+		}
+		if (builders.size() > 1 && execution == JpaDslGroupExecution.PARALLEL)
+		{
+			this.results = runParallel();
+			return this.results;
+		}
+
 		final Collection<Tuple> results;
 		if (distinct)
 		{
@@ -135,12 +185,12 @@ public class JpaDslTupleBuilderGroup<E>
 		{
 			for (JpaDslTupleBuilderGroupItem<E> builder : builders)
 			{
-				results.addAll(makeQuery(builder));
+				results.addAll(makeQuery(builder, false));
 			}
 		}
 		else
 		{
-			results.addAll(makeQuery(null));
+			results.addAll(makeQuery(null, false));
 		}
 
 		if (distinct)
@@ -155,15 +205,36 @@ public class JpaDslTupleBuilderGroup<E>
 		return this.results;
 	}
 
-	private List<Tuple> makeQuery(final JpaDslTupleBuilderGroupItem<E> builder)
+	/**
+	 * @param selectOrders
+	 *            - also select the order by values, after the multiselects
+	 */
+	private List<Tuple> makeQuery(final JpaDslTupleBuilderGroupItem<E> builder, final boolean selectOrders)
 	{
-		final JpaDslTupleBuilder<E> q = new JpaDslTupleBuilder<>(entityClass);
+		final JpaDslTupleBuilder<E> q = newBuilder(selectOrders);
+		final List<Condition<E>> conditions = new LinkedList<>();
 
-		for (Entry<SingularAttribute<E, ?>, Integer> multiselect : multiselects.entrySet())
+		if (common != null)
 		{
-			q.multiselect(multiselect.getKey());
+			common.conditionsWillBeAdded(q, conditions);
+		}
+
+		if (builder != null)
+		{
+			builder.conditionsWillBeAdded(q, conditions);
 		}
 
+		return runQuery(q, conditions);
+	}
+
+	/**
+	 * a single query with the common conditions and'ed with the or of each
+	 * item's conditions
+	 */
+	@SuppressWarnings("unchecked")
+	private List<Tuple> makeOrQuery()
+	{
+		final JpaDslTupleBuilder<E> q = newBuilder(false);
 		final List<Condition<E>> conditions = new LinkedList<>();
 
 		if (common != null)
@@ -171,11 +242,39 @@ public class JpaDslTupleBuilderGroup<E>
 			common.conditionsWillBeAdded(q, conditions);
 		}
 
-		if (builder != null)
+		final List<Condition<E>> alternatives = new ArrayList<>(builders.size());
+		for (JpaDslTupleBuilderGroupItem<E> builder : builders)
 		{
-			builder.conditionsWillBeAdded(q, conditions);
+			final List<Condition<E>> itemConditions = new LinkedList<>();
+			builder.conditionsWillBeAdded(q, itemConditions);
+			alternatives.add(q.and(itemConditions));
 		}
+		conditions.add(q.or(alternatives.toArray(new Condition[alternatives.size()])));
+
+		return runQuery(q, conditions);
+	}
+
+	private JpaDslTupleBuilder<E> newBuilder(final boolean selectOrders)
+	{
+		final JpaDslTupleBuilder<E> q = new JpaDslTupleBuilder<>(entityClass);
 
+		for (Entry<SingularAttribute<E, ?>, Integer> multiselect : multiselects.entrySet())
+		{
+			q.multiselect(multiselect.getKey());
+		}
+
+		if (selectOrders)
+		{
+			for (JpaDslOrder order : orders)
+			{
+				q.multiselect(q.get(order.getField(), JoinType.INNER));
+			}
+		}
+		return q;
+	}
+
+	private List<Tuple> runQuery(final JpaDslTupleBuilder<E> q, final List<Condition<E>> conditions)
+	{
 		if (distinct)
 		{
 			q.distinct();
@@ -191,6 +290,66 @@ public class JpaDslTupleBuilderGroup<E>
 		return q.getResultList();
 	}
 
+	private List<Tuple> runParallel()
+	{
+		final boolean selectOrders = mergeComparator == null && orders.size() > 0;
+		final List<Callable<List<Tuple>>> queries = new ArrayList<>(builders.size());
+		for (final JpaDslTupleBuilderGroupItem<E> builder : builders)
+		{
+			queries.add(new Callable<List<Tuple>>()
+			{
+
+				@Override
+				public List<Tuple> call() throws Exception
+				{
+					return makeQuery(builder, selectOrders);
+				}
+			});
+		}
+		final List<List<Tuple>> results = JpaDslGroupSupport.runParallel(queries);
+
+		Function<Tuple, Object> distinctKey = null;
+		if (distinct)
+		{
+			// the multiselects, ignoring any order by values
+			final int columns = positionCounter;
+			distinctKey = new Function<Tuple, Object>()
+			{
+
+				@Override
+				public Object apply(Tuple input)
+				{
+					return Arrays.asList(Arrays.copyOf(input.toArray(), columns));
+				}
+			};
+		}
+
+		if (mergeComparator != null)
+		{
+			return JpaDslGroupSupport.merge(results, mergeComparator, distinctKey);
+		}
+		if (selectOrders)
+		{
+			final int firstOrder = positionCounter;
+			return JpaDslGroupSupport.merge(results, new Comparator<Tuple>()
+			{
+
+				@Override
+				public int compare(Tuple o1, Tuple o2)
+				{
+					int result = 0;
+					for (int i = 0; i < orders.size() && result == 0; i++)
+					{
+						result = JpaDslGroupSupport.compareValues(o1.get(firstOrder + i), o2.get(firstOrder + i),
+								orders.get(i).getAscending());
+					}
+					return result;
+				}
+			}, distinctKey);
+		}
+		return JpaDslGroupSupport.append(results, distinctKey);
+	}
+
 	public void distinct()
 	{
 		distinct = true;
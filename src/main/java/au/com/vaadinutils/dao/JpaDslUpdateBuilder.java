@@ -0,0 +1,238 @@
+package au.com.vaadinutils.dao;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import javax.persistence.EntityManager;
+import javax.persistence.Query;
+import javax.persistence.TypedQuery;
+import javax.persistence.criteria.CriteriaBuilder;
+import javax.persistence.criteria.CriteriaUpdate;
+import javax.persistence.criteria.Expression;
+import javax.persistence.criteria.Path;
+import javax.persistence.criteria.Predicate;
+import javax.persistence.criteria.Subquery;
+import javax.persistence.metamodel.SingularAttribute;
+
+import com.google.common.base.Preconditions;
+
+import au.com.vaadinutils.dao.JpaSettings.QueryKind;
+
+/**
+ * A bulk update of the rows matching the where clause, where the new values
+ * can be expressions of the row being updated, e.g. counter = counter + 1.
+ *
+ * The where clause is run as a select of the matching ids, so it can use
+ * joins, which is also what getResultList() returns. The rows are then updated
+ * by id in chunks of at most JpaSettings.getMaxInListSize(). Only the updated
+ * rows are evicted from the shared cache, see
+ * JpaSettings.setEvictionThreshold().
+ *
+ * <pre>
+ * <code>
+ * final JpaDslUpdateBuilder&lt;Invoice&gt; q = invoiceDao.update();
+ * final JoinBuilder&lt;Invoice, Contact&gt; contact = q.join(Invoice_.contact);
+ * q.where(q.eq(contact, Contact_.active, false));
+ * q.set(Invoice_.reminders, q.plus(Invoice_.reminders, 1));
+ * q.set(Invoice_.status, q.target(Invoice_.previousStatus));
+ * final int updated = q.execute();
+ * </code>
+ * </pre>
+ *
+ * Like other bulk updates, entities already loaded by the EntityManager are
+ * not changed.
+ */
+public class JpaDslUpdateBuilder<E> extends JpaDslAbstract<E, Long>
+{
+	private final SingularAttribute<E, Long> idField;
+	private final CriteriaUpdate<E> update;
+	private boolean hasValues = false;
+	private int rowsPerChunk = 0;
+
+	public JpaDslUpdateBuilder(Class<E> entityClass)
+	{
+		this.entityClass = entityClass;
+		builder = getEntityManager().getCriteriaBuilder();
+		idField = JpaBaseDao.getIdField(entityClass);
+
+		criteria = builder.createQuery(Long.class);
+		root = criteria.from(entityClass);
+		criteria.select(root.get(idField));
+		update = builder.createCriteriaUpdate(entityClass);
+	}
+
+	/**
+	 * @return the attribute of the row being updated, for use in the new
+	 *         values
+	 */
+	public <T> Path<T> target(final SingularAttribute<? super E, T> attribute)
+	{
+		return update.getRoot().get(attribute);
+	}
+
+	public <T> JpaDslUpdateBuilder<E> set(final SingularAttribute<? super E, T> attribute, final T value)
+	{
+		update.set(attribute, value);
+		hasValues = true;
+		return this;
+	}
+
+	public <T> JpaDslUpdateBuilder<E> set(final SingularAttribute<? super E, T> attribute,
+			final Expression<? extends T> value)
+	{
+		update.set(attribute, value);
+		hasValues = true;
+		return this;
+	}
+
+	public <T> JpaDslUpdateBuilder<E> setNull(final SingularAttribute<? super E, T> attribute)
+	{
+		final T value = null;
+		update.set(attribute, value);
+		hasValues = true;
+		return this;
+	}
+
+	/**
+	 * @return attribute + amount, of the row being updated
+	 */
+	public <N extends Number> Expression<N> plus(final SingularAttribute<? super E, N> attribute, final N amount)
+	{
+		return builder.sum(target(attribute), amount);
+	}
+
+	/**
+	 * @return the attribute of the row being updated, or the value if the
+	 *         attribute is null
+	 */
+	public <T> Expression<T> coalesce(final SingularAttribute<? super E, T> attribute, final T value)
+	{
+		return builder.coalesce(target(attribute), value);
+	}
+
+	/**
+	 * A subquery for a new value. Correlate it with target() values, note
+	 * that MySQL doesn't allow the subquery to select from the table being
+	 * updated.
+	 */
+	public <T> Subquery<T> valueSubquery(final Class<T> type)
+	{
+		return update.subquery(type);
+	}
+
+	/**
+	 * for building other value expressions
+	 */
+	public CriteriaBuilder getCriteriaBuilder()
+	{
+		return builder;
+	}
+
+	/**
+	 * Select and update the matching rows this many at a time, in id order,
+	 * rather than selecting all of the matching ids up front. For updates of
+	 * very large numbers of rows.
+	 *
+	 * @param rowsPerChunk
+	 *            - 0 to select all of the ids at once, the default, which
+	 *            holds every matching id in memory
+	 */
+	public JpaDslUpdateBuilder<E> chunk(final int rowsPerChunk)
+	{
+		Preconditions.checkArgument(rowsPerChunk >= 0, "rowsPerChunk must not be negative");
+		this.rowsPerChunk = rowsPerChunk;
+		return this;
+	}
+
+	/**
+	 * runs the update
+	 *
+	 * @return the number of rows updated
+	 */
+	public int execute()
+	{
+		Preconditions.checkState(hasValues, "No values have been set");
+		Preconditions.checkState(orders.size() == 0, "Order is not supported for update");
+		final EntityManager em = getEntityManager();
+
+		if (predicate == null && rowsPerChunk == 0)
+		{
+			// every row, no need to select the ids
+			final int result = createUpdateQuery(em).executeUpdate();
+			CacheEvictor.evict(em, entityClass, null);
+			return result;
+		}
+
+		final int threshold = JpaSettings.getEvictionThreshold();
+		final Set<Long> updatedIds = new HashSet<>();
+		boolean evictClass = threshold == 0;
+		int result = 0;
+		Long after = null;
+		while (true)
+		{
+			final List<Long> ids = selectIds(em, after);
+			for (List<Long> chunk : InListChunker.chunk(ids))
+			{
+				update.where(update.getRoot().get(idField).in(chunk));
+				result += createUpdateQuery(em).executeUpdate();
+				if (!evictClass)
+				{
+					updatedIds.addAll(chunk);
+					evictClass = updatedIds.size() > threshold;
+				}
+			}
+			if (rowsPerChunk == 0 || ids.size() < rowsPerChunk)
+			{
+				break;
+			}
+			after = ids.get(ids.size() - 1);
+		}
+
+		CacheEvictor.evict(em, entityClass, evictClass ? null : updatedIds);
+		return result;
+	}
+
+	/**
+	 * @param after
+	 *            - when chunking, the last id of the previous chunk
+	 */
+	private List<Long> selectIds(final EntityManager em, final Long after)
+	{
+		final Path<Long> id = root.get(idField);
+		final List<Predicate> where = new ArrayList<>();
+		if (predicate != null)
+		{
+			where.add(predicate);
+		}
+		if (after != null)
+		{
+			where.add(builder.greaterThan(id, after));
+		}
+
+		criteria.where(where.toArray(new Predicate[where.size()]));
+		if (rowsPerChunk > 0)
+		{
+			criteria.orderBy(builder.asc(id));
+		}
+		final TypedQuery<Long> query = em.createQuery(criteria);
+		if (rowsPerChunk > 0)
+		{
+			query.setMaxResults(rowsPerChunk);
+		}
+		final List<Long> ids = query.getResultList();
+
+		// leave the criteria as where() built it, for getResultList()
+		criteria.where(predicate == null ? new Predicate[0] : new Predicate[] { predicate });
+		criteria.orderBy(orders);
+		return ids;
+	}
+
+	private Query createUpdateQuery(final EntityManager em)
+	{
+		final Query query = em.createQuery(update);
+		JpaSettings.setQueryHints(query, entityClass, QueryKind.UPDATE);
+		return query;
+	}
+}
@@ -1,30 +1,376 @@
 package au.com.vaadinutils.dao;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
 
 import javax.persistence.Query;
 
+import org.eclipse.persistence.config.BatchFetchType;
+import org.eclipse.persistence.config.HintValues;
+import org.eclipse.persistence.config.QueryHints;
+
+import com.google.common.base.Objects;
+import com.google.common.base.Preconditions;
+
+/**
+ * Query hints applied to the queries run by JpaBaseDao and the JpaDsl
+ * builders.
+ *
+ * Hints can be registered for all queries, for a kind of query (select,
+ * count, delete etc), for an entity class or for a kind of query on an entity
+ * class. Where the same hint is registered at more than one level the most
+ * specific one wins, in the order: all queries, kind of query, entity class,
+ * kind of query on the entity class.
+ *
+ * The hints are held in an immutable snapshot which is replaced as a whole
+ * when a hint is added, so hints can be registered while queries are running.
+ * Hints are normally registered once at startup.
+ *
+ * A hint value that is a Collection is applied once for each element, which
+ * is how multiple batch fetch attributes are passed to EclipseLink.
+ */
 public class JpaSettings
 {
-	static Map<String, Object> queryHints = new HashMap<>();
+	public enum QueryKind
+	{
+		SELECT, TUPLE, COUNT, DELETE, UPDATE
+	}
+
+	public static final int DEFAULT_MAX_IN_LIST_SIZE = 512;
+	public static final int DEFAULT_EVICTION_THRESHOLD = 1000;
+
+	private static final AtomicReference<HintRegistry> registry = new AtomicReference<>(new HintRegistry());
 
+	private static volatile int maxInListSize = DEFAULT_MAX_IN_LIST_SIZE;
+	private static volatile int idTableThreshold = 0;
+	private static volatile int evictionThreshold = DEFAULT_EVICTION_THRESHOLD;
+
+	/**
+	 * adds a hint for every query
+	 */
 	public static void addQueryHint(final String hintName, final Object value)
 	{
-		JpaSettings.queryHints.put(hintName, value);
+		addQueryHint(null, null, hintName, value);
 	}
 
+	/**
+	 * adds hints for every query
+	 */
 	public static void addQueryHints(final Map<String, Object> queryHints)
 	{
-		JpaSettings.queryHints.putAll(queryHints);
+		for (Entry<String, Object> hint : queryHints.entrySet())
+		{
+			addQueryHint(hint.getKey(), hint.getValue());
+		}
+	}
+
+	public static void addQueryHint(final QueryKind kind, final String hintName, final Object value)
+	{
+		addQueryHint(null, kind, hintName, value);
 	}
 
+	public static void addQueryHint(final Class<?> entityClass, final String hintName, final Object value)
+	{
+		addQueryHint(entityClass, null, hintName, value);
+	}
+
+	/**
+	 *
+	 * @param entityClass
+	 *            - null for all entities
+	 * @param kind
+	 *            - null for all kinds of query
+	 * @param hintName
+	 * @param value
+	 */
+	public static void addQueryHint(final Class<?> entityClass, final QueryKind kind, final String hintName,
+			final Object value)
+	{
+		Preconditions.checkNotNull(hintName);
+		HintRegistry current;
+		do
+		{
+			current = registry.get();
+		}
+		while (!registry.compareAndSet(current, current.with(new Scope(entityClass, kind), hintName, value)));
+	}
+
+	/**
+	 * removes all registered hints
+	 */
+	public static void clearQueryHints()
+	{
+		registry.set(new HintRegistry());
+	}
+
+	/**
+	 * the number of rows fetched from the database in each round trip when
+	 * selecting the entity
+	 */
+	public static void setFetchSize(final Class<?> entityClass, final int fetchSize)
+	{
+		addQueryHint(entityClass, QueryKind.SELECT, QueryHints.JDBC_FETCH_SIZE, fetchSize);
+		addQueryHint(entityClass, QueryKind.TUPLE, QueryHints.JDBC_FETCH_SIZE, fetchSize);
+	}
+
+	/**
+	 * Load the given relationships of the selected entities with one query per
+	 * relationship, rather than one per entity.
+	 *
+	 * @param entityClass
+	 * @param type
+	 *            - how the related rows are selected
+	 * @param attributePaths
+	 *            - e.g. "address" or "address.country"
+	 */
+	public static void setBatchFetch(final Class<?> entityClass, final BatchFetchType type,
+			final String... attributePaths)
+	{
+		List<String> batch = new ArrayList<>();
+		for (String path : attributePaths)
+		{
+			// EclipseLink ignores the leading alias
+			batch.add("e." + path);
+		}
+		addQueryHint(entityClass, QueryKind.SELECT, QueryHints.BATCH_TYPE, type.toString());
+		addQueryHint(entityClass, QueryKind.SELECT, QueryHints.BATCH, Collections.unmodifiableList(batch));
+	}
+
+	/**
+	 * Selected entities aren't registered in the persistence context, they must
+	 * not be modified.
+	 */
+	public static void setReadOnly(final Class<?> entityClass, final boolean readOnly)
+	{
+		String value = readOnly ? HintValues.TRUE : HintValues.FALSE;
+		addQueryHint(entityClass, QueryKind.SELECT, QueryHints.READ_ONLY, value);
+		addQueryHint(entityClass, QueryKind.TUPLE, QueryHints.READ_ONLY, value);
+	}
+
+	/**
+	 * Caches the results of the given kind of query on the entity, keyed by
+	 * the query's parameters. Only suitable for data that rarely changes.
+	 *
+	 * @param entityClass
+	 * @param kind
+	 * @param size
+	 *            - the number of distinct results cached for each query
+	 */
+	public static void setResultCache(final Class<?> entityClass, final QueryKind kind, final int size)
+	{
+		addQueryHint(entityClass, kind, QueryHints.QUERY_RESULTS_CACHE, HintValues.TRUE);
+		addQueryHint(entityClass, kind, QueryHints.QUERY_RESULTS_CACHE_SIZE, size);
+	}
+
+	/**
+	 * applies the hints registered for all queries
+	 */
 	public static void setQueryHints(final Query query)
 	{
-		for (Entry<String, Object> queryHint : queryHints.entrySet())
+		apply(query, registry.get().resolve(null, null));
+	}
+
+	/**
+	 * applies the hints registered for all queries, the kind of query and the
+	 * entity class
+	 *
+	 * @param query
+	 * @param entityClass
+	 * @param kind
+	 */
+	public static void setQueryHints(final Query query, final Class<?> entityClass, final QueryKind kind)
+	{
+		apply(query, registry.get().resolve(entityClass, kind));
+	}
+
+	/**
+	 * @return the hints that would be applied to a query of the given kind on
+	 *         the entity class
+	 */
+	public static Map<String, Object> getQueryHints(final Class<?> entityClass, final QueryKind kind)
+	{
+		return registry.get().resolve(entityClass, kind);
+	}
+
+	/**
+	 * IN lists longer than this are split into several IN lists, or for
+	 * JpaBaseDao.findByIds() into several queries
+	 *
+	 * @param maxInListSize
+	 *            - a power of two
+	 */
+	public static void setMaxInListSize(final int maxInListSize)
+	{
+		Preconditions.checkArgument(maxInListSize > 0 && Integer.bitCount(maxInListSize) == 1,
+				"maxInListSize must be a power of two");
+		JpaSettings.maxInListSize = maxInListSize;
+	}
+
+	public static int getMaxInListSize()
+	{
+		return maxInListSize;
+	}
+
+	/**
+	 * When JpaBaseDao.findByIds() is passed at least this many ids in a
+	 * transaction, the ids are inserted into a temporary table which is joined
+	 * to the entity's table. Uses MySQL syntax. Entities mapped to more than one
+	 * table are still loaded with IN lists.
+	 *
+	 * @param idTableThreshold
+	 *            - 0 to disable, the default
+	 */
+	public static void setIdTableThreshold(final int idTableThreshold)
+	{
+		Preconditions.checkArgument(idTableThreshold >= 0, "idTableThreshold must not be negative");
+		JpaSettings.idTableThreshold = idTableThreshold;
+	}
+
+	public static int getIdTableThreshold()
+	{
+		return idTableThreshold;
+	}
+
+	/**
+	 * A JpaDsl delete or update first selects the ids of the rows it will
+	 * change and evicts only those from the shared cache. If more than this
+	 * many rows match the whole entity class is evicted instead.
+	 *
+	 * @param evictionThreshold
+	 *            - 0 to always evict the whole class
+	 */
+	public static void setEvictionThreshold(final int evictionThreshold)
+	{
+		Preconditions.checkArgument(evictionThreshold >= 0, "evictionThreshold must not be negative");
+		JpaSettings.evictionThreshold = evictionThreshold;
+	}
+
+	public static int getEvictionThreshold()
+	{
+		return evictionThreshold;
+	}
+
+	private static void apply(final Query query, final Map<String, Object> hints)
+	{
+		for (Entry<String, Object> queryHint : hints.entrySet())
+		{
+			if (queryHint.getValue() instanceof Collection)
+			{
+				for (Object value : (Collection<?>) queryHint.getValue())
+				{
+					query.setHint(queryHint.getKey(), value);
+				}
+			}
+			else
+			{
+				query.setHint(queryHint.getKey(), queryHint.getValue());
+			}
+		}
+	}
+
+	private static final class Scope
+	{
+		final Class<?> entityClass;
+		final QueryKind kind;
+
+		Scope(Class<?> entityClass, QueryKind kind)
+		{
+			this.entityClass = entityClass;
+			this.kind = kind;
+		}
+
+		@Override
+		public int hashCode()
+		{
+			return Objects.hashCode(entityClass, kind);
+		}
+
+		@Override
+		public boolean equals(Object obj)
+		{
+			if (!(obj instanceof Scope))
+			{
+				return false;
+			}
+			Scope other = (Scope) obj;
+			return entityClass == other.entityClass && kind == other.kind;
+		}
+	}
+
+	/**
+	 * An immutable set of hints. The merged hints for each entity class and
+	 * kind of query are worked out on first use and kept with the snapshot.
+	 */
+	private static final class HintRegistry
+	{
+		private final Map<Scope, Map<String, Object>> hints;
+		private final ConcurrentHashMap<Scope, Map<String, Object>> resolved = new ConcurrentHashMap<>();
+
+		HintRegistry()
+		{
+			this.hints = Collections.emptyMap();
+		}
+
+		private HintRegistry(Map<Scope, Map<String, Object>> hints)
+		{
+			this.hints = hints;
+		}
+
+		HintRegistry with(Scope scope, String hintName, Object value)
+		{
+			Map<Scope, Map<String, Object>> copy = new HashMap<>(hints);
+			Map<String, Object> scoped = new LinkedHashMap<>();
+			if (copy.containsKey(scope))
+			{
+				scoped.putAll(copy.get(scope));
+			}
+			scoped.put(hintName, value);
+			copy.put(scope, Collections.unmodifiableMap(scoped));
+			return new HintRegistry(Collections.unmodifiableMap(copy));
+		}
+
+		Map<String, Object> resolve(Class<?> entityClass, QueryKind kind)
+		{
+			Scope scope = new Scope(entityClass, kind);
+			Map<String, Object> merged = resolved.get(scope);
+			if (merged == null)
+			{
+				Map<String, Object> result = new LinkedHashMap<>();
+				// least specific first so the more specific hints replace them
+				merge(result, null, null);
+				if (kind != null)
+				{
+					merge(result, null, kind);
+				}
+				if (entityClass != null)
+				{
+					merge(result, entityClass, null);
+					if (kind != null)
+					{
+						merge(result, entityClass, kind);
+					}
+				}
+				merged = Collections.unmodifiableMap(result);
+				resolved.put(scope, merged);
+			}
+			return merged;
+		}
+
+		private void merge(Map<String, Object> result, Class<?> entityClass, QueryKind kind)
 		{
-			query.setHint(queryHint.getKey(), queryHint.getValue());
+			Map<String, Object> scoped = hints.get(new Scope(entityClass, kind));
+			if (scoped != null)
+			{
+				result.putAll(scoped);
+			}
 		}
 	}
 }
@@ -0,0 +1,245 @@
+package au.com.vaadinutils.dao;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import javax.persistence.Tuple;
+import javax.persistence.criteria.Expression;
+import javax.persistence.criteria.JoinType;
+import javax.persistence.criteria.Path;
+import javax.persistence.criteria.Predicate;
+import javax.persistence.metamodel.SingularAttribute;
+
+import org.apache.logging.log4j.Logger;
+
+import com.google.common.base.Objects;
+import com.google.common.base.Preconditions;
+import com.vaadin.addon.jpacontainer.EntityContainer;
+import com.vaadin.addon.jpacontainer.EntityProviderChangeEvent;
+import com.vaadin.addon.jpacontainer.SortBy;
+import com.vaadin.addon.jpacontainer.filter.util.FilterConverter;
+import com.vaadin.data.Container.Filter;
+
+/**
+ * An entity provider that pages forward through the rows using the sort values
+ * of the last row it fetched, rather than an offset.
+ *
+ * Scrolling deep into a large table with OFFSET/LIMIT reads and throws away
+ * every earlier row for each page. This provider fetches the ids a chunk at a
+ * time and, when the next index asked for follows the current chunk, selects
+ * the next chunk with where (sort columns, id) > (values of the last row).
+ * Jumps to any other index use an offset, as BatchingPerRequestEntityProvider
+ * does.
+ *
+ * Rows are ordered by the container's sort properties then the id, as
+ * JPAContainer does. Containers with a QueryModifierDelegate and sorts the
+ * seek query can't express (e.g. on transient properties) use the offset
+ * queries of BatchingPerRequestEntityProvider.
+ */
+public class KeysetEntityProvider<T> extends BatchingPerRequestEntityProvider<T>
+{
+	private static final long serialVersionUID = 1L;
+
+	public static final int DEFAULT_CHUNK_SIZE = 100;
+
+	private static final Logger logger = org.apache.logging.log4j.LogManager.getLogger();
+
+	private final int chunkSize;
+
+	/**
+	 * the current chunk of ids, starting at chunkStart
+	 */
+	private transient List<Object> chunkIds = Collections.emptyList();
+	private transient Object[] lastRowKey;
+	private transient int chunkStart;
+	private transient Filter chunkFilter;
+	private transient List<SortBy> chunkSortBy;
+
+	public KeysetEntityProvider(Class<T> entityClass)
+	{
+		this(entityClass, DEFAULT_CHUNK_SIZE);
+	}
+
+	/**
+	 * @param entityClass
+	 * @param chunkSize
+	 *            - the number of ids fetched by each query, at least a few
+	 *            times the number of rows visible in the table
+	 */
+	public KeysetEntityProvider(Class<T> entityClass, int chunkSize)
+	{
+		super(entityClass);
+		Preconditions.checkArgument(chunkSize > 0, "chunkSize must be greater than 0");
+		this.chunkSize = chunkSize;
+	}
+
+	@Override
+	public Object getEntityIdentifierAt(EntityContainer<T> container, Filter filter, List<SortBy> sortBy, int index)
+	{
+		if (container.getQueryModifierDelegate() != null)
+		{
+			return super.getEntityIdentifierAt(container, filter, sortBy, index);
+		}
+		if (sortBy == null)
+		{
+			sortBy = Collections.emptyList();
+		}
+
+		final boolean sameQuery = chunkIds != null && Objects.equal(filter, chunkFilter)
+				&& sortBy.equals(chunkSortBy);
+		if (sameQuery && index >= chunkStart && index < chunkStart + chunkIds.size())
+		{
+			return chunkIds.get(index - chunkStart);
+		}
+
+		try
+		{
+			if (sameQuery && index == chunkStart + chunkIds.size() && chunkIds.size() == chunkSize
+					&& lastRowKey != null)
+			{
+				// scrolling forwards, seek past the last row
+				loadChunk(filter, sortBy, chunkStart + chunkIds.size(), lastRowKey);
+			}
+			else
+			{
+				loadChunk(filter, sortBy, index, null);
+			}
+		}
+		catch (IllegalArgumentException e)
+		{
+			// a sort property that isn't a persistent attribute
+			logger.debug("Using offsets for {}, {}", getEntityClass(), e.getMessage());
+			resetChunk();
+			return super.getEntityIdentifierAt(container, filter, sortBy, index);
+		}
+
+		if (index - chunkStart < chunkIds.size())
+		{
+			return chunkIds.get(index - chunkStart);
+		}
+		return null;
+	}
+
+	/**
+	 * @param start
+	 *            - the index of the first row of the chunk
+	 * @param after
+	 *            - the sort values and id of the row before start, or null to
+	 *            use an offset
+	 */
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private void loadChunk(Filter filter, List<SortBy> sortBy, int start, Object[] after)
+	{
+		final JpaDslTupleBuilder<T> q = new JpaDslTupleBuilder<>(getEntityClass());
+		final SingularAttribute<T, Long> idField = JpaBaseDao.getIdField(getEntityClass());
+
+		// the sort values then the id, in the order they are compared
+		final List<Expression<Comparable>> key = new ArrayList<>();
+		final List<Boolean> ascending = new ArrayList<>();
+		for (SortBy sort : sortBy)
+		{
+			final Path<Comparable> path = q.get(sort.getPropertyId().toString(), JoinType.LEFT);
+			key.add(path);
+			ascending.add(sort.isAscending());
+		}
+		key.add((Expression) q.get(idField));
+		ascending.add(true);
+
+		final List<Predicate> where = new ArrayList<>();
+		if (filter != null)
+		{
+			where.add(FilterConverter.convertFilter(filter, q.builder, q.root));
+		}
+		if (after != null)
+		{
+			where.add(after(q, key, ascending, after));
+		}
+		for (int i = 0; i < key.size(); i++)
+		{
+			q.multiselect(key.get(i));
+			q.orders.add(ascending.get(i) ? q.builder.asc(key.get(i)) : q.builder.desc(key.get(i)));
+		}
+		if (where.size() > 0)
+		{
+			q.predicate = q.builder.and(where.toArray(new Predicate[where.size()]));
+		}
+		q.limit(chunkSize);
+		if (after == null && start > 0)
+		{
+			q.startPosition(start);
+		}
+
+		final List<Tuple> rows = q.getResultList();
+		final List<Object> ids = new ArrayList<>(rows.size());
+		for (Tuple row : rows)
+		{
+			ids.add(row.get(key.size() - 1));
+		}
+
+		chunkIds = ids;
+		chunkStart = start;
+		chunkFilter = filter;
+		chunkSortBy = new ArrayList<>(sortBy);
+		lastRowKey = rows.isEmpty() ? null : rows.get(rows.size() - 1).toArray();
+	}
+
+	/**
+	 * (k1, k2, ... id) > (v1, v2, ... lastId), for a mix of ascending and
+	 * descending columns: k1 after v1, or k1 = v1 and k2 after v2 and so on.
+	 * Nulls are lower than every value, as MySQL sorts them, and only equal to
+	 * another null.
+	 */
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private Predicate after(JpaDslTupleBuilder<T> q, List<Expression<Comparable>> key, List<Boolean> ascending,
+			Object[] values)
+	{
+		final List<Predicate> alternatives = new ArrayList<>();
+		final List<Predicate> equalSoFar = new ArrayList<>();
+		for (int i = 0; i < key.size(); i++)
+		{
+			final Expression<Comparable> column = key.get(i);
+			final Comparable value = (Comparable) values[i];
+
+			final Predicate after;
+			if (ascending.get(i))
+			{
+				after = value == null ? q.builder.isNotNull(column) : q.builder.greaterThan(column, value);
+			}
+			else
+			{
+				after = value == null ? q.builder.disjunction()
+						: q.builder.or(q.builder.lessThan(column, value), q.builder.isNull(column));
+			}
+			final List<Predicate> alternative = new ArrayList<>(equalSoFar);
+			alternative.add(after);
+			alternatives.add(q.builder.and(alternative.toArray(new Predicate[alternative.size()])));
+
+			equalSoFar.add(value == null ? q.builder.isNull(column) : q.builder.equal(column, value));
+		}
+		return q.builder.or(alternatives.toArray(new Predicate[alternatives.size()]));
+	}
+
+	private void resetChunk()
+	{
+		chunkIds = Collections.emptyList();
+		lastRowKey = null;
+		chunkFilter = null;
+		chunkSortBy = null;
+	}
+
+	@Override
+	public void clearCache()
+	{
+		resetChunk();
+		super.clearCache();
+	}
+
+	@Override
+	protected void fireEntityProviderChangeEvent(EntityProviderChangeEvent<T> event)
+	{
+		// added, removed or updated entities change the rows at each index
+		resetChunk();
+		super.fireEntityProviderChangeEvent(event);
+	}
+}
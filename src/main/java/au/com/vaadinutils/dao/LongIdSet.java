@@ -0,0 +1,311 @@
+package au.com.vaadinutils.dao;
+
+import java.io.Serializable;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * A set of entity ids held in a sorted long[], for selections of hundreds of
+ * thousands of ids. Each id takes 8 bytes rather than the 50 or so of a boxed
+ * Long in a TreeSet, contains() is a binary search and addAll()/removeAll()
+ * merge sorted arrays rather than adding one id at a time.
+ *
+ * Iterates in ascending order, as a TreeSet of Longs does. Pass the set to
+ * JpaDslAbstract.in() or notIn() to query the matching rows, runs of
+ * consecutive ids become BETWEEN ranges rather than IN list values.
+ */
+public final class LongIdSet extends AbstractSet<Long> implements Serializable
+{
+	private static final long serialVersionUID = 1L;
+
+	private static final long[] EMPTY = new long[0];
+
+	private long[] ids = EMPTY;
+	private int size = 0;
+	private transient int modCount = 0;
+
+	public LongIdSet()
+	{
+	}
+
+	public LongIdSet(final Collection<? extends Long> ids)
+	{
+		addAll(ids);
+	}
+
+	@Override
+	public int size()
+	{
+		return size;
+	}
+
+	public boolean contains(final long id)
+	{
+		return Arrays.binarySearch(ids, 0, size, id) >= 0;
+	}
+
+	@Override
+	public boolean contains(final Object id)
+	{
+		return id instanceof Long && contains(((Long) id).longValue());
+	}
+
+	public boolean add(final long id)
+	{
+		final int index = Arrays.binarySearch(ids, 0, size, id);
+		if (index >= 0)
+		{
+			return false;
+		}
+		final int insertAt = -index - 1;
+		if (size == ids.length)
+		{
+			final long[] grown = new long[Math.max(8, size + (size >> 1))];
+			System.arraycopy(ids, 0, grown, 0, insertAt);
+			System.arraycopy(ids, insertAt, grown, insertAt + 1, size - insertAt);
+			ids = grown;
+		}
+		else
+		{
+			System.arraycopy(ids, insertAt, ids, insertAt + 1, size - insertAt);
+		}
+		ids[insertAt] = id;
+		size++;
+		modCount++;
+		return true;
+	}
+
+	@Override
+	public boolean add(final Long id)
+	{
+		Preconditions.checkNotNull(id, "id may not be null");
+		return add(id.longValue());
+	}
+
+	public boolean remove(final long id)
+	{
+		final int index = Arrays.binarySearch(ids, 0, size, id);
+		if (index < 0)
+		{
+			return false;
+		}
+		removeAt(index);
+		return true;
+	}
+
+	@Override
+	public boolean remove(final Object id)
+	{
+		return id instanceof Long && remove(((Long) id).longValue());
+	}
+
+	private void removeAt(final int index)
+	{
+		System.arraycopy(ids, index + 1, ids, index, size - index - 1);
+		size--;
+		modCount++;
+	}
+
+	/**
+	 * merges the ids in, rather than adding them one at a time
+	 */
+	@Override
+	public boolean addAll(final Collection<? extends Long> added)
+	{
+		final long[] other = sorted(added);
+		if (other.length == 0)
+		{
+			return false;
+		}
+
+		final long[] merged = new long[size + other.length];
+		int i = 0;
+		int j = 0;
+		int count = 0;
+		while (i < size || j < other.length)
+		{
+			final long next;
+			if (j == other.length || (i < size && ids[i] <= other[j]))
+			{
+				next = ids[i++];
+			}
+			else
+			{
+				next = other[j++];
+			}
+			if (count == 0 || merged[count - 1] != next)
+			{
+				merged[count++] = next;
+			}
+		}
+
+		final boolean changed = count != size;
+		ids = merged;
+		size = count;
+		modCount++;
+		return changed;
+	}
+
+	@Override
+	public boolean removeAll(final Collection<?> removed)
+	{
+		final long[] other = sorted(removed);
+		int j = 0;
+		int count = 0;
+		for (int i = 0; i < size; i++)
+		{
+			while (j < other.length && other[j] < ids[i])
+			{
+				j++;
+			}
+			if (j == other.length || other[j] != ids[i])
+			{
+				ids[count++] = ids[i];
+			}
+		}
+
+		final boolean changed = count != size;
+		size = count;
+		modCount++;
+		return changed;
+	}
+
+	@Override
+	public void clear()
+	{
+		ids = EMPTY;
+		size = 0;
+		modCount++;
+	}
+
+	/**
+	 * @return a copy of the ids, in ascending order
+	 */
+	public long[] toLongArray()
+	{
+		return Arrays.copyOf(ids, size);
+	}
+
+	/**
+	 * @param minLength
+	 *            - the fewest consecutive ids to treat as a run
+	 * @return the first and last id of each run of at least minLength
+	 *         consecutive ids, in ascending order
+	 */
+	List<long[]> getRuns(final int minLength)
+	{
+		final List<long[]> runs = new ArrayList<>();
+		int start = 0;
+		for (int i = 1; i <= size; i++)
+		{
+			if (i == size || ids[i] != ids[i - 1] + 1)
+			{
+				if (i - start >= minLength)
+				{
+					runs.add(new long[] { ids[start], ids[i - 1] });
+				}
+				start = i;
+			}
+		}
+		return runs;
+	}
+
+	/**
+	 * @param minLength
+	 *            - as passed to getRuns()
+	 * @return the ids that aren't in a run
+	 */
+	List<Long> getIdsOutsideRuns(final int minLength)
+	{
+		final List<Long> outside = new ArrayList<>();
+		int start = 0;
+		for (int i = 1; i <= size; i++)
+		{
+			if (i == size || ids[i] != ids[i - 1] + 1)
+			{
+				if (i - start < minLength)
+				{
+					for (int k = start; k < i; k++)
+					{
+						outside.add(ids[k]);
+					}
+				}
+				start = i;
+			}
+		}
+		return outside;
+	}
+
+	private static long[] sorted(final Collection<?> values)
+	{
+		if (values instanceof LongIdSet)
+		{
+			return ((LongIdSet) values).toLongArray();
+		}
+		final long[] result = new long[values.size()];
+		int count = 0;
+		for (Object value : values)
+		{
+			if (value instanceof Long)
+			{
+				result[count++] = (Long) value;
+			}
+		}
+		Arrays.sort(result, 0, count);
+		return count == result.length ? result : Arrays.copyOf(result, count);
+	}
+
+	@Override
+	public Iterator<Long> iterator()
+	{
+		return new Iterator<Long>()
+		{
+			private int next = 0;
+			private int last = -1;
+			private int expectedModCount = modCount;
+
+			@Override
+			public boolean hasNext()
+			{
+				return next < size;
+			}
+
+			@Override
+			public Long next()
+			{
+				if (expectedModCount != modCount)
+				{
+					throw new ConcurrentModificationException();
+				}
+				if (next >= size)
+				{
+					throw new NoSuchElementException();
+				}
+				last = next++;
+				return ids[last];
+			}
+
+			@Override
+			public void remove()
+			{
+				Preconditions.checkState(last >= 0, "next() has not been called");
+				if (expectedModCount != modCount)
+				{
+					throw new ConcurrentModificationException();
+				}
+				removeAt(last);
+				next = last;
+				last = -1;
+				expectedModCount = modCount;
+			}
+		};
+	}
+}
@@ -3,6 +3,7 @@ package au.com.vaadinutils.dao;
 import java.util.ArrayList;
 import java.util.List;
 
+import javax.persistence.Cache;
 import javax.persistence.metamodel.Attribute;
 import javax.persistence.metamodel.SingularAttribute;
 
@@ -65,6 +66,40 @@ public class Path
 		return this;
 	}
 
+	/**
+	 * Invalidates the cached entities reached by following the path from the
+	 * parent, rather than every cached entity of their classes. Where the path
+	 * passes through a collection the classes from there on are evicted.
+	 * 
+	 * @param parent
+	 *            - the entity the path starts from
+	 * @return the Path
+	 */
+	public Path evict(CrudEntity parent)
+	{
+		final Cache cache = EntityManagerProvider.getEntityManager().getEntityManagerFactory().getCache();
+		Object value = parent;
+		boolean throughCollection = false;
+		for (int i = 1; i < entities.size(); i++)
+		{
+			final Class<?> entityClass = entities.get(i).getDeclaringType().getJavaType();
+			final Attribute<? extends CrudEntity, ? extends Object> previous = entities.get(i - 1);
+			throughCollection |= previous.isCollection();
+			if (throughCollection)
+			{
+				cache.evict(entityClass);
+				continue;
+			}
+			value = value == null ? null : JpaDslGroupSupport.readPath(value, previous.getName());
+			if (value instanceof CrudEntity && ((CrudEntity) value).getId() != null)
+			{
+				cache.evict(entityClass, ((CrudEntity) value).getId());
+			}
+		}
+
+		return this;
+	}
+
 	public String getName()
 	{
 		String path = new String();
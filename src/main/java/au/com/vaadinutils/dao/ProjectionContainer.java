@@ -0,0 +1,190 @@
+package au.com.vaadinutils.dao;
+
+import java.io.Serializable;
+import java.util.Collection;
+
+import javax.persistence.metamodel.Attribute;
+import javax.persistence.metamodel.ManagedType;
+import javax.persistence.metamodel.Metamodel;
+import javax.persistence.metamodel.SingularAttribute;
+
+import org.apache.logging.log4j.Logger;
+import org.vaadin.addons.lazyquerycontainer.LazyQueryContainer;
+import org.vaadin.addons.lazyquerycontainer.LazyQueryDefinition;
+import org.vaadin.addons.lazyquerycontainer.Query;
+import org.vaadin.addons.lazyquerycontainer.QueryDefinition;
+import org.vaadin.addons.lazyquerycontainer.QueryFactory;
+
+import com.google.common.base.Preconditions;
+import com.google.common.primitives.Primitives;
+import com.vaadin.data.Container.Filter;
+
+/**
+ * A read only, lazy loading container that selects only the properties it is
+ * given, rather than loading the whole entity (and its eager relationships) for
+ * every row. Nested properties, e.g. "contact.surname", are left joined.
+ *
+ * The item ids are the entity ids, and the items hold the property values. Use
+ * getEntity() to load the entity for a row when it is selected, e.g. for
+ * editing. A BaseCrudView edits through its JPAContainer, so pass the id to
+ * getContainerItem() and rowChanged().
+ *
+ * Properties that aren't persistent attributes, such as generated columns,
+ * are left out. See JpaBaseDao.createProjectionContainer().
+ */
+public class ProjectionContainer<E> extends LazyQueryContainer
+{
+	private static final long serialVersionUID = 1L;
+
+	public static final int DEFAULT_BATCH_SIZE = 100;
+
+	private static final Logger logger = org.apache.logging.log4j.LogManager.getLogger();
+
+	private final Class<E> entityClass;
+	private final Counter counter;
+
+	/**
+	 * @param entityClass
+	 * @param propertyIds
+	 *            - the properties to select, the id is always selected
+	 */
+	public ProjectionContainer(Class<E> entityClass, Collection<String> propertyIds)
+	{
+		this(entityClass, propertyIds, DEFAULT_BATCH_SIZE);
+	}
+
+	public ProjectionContainer(Class<E> entityClass, Collection<String> propertyIds, int batchSize)
+	{
+		this(entityClass, propertyIds, new LazyQueryDefinition(false, batchSize,
+				JpaBaseDao.getIdField(entityClass).getName()), new Counter());
+	}
+
+	private ProjectionContainer(Class<E> entityClass, Collection<String> propertyIds,
+			LazyQueryDefinition definition, Counter counter)
+	{
+		super(definition, new ProjectionQueryFactory<>(entityClass, counter));
+		this.entityClass = entityClass;
+		this.counter = counter;
+
+		final Metamodel metamodel = JpaBaseDao.getEntityManager().getMetamodel();
+		final SingularAttribute<E, Long> idField = JpaBaseDao.getIdField(entityClass);
+		addContainerProperty(idField.getName(), Long.class, null, true, true);
+		for (String propertyId : propertyIds)
+		{
+			if (getContainerPropertyIds().contains(propertyId))
+			{
+				continue;
+			}
+			try
+			{
+				addContainerProperty(propertyId, getType(metamodel, entityClass, propertyId), null, true, true);
+			}
+			catch (IllegalArgumentException e)
+			{
+				logger.debug("Not selecting {}.{}, {}", entityClass.getSimpleName(), propertyId, e.getMessage());
+			}
+		}
+	}
+
+	/**
+	 * @return the type of the persistent attribute at the end of the path
+	 * @throws IllegalArgumentException
+	 *             if the path isn't made up of single valued persistent
+	 *             attributes
+	 */
+	static Class<?> getType(Metamodel metamodel, Class<?> entityClass, String propertyId)
+	{
+		ManagedType<?> type = metamodel.managedType(entityClass);
+		final String[] attributes = propertyId.split("\\.");
+		for (int i = 0; i < attributes.length; i++)
+		{
+			final Attribute<?, ?> attribute = type.getAttribute(attributes[i]);
+			if (attribute.isCollection())
+			{
+				throw new IllegalArgumentException(attributes[i] + " is a collection");
+			}
+			if (i == attributes.length - 1)
+			{
+				return Primitives.wrap(attribute.getJavaType());
+			}
+			type = metamodel.managedType(attribute.getJavaType());
+		}
+		throw new IllegalArgumentException("Empty property id");
+	}
+
+	/**
+	 * @return the entity for a row, loaded from the database
+	 */
+	public E getEntity(Object itemId)
+	{
+		Preconditions.checkNotNull(itemId);
+		return JpaBaseDao.getEntityManager().find(entityClass, itemId);
+	}
+
+	public Class<E> getEntityClass()
+	{
+		return entityClass;
+	}
+
+	/**
+	 * @param countStrategy
+	 *            - null for an exact count, the default
+	 */
+	public void setCountStrategy(CountStrategy countStrategy)
+	{
+		counter.countStrategy = countStrategy;
+		refresh();
+	}
+
+	/**
+	 * @return the last count, e.g. to show "10,000+" when the count was capped
+	 */
+	public RowCount getLastCount()
+	{
+		return counter.lastCount;
+	}
+
+	/**
+	 * counts the rows with the container's CountStrategy
+	 */
+	static class Counter implements Serializable
+	{
+		private static final long serialVersionUID = 1L;
+
+		private CountStrategy countStrategy;
+		private transient RowCount lastCount;
+
+		int count(Class<?> entityClass, Filter filter, CountStrategy.ExactCounter exact)
+		{
+			if (countStrategy == null)
+			{
+				lastCount = RowCount.exact(exact.count());
+			}
+			else
+			{
+				lastCount = countStrategy.count(entityClass, filter, exact);
+			}
+			return lastCount.getCount();
+		}
+	}
+
+	private static class ProjectionQueryFactory<E> implements QueryFactory, Serializable
+	{
+		private static final long serialVersionUID = 1L;
+
+		private final Class<E> entityClass;
+		private final Counter counter;
+
+		ProjectionQueryFactory(Class<E> entityClass, Counter counter)
+		{
+			this.entityClass = entityClass;
+			this.counter = counter;
+		}
+
+		@Override
+		public Query constructQuery(QueryDefinition queryDefinition)
+		{
+			return new ProjectionQuery<>(entityClass, queryDefinition, counter);
+		}
+	}
+}
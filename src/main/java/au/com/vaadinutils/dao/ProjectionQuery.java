@@ -0,0 +1,137 @@
+package au.com.vaadinutils.dao;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.persistence.Tuple;
+import javax.persistence.criteria.JoinType;
+import javax.persistence.criteria.Path;
+
+import org.vaadin.addons.lazyquerycontainer.Query;
+import org.vaadin.addons.lazyquerycontainer.QueryDefinition;
+
+import com.vaadin.data.Container.Filter;
+import com.vaadin.data.Item;
+import com.vaadin.data.util.ObjectProperty;
+import com.vaadin.data.util.PropertysetItem;
+import com.vaadin.data.util.filter.And;
+
+/**
+ * Loads the rows of a ProjectionContainer for one set of filters and sort
+ * order, selecting only the container's properties.
+ */
+class ProjectionQuery<E> implements Query
+{
+	private final Class<E> entityClass;
+	private final QueryDefinition definition;
+	private final ProjectionContainer.Counter counter;
+	private final List<Filter> filters;
+
+	ProjectionQuery(Class<E> entityClass, QueryDefinition definition, ProjectionContainer.Counter counter)
+	{
+		this.entityClass = entityClass;
+		this.definition = definition;
+		this.counter = counter;
+		this.filters = new ArrayList<>(definition.getFilters());
+	}
+
+	@Override
+	public int size()
+	{
+		final Filter filter;
+		if (filters.isEmpty())
+		{
+			filter = null;
+		}
+		else if (filters.size() == 1)
+		{
+			filter = filters.get(0);
+		}
+		else
+		{
+			filter = new And(filters.toArray(new Filter[filters.size()]));
+		}
+
+		return counter.count(entityClass, filter, new CountStrategy.ExactCounter()
+		{
+			@Override
+			public int count()
+			{
+				final JpaDslCountBuilder<E> q = new JpaDslCountBuilder<>(entityClass);
+				if (!filters.isEmpty())
+				{
+					q.where(q.filters(filters));
+				}
+				return q.count().intValue();
+			}
+		});
+	}
+
+	@Override
+	public List<Item> loadItems(int startIndex, int count)
+	{
+		final JpaDslTupleBuilder<E> q = new JpaDslTupleBuilder<>(entityClass);
+
+		// left joins, so rows with an empty relationship are still listed
+		final List<Object> propertyIds = new ArrayList<>(definition.getPropertyIds());
+		for (Object propertyId : propertyIds)
+		{
+			q.multiselect(q.get(propertyId.toString(), JoinType.LEFT));
+		}
+		if (!filters.isEmpty())
+		{
+			q.where(q.filters(filters));
+		}
+
+		final Object[] sortPropertyIds = definition.getSortPropertyIds();
+		final boolean[] ascending = definition.getSortPropertyAscendingStates();
+		for (int i = 0; i < sortPropertyIds.length; i++)
+		{
+			final Path<?> path = q.get(sortPropertyIds[i].toString(), JoinType.LEFT);
+			q.orders.add(ascending[i] ? q.builder.asc(path) : q.builder.desc(path));
+		}
+		// the id last, so the order is stable from one batch to the next
+		final Path<Long> id = q.get(JpaBaseDao.getIdField(entityClass));
+		q.orders.add(q.builder.asc(id));
+
+		q.startPosition(startIndex);
+		q.limit(count);
+
+		final List<Item> items = new ArrayList<>();
+		for (Tuple row : q.getResultList())
+		{
+			final PropertysetItem item = new PropertysetItem();
+			for (int i = 0; i < propertyIds.size(); i++)
+			{
+				final Object propertyId = propertyIds.get(i);
+				item.addItemProperty(propertyId, newProperty(row.get(i), definition.getPropertyType(propertyId)));
+			}
+			items.add(item);
+		}
+		return items;
+	}
+
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private static ObjectProperty<?> newProperty(Object value, Class<?> type)
+	{
+		return new ObjectProperty(value, type, true);
+	}
+
+	@Override
+	public void saveItems(List<Item> addedItems, List<Item> modifiedItems, List<Item> removedItems)
+	{
+		throw new UnsupportedOperationException("ProjectionContainer is read only");
+	}
+
+	@Override
+	public boolean deleteAllItems()
+	{
+		throw new UnsupportedOperationException("ProjectionContainer is read only");
+	}
+
+	@Override
+	public Item constructItem()
+	{
+		throw new UnsupportedOperationException("ProjectionContainer is read only");
+	}
+}
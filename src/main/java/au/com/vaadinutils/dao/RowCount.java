@@ -0,0 +1,78 @@
+package au.com.vaadinutils.dao;
+
+import java.io.Serializable;
+import java.util.Locale;
+
+/**
+ * A number of rows, which may be a lower bound or an estimate
+ */
+public final class RowCount implements Serializable
+{
+	private static final long serialVersionUID = 1L;
+
+	public enum Kind
+	{
+		EXACT, AT_LEAST, ESTIMATE
+	}
+
+	private final int count;
+	private final Kind kind;
+
+	public RowCount(int count, Kind kind)
+	{
+		this.count = count;
+		this.kind = kind;
+	}
+
+	public static RowCount exact(int count)
+	{
+		return new RowCount(count, Kind.EXACT);
+	}
+
+	public int getCount()
+	{
+		return count;
+	}
+
+	public Kind getKind()
+	{
+		return kind;
+	}
+
+	public boolean isExact()
+	{
+		return kind == Kind.EXACT;
+	}
+
+	/**
+	 * @return e.g. "1,234", "10,000+" or "~2,000,000", grouped with commas
+	 *         whatever the default locale
+	 */
+	public String format()
+	{
+		return format(Locale.ROOT);
+	}
+
+	/**
+	 * @param locale
+	 *            - supplies the grouping separator, e.g. the UI's locale
+	 */
+	public String format(Locale locale)
+	{
+		switch (kind)
+		{
+		case AT_LEAST:
+			return String.format(locale, "%,d+", count);
+		case ESTIMATE:
+			return String.format(locale, "~%,d", count);
+		default:
+			return String.format(locale, "%,d", count);
+		}
+	}
+
+	@Override
+	public String toString()
+	{
+		return format();
+	}
+}
@@ -1,25 +1,33 @@
 package au.com.vaadinutils.errorHandling;
 
-import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
-import com.google.common.base.Stopwatch;
+import com.google.common.base.Preconditions;
 
+/**
+ * A token bucket rate limiter.
+ *
+ * The whole state of the bucket is a single nanoTime value, the time at which
+ * the bucket will next be empty if no more permits are taken. Permits are
+ * taken with a compare and set on that value, so acquiring a permit never
+ * blocks or allocates, which matters as this is called for every error during
+ * an error storm.
+ */
 public class ErrorRateController
 {
+	/**
+	 * the nanoTime by which all permits handed out so far will have been
+	 * replaced, the bucket is full when this is in the past
+	 */
+	private final AtomicLong emptyUntil;
 
-	final LinkedBlockingQueue<Boolean> availablePermits = new LinkedBlockingQueue<>();
-
-	final Stopwatch lastCreated = Stopwatch.createStarted();
-
-	private long maxBurst;
-
-	private double permitRate;
+	private final long maxBurst;
 
-	private TimeUnit permitRateUnits;
+	private final long nanosPerPermit;
 
 	/**
-	 * 
+	 *
 	 * @param maxBurst
 	 *            - maximum of permits that will be stockpiled for a burst after
 	 *            a period of less or activity
@@ -29,16 +37,14 @@ public class ErrorRateController
 	 */
 	ErrorRateController(long maxBurst, double permitRate, TimeUnit permitRateUnits)
 	{
-		this.maxBurst = maxBurst;
-		this.permitRate = permitRate;
-		this.permitRateUnits = permitRateUnits;
+		Preconditions.checkArgument(maxBurst > 0, "maxBurst must be greater than 0");
+		Preconditions.checkArgument(permitRate > 0, "permitRate must be greater than 0");
 
-		// fill the availablePermits
-		for (int i = 0; i < maxBurst; i++)
-		{
-			availablePermits.add(true);
-		}
+		this.maxBurst = maxBurst;
+		this.nanosPerPermit = Math.max(1, (long) (permitRateUnits.toNanos(1) / permitRate));
 
+		// start with a full bucket
+		emptyUntil = new AtomicLong(System.nanoTime());
 	}
 
 	/**
@@ -47,32 +53,56 @@ public class ErrorRateController
 	 */
 	public boolean acquire()
 	{
-		Boolean permit = availablePermits.poll();
-		if (permit == null)
+		return tryAcquire(1);
+	}
+
+	/**
+	 * Acquires the given number of permits if they are all available, if not
+	 * none are taken.
+	 *
+	 * @param permits
+	 * @return true if the permits were acquired
+	 */
+	public boolean tryAcquire(int permits)
+	{
+		Preconditions.checkArgument(permits > 0, "permits must be greater than 0");
+		if (permits > maxBurst)
 		{
-			long permitsToAdd = 0;
-			synchronized (lastCreated)
-			{
-				permitsToAdd = Math.min(maxBurst, (long) (lastCreated.elapsed(permitRateUnits) * permitRate));
-				if (permitsToAdd > 0)
-				{
-					lastCreated.reset();
-					lastCreated.start();
-					permit = true;
-				}
+			return false;
+		}
 
+		final long cost = permits * nanosPerPermit;
+		final long capacity = maxBurst * nanosPerPermit;
+		while (true)
+		{
+			final long now = System.nanoTime();
+			final long current = emptyUntil.get();
+
+			// a full bucket doesn't keep filling while idle
+			final long from = current - now < 0 ? now : current;
+			final long next = from + cost;
+			if (next - now > capacity)
+			{
+				return false;
 			}
-			for (int i = 0; i < permitsToAdd-1; i++)
+			if (emptyUntil.compareAndSet(current, next))
 			{
-				availablePermits.add(true);
+				return true;
 			}
-//			if (permitsToAdd > 0)
-//			{
-//				logger.info("Added " + permitsToAdd);
-//			}
-			
 		}
+	}
 
-		return permit != null;
+	/**
+	 * @return the number of permits that could currently be acquired
+	 */
+	public long getAvailablePermits()
+	{
+		final long now = System.nanoTime();
+		final long current = emptyUntil.get();
+		if (current - now <= 0)
+		{
+			return maxBurst;
+		}
+		return Math.max(0, maxBurst - ((current - now + nanosPerPermit - 1) / nanosPerPermit));
 	}
 }
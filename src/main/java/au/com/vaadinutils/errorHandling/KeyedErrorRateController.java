@@ -0,0 +1,76 @@
+package au.com.vaadinutils.errorHandling;
+
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.base.Preconditions;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+
+/**
+ * Rate limits separately per key, e.g. per user or per exception signature,
+ * so one noisy source can't use up the permits of the others.
+ *
+ * Each key gets its own ErrorRateController. A bucket that hasn't been used
+ * for long enough to refill completely is indistinguishable from a new one,
+ * so it expires. At most maxKeys buckets are kept, beyond that the least
+ * recently used bucket is discarded even if it hasn't refilled.
+ *
+ * @param <K>
+ */
+public class KeyedErrorRateController<K>
+{
+	private final LoadingCache<K, ErrorRateController> buckets;
+
+	/**
+	 *
+	 * @param maxBurst
+	 *            - maximum of permits per key that will be stockpiled for a
+	 *            burst
+	 * @param permitRate
+	 *            - rate at which permits become available per permitRateUnits
+	 *            for each key
+	 * @param permitRateUnits
+	 * @param maxKeys
+	 *            - the most keys tracked at once
+	 */
+	public KeyedErrorRateController(final long maxBurst, final double permitRate, final TimeUnit permitRateUnits,
+			int maxKeys)
+	{
+		Preconditions.checkArgument(maxKeys > 0, "maxKeys must be greater than 0");
+		Preconditions.checkArgument(permitRate > 0, "permitRate must be greater than 0");
+
+		// the time an unused bucket takes to refill
+		final long refillNanos = Math.max(1, (long) (permitRateUnits.toNanos(1) * (maxBurst / permitRate)));
+		buckets = CacheBuilder.newBuilder().maximumSize(maxKeys).expireAfterAccess(refillNanos, TimeUnit.NANOSECONDS)
+				.build(new CacheLoader<K, ErrorRateController>()
+				{
+
+					@Override
+					public ErrorRateController load(K key)
+					{
+						return new ErrorRateController(maxBurst, permitRate, permitRateUnits);
+					}
+				});
+	}
+
+	public boolean acquire(K key)
+	{
+		return tryAcquire(key, 1);
+	}
+
+	public boolean tryAcquire(K key, int permits)
+	{
+		Preconditions.checkNotNull(key);
+		return buckets.getUnchecked(key).tryAcquire(permits);
+	}
+
+	/**
+	 * @return the number of keys currently being tracked
+	 */
+	public int getKeyCount()
+	{
+		buckets.cleanUp();
+		return (int) buckets.size();
+	}
+}
@@ -1,13 +1,32 @@
 package au.com.vaadinutils.fields;
 
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 import java.util.TreeSet;
 
+import javax.persistence.metamodel.SingularAttribute;
+
+import com.google.common.base.Preconditions;
+
+import au.com.vaadinutils.dao.JpaBaseDao.Condition;
+import au.com.vaadinutils.dao.JpaDslAbstract;
+import au.com.vaadinutils.dao.LongIdSet;
+
+/**
+ * The ids marked in a TableCheckBoxSelect, either the selected ids or, after
+ * select all, the deselected ids.
+ *
+ * Long ids, as used by entity containers, are held in a LongIdSet so that
+ * selections of hundreds of thousands of rows stay small. Other ids are held
+ * in a TreeSet.
+ */
 public class MarkedIds
 {
-	final Set<Object> markedIds = new TreeSet<Object>();
+	final LongIdSet markedIds = new LongIdSet();
+	final Set<Object> otherIds = new TreeSet<Object>();
 	private boolean trackingSelected = true;
 
 	private Set<SelectionListener> selectionListeners = new HashSet<SelectionListener>();
@@ -20,7 +39,7 @@ public class MarkedIds
 
 	private void updateSelectionListeners()
 	{
-		int count = markedIds.size();
+		int count = size();
 		if (!trackingSelected)
 		{
 			count = containerSize - count;
@@ -35,53 +54,181 @@ public class MarkedIds
 	public void clear(boolean b, int containerSize)
 	{
 		markedIds.clear();
+		otherIds.clear();
 		trackingSelected = b;
 		this.containerSize = containerSize;
 		updateSelectionListeners();
-		
+
 
 	}
 
-	public void addAll(Collection<Long> value)
+	public void addAll(Collection<?> value)
 	{
-		markedIds.addAll(value);
+		if (!addAllOther(value))
+		{
+			@SuppressWarnings("unchecked")
+			final Collection<Long> ids = (Collection<Long>) value;
+			markedIds.addAll(ids);
+		}
 		updateSelectionListeners();
 
 	}
 
+	/**
+	 * @return false if the ids are all Longs, and were not added
+	 */
+	private boolean addAllOther(Collection<?> value)
+	{
+		boolean other = false;
+		for (Object itemId : value)
+		{
+			if (!(itemId instanceof Long))
+			{
+				other = true;
+				break;
+			}
+		}
+		if (other)
+		{
+			for (Object itemId : value)
+			{
+				addId(itemId);
+			}
+		}
+		return other;
+	}
+
 	public void add(Object itemId)
 	{
-		markedIds.add(itemId);
+		addId(itemId);
 		updateSelectionListeners();
 
 	}
 
+	private void addId(Object itemId)
+	{
+		if (itemId instanceof Long)
+		{
+			markedIds.add((Long) itemId);
+		}
+		else
+		{
+			otherIds.add(itemId);
+		}
+	}
+
 	public void remove(Object itemId)
 	{
-		markedIds.remove(itemId);
+		if (itemId instanceof Long)
+		{
+			markedIds.remove(((Long) itemId).longValue());
+		}
+		else
+		{
+			otherIds.remove(itemId);
+		}
 		updateSelectionListeners();
 
 	}
 
 	public boolean contains(Object itemId)
 	{
-		return markedIds.contains(itemId);
+		if (itemId instanceof Long)
+		{
+			return markedIds.contains(((Long) itemId).longValue());
+		}
+		return otherIds.contains(itemId);
 	}
 
-	public void removeAll(Collection<Long> ids)
+	public void removeAll(Collection<?> ids)
 	{
 		markedIds.removeAll(ids);
+		if (!otherIds.isEmpty())
+		{
+			otherIds.removeAll(ids);
+		}
 		updateSelectionListeners();
 
 	}
 
+	public int size()
+	{
+		return markedIds.size() + otherIds.size();
+	}
+
 	public Collection<?> getIds()
 	{
-		return markedIds;
+		if (otherIds.isEmpty())
+		{
+			return markedIds;
+		}
+		if (markedIds.isEmpty())
+		{
+			return otherIds;
+		}
+		final List<Object> ids = new ArrayList<Object>(size());
+		ids.addAll(markedIds);
+		ids.addAll(otherIds);
+		return ids;
+	}
+
+	/**
+	 * @param itemIds
+	 *            - all of the ids in the container
+	 * @return the selected ids, a LongIdSet if the ids are Longs
+	 */
+	public Collection<?> getSelectedIds(Collection<?> itemIds)
+	{
+		if (trackingSelected)
+		{
+			return getIds();
+		}
+
+		final List<Long> longIds = new ArrayList<Long>(Math.max(0, itemIds.size() - size()));
+		final Set<Object> other = new TreeSet<Object>();
+		for (Object itemId : itemIds)
+		{
+			if (!contains(itemId))
+			{
+				if (itemId instanceof Long)
+				{
+					longIds.add((Long) itemId);
+				}
+				else
+				{
+					other.add(itemId);
+				}
+			}
+		}
+		if (other.isEmpty())
+		{
+			return new LongIdSet(longIds);
+		}
+		other.addAll(longIds);
+		return other;
+	}
+
+	/**
+	 * A condition matching the selected rows, so the DAO can fetch or update
+	 * them without loading the container's ids. After select all this is a NOT
+	 * IN of the deselected ids, so and it with the container's filter.
+	 *
+	 * @param q
+	 * @param idAttribute
+	 *            - the id the container's item ids are
+	 */
+	public <E> Condition<E> getSelectedCondition(JpaDslAbstract<E, ?> q, SingularAttribute<E, Long> idAttribute)
+	{
+		Preconditions.checkState(otherIds.isEmpty(), "The item ids are not all Longs");
+		if (trackingSelected)
+		{
+			return q.in(idAttribute, markedIds);
+		}
+		return q.notIn(idAttribute, markedIds);
 	}
 
 	// Logger logger = org.apache.logging.log4j.LogManager.getLogger();
-	
+
 	public boolean isTrackingSelected()
 	{
 		return trackingSelected;
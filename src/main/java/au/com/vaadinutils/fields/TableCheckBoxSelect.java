@@ -7,7 +7,8 @@ import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Set;
-import java.util.TreeSet;
+
+import javax.persistence.metamodel.SingularAttribute;
 
 import org.apache.logging.log4j.Logger;
 
@@ -17,6 +18,9 @@ import com.vaadin.server.ErrorMessage;
 import com.vaadin.ui.CheckBox;
 import com.vaadin.ui.Table;
 
+import au.com.vaadinutils.dao.JpaBaseDao.Condition;
+import au.com.vaadinutils.dao.JpaDslAbstract;
+
 /**
  * @deprecated Use Vaadin's Grid component instead
  */
@@ -66,7 +70,8 @@ public class TableCheckBoxSelect extends Table
 
 	public void selectAll()
 	{
-		containerSize = getItemIds().size();
+		// the size, rather than the ids which an entity container would load
+		containerSize = getContainerDataSource().size();
 		markedIds.clear(false, containerSize);
 
 		refreshRenderedCells();
@@ -196,7 +201,6 @@ public class TableCheckBoxSelect extends Table
 		super.setValue(v);
 	}
 
-	@SuppressWarnings("unchecked")
 	public void setSelectedValue(Object value)
 	{
 		// If table is selectable with checkboxes then update the selected ids,
@@ -204,7 +208,7 @@ public class TableCheckBoxSelect extends Table
 		if (selectable)
 		{
 			markedIds.clear(true, containerSize);
-			markedIds.addAll((Collection<Long>) value);
+			markedIds.addAll((Collection<?>) value);
 		}
 		else
 			super.setValue(value);
@@ -249,15 +253,18 @@ public class TableCheckBoxSelect extends Table
 			return super.getValue();
 		}
 
-		if (markedIds.isTrackingSelected())
-		{
-			return markedIds.getIds();
-		}
+		return markedIds.getSelectedIds(getContainerDataSource().getItemIds());
+	}
 
-		TreeSet<Object> result = new TreeSet<Object>();
-		result.addAll(getContainerDataSource().getItemIds());
-		result.removeAll(markedIds.getIds());
-		return result;
+	/**
+	 * A condition matching the selected rows, for fetching or updating them
+	 * through the DAO rather than by the ids of every selected row. After
+	 * selectAll() it matches every row that wasn't deselected, so and it with
+	 * the container's filter.
+	 */
+	public <E> Condition<E> getSelectedCondition(JpaDslAbstract<E, ?> q, SingularAttribute<E, Long> idAttribute)
+	{
+		return markedIds.getSelectedCondition(q, idAttribute);
 	}
 
 	@Override
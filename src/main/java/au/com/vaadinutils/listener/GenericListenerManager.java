@@ -1,36 +1,48 @@
 package au.com.vaadinutils.listener;
 
 import java.util.Date;
-import java.util.Iterator;
-import java.util.LinkedHashMap;
-import java.util.LinkedList;
-import java.util.List;
-import java.util.Map;
-import java.util.Map.Entry;
 
 import org.apache.logging.log4j.Logger;
 
+/**
+ * Listeners are held in an immutable array which is replaced with a copy each
+ * time a listener is added or removed. Adding and removing listeners is rare
+ * compared to notifying them, so notifyListeners just walks the current array
+ * without allocating anything.
+ *
+ * A listener can remove itself (or add another listener) during a
+ * notification without causing a co-mod error, the change is visible from the
+ * next notification.
+ *
+ * @param <K>
+ */
 class GenericListenerManager<K> implements ListenerManager<K>
 {
-	private Map<K, Date> listeners = createSet();
+	private static final Registration[] EMPTY = new Registration[0];
 
 	/**
 	 * I considered weak references, but if you pass in an anonoumous listener
 	 * it could be GC'd immediately
-	 * 
-	 * @return
 	 */
-
-	protected Map<K, Date> createSet()
-	{
-		return new LinkedHashMap<>();
-	}
+	private volatile Registration[] listeners = EMPTY;
 
 	private long maxSize;
 	private long highWaterMark = 0;
 	Logger logger = org.apache.logging.log4j.LogManager.getLogger();
 	private String name;
 
+	private static class Registration
+	{
+		final Object listener;
+		final Date added;
+
+		Registration(Object listener)
+		{
+			this.listener = listener;
+			this.added = new Date();
+		}
+	}
+
 	public GenericListenerManager(String name, long maxSize)
 	{
 		this.maxSize = maxSize;
@@ -40,9 +52,24 @@ class GenericListenerManager<K> implements ListenerManager<K>
 	@Override
 	public void addListener(K listener)
 	{
+		Registration[] current = listeners;
+		int index = indexOf(current, listener);
+		Registration[] next;
+		if (index >= 0)
+		{
+			// already registered, keep its position but update when it was
+			// added
+			next = current.clone();
+			next[index] = new Registration(listener);
+		}
+		else
+		{
+			next = new Registration[current.length + 1];
+			System.arraycopy(current, 0, next, 0, current.length);
+			next[current.length] = new Registration(listener);
+		}
 
-		listeners.put(listener, new Date());
-		int size = listeners.size();
+		int size = next.length;
 		if (size > (maxSize * 0.8) && highWaterMark < size)
 		{
 			highWaterMark = size;
@@ -50,38 +77,61 @@ class GenericListenerManager<K> implements ListenerManager<K>
 		}
 		if (size > maxSize)
 		{
-			Iterator<Entry<K, Date>> itr = listeners.entrySet().iterator();
-			Entry<K, Date> removed = itr.next();
-			Exception ex = new Exception("Removing listener " + removed.getKey() + " " + removed.getValue());
+			Registration removed = next[0];
+			Exception ex = new Exception("Removing listener " + removed.listener + " " + removed.added);
 			logger.error(ex, ex);
-			itr.remove();
+			Registration[] trimmed = new Registration[size - 1];
+			System.arraycopy(next, 1, trimmed, 0, size - 1);
+			next = trimmed;
 		}
-
+		listeners = next;
 	}
 
 	@Override
 	public void removeListener(K listener)
 	{
-		listeners.remove(listener);
+		Registration[] current = listeners;
+		int index = indexOf(current, listener);
+		if (index < 0)
+		{
+			return;
+		}
+		if (current.length == 1)
+		{
+			listeners = EMPTY;
+			return;
+		}
+		Registration[] next = new Registration[current.length - 1];
+		System.arraycopy(current, 0, next, 0, index);
+		System.arraycopy(current, index + 1, next, index, current.length - index - 1);
+		listeners = next;
+	}
+
+	private int indexOf(Registration[] current, Object listener)
+	{
+		for (int i = 0; i < current.length; i++)
+		{
+			if (current[i].listener.equals(listener))
+			{
+				return i;
+			}
+		}
+		return -1;
 	}
 
 	/**
-	 * This method is a bit expensive. If you have a high volume application,
-	 * dont use this.
-	 * 
 	 * this allows a listener to call back and remove it self without causing a
 	 * co-mod error
-	 * 
+	 *
 	 * @param callback
 	 */
 	@Override
+	@SuppressWarnings("unchecked")
 	public void notifyListeners(ListenerCallback<K> callback)
 	{
-		List<K> temp = new LinkedList<>();
-		temp.addAll(listeners.keySet());
-		for (K listener : temp)
+		for (Registration registration : listeners)
 		{
-			callback.invoke(listener);
+			callback.invoke((K) registration.listener);
 		}
 
 	}
@@ -89,11 +139,11 @@ class GenericListenerManager<K> implements ListenerManager<K>
 	@Override
 	public boolean hasListeners()
 	{
-		return !listeners.isEmpty();
+		return listeners.length > 0;
 	}
 
 	public void destroy()
 	{
-		listeners.clear();
+		listeners = EMPTY;
 	}
 }
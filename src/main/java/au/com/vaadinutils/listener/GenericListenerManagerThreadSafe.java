@@ -1,9 +1,11 @@
 package au.com.vaadinutils.listener;
 
-import java.util.Date;
-import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
-
+/**
+ * Adding and removing listeners is serialised so concurrent changes aren't
+ * lost, notifyListeners takes no lock as it only reads the current snapshot.
+ *
+ * @param <K>
+ */
 class GenericListenerManagerThreadSafe<K> extends GenericListenerManager<K>
 {
 	public GenericListenerManagerThreadSafe(String name, long maxSize)
@@ -12,9 +14,21 @@ class GenericListenerManagerThreadSafe<K> extends GenericListenerManager<K>
 	}
 
 	@Override
-	protected Map<K, Date> createSet()
+	public synchronized void addListener(K listener)
+	{
+		super.addListener(listener);
+	}
+
+	@Override
+	public synchronized void removeListener(K listener)
+	{
+		super.removeListener(listener);
+	}
+
+	@Override
+	public synchronized void destroy()
 	{
-		return new ConcurrentHashMap<>();
+		super.destroy();
 	}
 
 }
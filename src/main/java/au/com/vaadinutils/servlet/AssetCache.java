@@ -0,0 +1,213 @@
+package au.com.vaadinutils.servlet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.zip.GZIPOutputStream;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Keeps the content of small static files in memory for StaticContentServlet,
+ * as is or gzipped, up to a total number of bytes. The least recently used
+ * files are dropped first, and a file is read again when its size or
+ * modification time changes.
+ */
+final class AssetCache
+{
+    static final String GZIP = "gzip";
+
+    private final long maxBytes;
+    private final int maxFileBytes;
+
+    private long totalBytes = 0;
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    private static final class Entry
+    {
+        final byte[] content;
+        final long length;
+        final long lastModified;
+
+        Entry(byte[] content, long length, long lastModified)
+        {
+            this.content = content;
+            this.length = length;
+            this.lastModified = lastModified;
+        }
+    }
+
+    /**
+     * @param maxBytes
+     *            - the most content to hold in memory
+     * @param maxFileBytes
+     *            - larger files are not cached
+     */
+    AssetCache(long maxBytes, int maxFileBytes)
+    {
+        Preconditions.checkArgument(maxBytes >= 0, "maxBytes must not be negative");
+        Preconditions.checkArgument(maxFileBytes >= 0, "maxFileBytes must not be negative");
+        this.maxBytes = maxBytes;
+        this.maxFileBytes = (int) Math.min(maxFileBytes, maxBytes);
+    }
+
+    /**
+     * @param file
+     * @param length
+     *            - the size of the file when it was checked
+     * @param lastModified
+     *            - the modification time of the file when it was checked
+     * @param encoding
+     *            - null for the file as is, or GZIP
+     * @return the content, or null if the file is too large to cache
+     */
+    byte[] get(File file, long length, long lastModified, String encoding) throws IOException
+    {
+        if (!isCacheable(length))
+        {
+            return null;
+        }
+
+        final String key = encoding == null ? file.getPath() : file.getPath() + "|" + encoding;
+        synchronized (entries)
+        {
+            final Entry entry = entries.get(key);
+            if (entry != null && entry.length == length && entry.lastModified == lastModified)
+            {
+                return entry.content;
+            }
+        }
+
+        // read outside the lock, two requests may read the same file
+        byte[] content = Files.readAllBytes(file.toPath());
+        if (content.length != length)
+        {
+            // changed since it was checked, don't cache it until it is checked
+            // again
+            return null;
+        }
+        if (GZIP.equals(encoding))
+        {
+            content = gzip(content);
+        }
+
+        synchronized (entries)
+        {
+            final Entry previous = entries.put(key, new Entry(content, length, lastModified));
+            if (previous != null)
+            {
+                totalBytes -= previous.content.length;
+            }
+            totalBytes += content.length;
+
+            final Iterator<Entry> eldest = entries.values().iterator();
+            while (totalBytes > maxBytes && eldest.hasNext())
+            {
+                totalBytes -= eldest.next().content.length;
+                eldest.remove();
+            }
+        }
+        return content;
+    }
+
+    /**
+     * @return true if a file of this size is small enough to cache
+     */
+    boolean isCacheable(long length)
+    {
+        return length <= maxFileBytes;
+    }
+
+    long getTotalBytes()
+    {
+        synchronized (entries)
+        {
+            return totalBytes;
+        }
+    }
+
+    void clear()
+    {
+        synchronized (entries)
+        {
+            entries.clear();
+            totalBytes = 0;
+        }
+    }
+
+    static byte[] gzip(byte[] content) throws IOException
+    {
+        final ByteArrayOutputStream compressed = new ByteArrayOutputStream(content.length / 3 + 64);
+        try (GZIPOutputStream gzip = new GZIPOutputStream(compressed))
+        {
+            gzip.write(content);
+        }
+        return compressed.toByteArray();
+    }
+
+    /**
+     * @param acceptEncoding
+     *            - the Accept-Encoding header, e.g. "gzip, deflate, br"
+     * @return true if the client accepts the encoding, taking account of
+     *         "q=0" and "*"
+     */
+    static boolean accepts(String acceptEncoding, String encoding)
+    {
+        if (acceptEncoding == null)
+        {
+            return false;
+        }
+        Boolean any = null;
+        for (String coding : acceptEncoding.split(","))
+        {
+            final String[] parts = coding.trim().split(";");
+            final String name = parts[0].trim();
+            boolean accepted = true;
+            for (int i = 1; i < parts.length; i++)
+            {
+                final String param = parts[i].trim();
+                if (param.startsWith("q="))
+                {
+                    try
+                    {
+                        accepted = Double.parseDouble(param.substring(2)) > 0;
+                    }
+                    catch (NumberFormatException e)
+                    {
+                        accepted = false;
+                    }
+                }
+            }
+            if (name.equalsIgnoreCase(encoding))
+            {
+                return accepted;
+            }
+            if (name.equals("*"))
+            {
+                any = accepted;
+            }
+        }
+        return any != null && any;
+    }
+
+    /**
+     * @return true for types worth compressing, e.g. text, javascript and svg
+     */
+    static boolean isCompressible(String mimetype)
+    {
+        if (mimetype == null)
+        {
+            return false;
+        }
+        final int parameters = mimetype.indexOf(';');
+        final String type = (parameters < 0 ? mimetype : mimetype.substring(0, parameters)).trim()
+                .toLowerCase(Locale.ROOT);
+        return type.startsWith("text/") || type.contains("javascript") || type.endsWith("/json")
+                || type.endsWith("+json") || type.endsWith("/xml") || type.endsWith("+xml")
+                || type.equals("application/vnd.ms-fontobject") || type.equals("font/ttf");
+    }
+}
@@ -0,0 +1,125 @@
+package au.com.vaadinutils.servlet;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A range of bytes from an HTTP Range header, e.g. "bytes=0-499,-500"
+ */
+final class ByteRange
+{
+    /**
+     * more ranges than this in one request are served as the whole file
+     */
+    static final int MAX_RANGES = 16;
+
+    final long start;
+    /**
+     * inclusive, as in the header
+     */
+    final long end;
+
+    ByteRange(long start, long end)
+    {
+        this.start = start;
+        this.end = end;
+    }
+
+    long length()
+    {
+        return end - start + 1;
+    }
+
+    /**
+     * @return "bytes start-end/total" for the Content-Range header
+     */
+    String contentRange(long total)
+    {
+        return "bytes " + start + "-" + end + "/" + total;
+    }
+
+    /**
+     * @param header
+     *            - the Range header
+     * @param length
+     *            - the length of the file
+     * @return the ranges, clipped to the length, an empty list if none of
+     *         them overlap the file (416), or null if the header should be
+     *         ignored and the whole file sent
+     */
+    static List<ByteRange> parse(String header, long length)
+    {
+        if (header == null || !header.startsWith("bytes="))
+        {
+            return null;
+        }
+
+        final String[] specs = header.substring("bytes=".length()).split(",");
+        if (specs.length > MAX_RANGES)
+        {
+            return null;
+        }
+
+        final List<ByteRange> ranges = new ArrayList<>();
+        for (String spec : specs)
+        {
+            spec = spec.trim();
+            final int dash = spec.indexOf('-');
+            if (dash < 0)
+            {
+                return null;
+            }
+            try
+            {
+                final String first = spec.substring(0, dash).trim();
+                final String last = spec.substring(dash + 1).trim();
+                long start;
+                long end;
+                if (first.isEmpty())
+                {
+                    // the last n bytes
+                    final long suffix = Long.parseLong(last);
+                    if (suffix < 0)
+                    {
+                        return null;
+                    }
+                    if (suffix == 0)
+                    {
+                        continue;
+                    }
+                    start = Math.max(0, length - suffix);
+                    end = length - 1;
+                }
+                else
+                {
+                    start = Long.parseLong(first);
+                    end = last.isEmpty() ? length - 1 : Math.min(Long.parseLong(last), length - 1);
+                    if (start < 0 || (!last.isEmpty() && Long.parseLong(last) < start))
+                    {
+                        return null;
+                    }
+                }
+                if (start < length && start <= end)
+                {
+                    ranges.add(new ByteRange(start, end));
+                }
+            }
+            catch (NumberFormatException e)
+            {
+                return null;
+            }
+        }
+        if (ranges.isEmpty())
+        {
+            return Collections.emptyList();
+        }
+        return ranges;
+    }
+
+    @Override
+    public String toString()
+    {
+        return start + "-" + end;
+    }
+}
@@ -1,9 +1,17 @@
 package au.com.vaadinutils.servlet;
 
-import java.io.BufferedInputStream;
+import java.io.EOFException;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import javax.servlet.ServletConfig;
 import javax.servlet.ServletContext;
@@ -21,11 +29,163 @@ public class StaticContentServlet extends HttpServlet
     Logger logger = org.apache.logging.log4j.LogManager.getLogger();
     private ServletContext sc;
 
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * smaller files are copied, as setting up sendfile costs more than it
+     * saves
+     */
+    private static final long SENDFILE_MIN_SIZE = 48 * 1024;
+
+    /**
+     * how long the size and modification time of a file are trusted before
+     * the file is checked again
+     */
+    private static final long RECHECK_MILLIS = 1000;
+
+    private static final String MULTIPART_BOUNDARY = "VAADINUTILS_BYTERANGE_BOUNDARY";
+    private static final byte[] MULTIPART_END = ("\r\n--" + MULTIPART_BOUNDARY + "--\r\n")
+            .getBytes(StandardCharsets.ISO_8859_1);
+
+    /**
+     * defaults for the assetCacheBytes and assetCacheFileBytes init
+     * parameters
+     */
+    private static final long DEFAULT_ASSET_CACHE_BYTES = 32 * 1024 * 1024;
+    private static final int DEFAULT_ASSET_CACHE_FILE_BYTES = 512 * 1024;
+
+    private static final String BROTLI = "br";
+
+    private final ConcurrentMap<String, FileInfo> files = new ConcurrentHashMap<>();
+
+    /**
+     * precompressed .gz and .br files, including ones that don't exist
+     */
+    private final ConcurrentMap<String, FileInfo> siblings = new ConcurrentHashMap<>();
+
+    private AssetCache assetCache = new AssetCache(DEFAULT_ASSET_CACHE_BYTES,
+            DEFAULT_ASSET_CACHE_FILE_BYTES);
+
+    /**
+     * a file's size and modification time when it was last checked
+     */
+    private static final class FileInfo
+    {
+        final File file;
+        final long length;
+        /**
+         * without milliseconds, which aren't sent in the headers
+         */
+        final long lastModified;
+        final long modifiedMillis;
+        /**
+         * strong, from the size and modification time
+         */
+        final String etag;
+        final long checked;
+
+        private FileInfo(File file, long length, long lastModified)
+        {
+            this.file = file;
+            this.length = length;
+            this.lastModified = lastModified - lastModified % 1000;
+            this.modifiedMillis = lastModified;
+            this.etag = "\"" + Long.toHexString(length) + "-" + Long.toHexString(lastModified) + "\"";
+            this.checked = System.currentTimeMillis();
+        }
+
+        /**
+         * @return null if the file doesn't exist or isn't a file
+         */
+        static FileInfo stat(File file)
+        {
+            if (!file.isFile())
+            {
+                return null;
+            }
+            return new FileInfo(file, file.length(), file.lastModified());
+        }
+
+        static FileInfo missing(File file)
+        {
+            return new FileInfo(file, -1, 0);
+        }
+
+        boolean exists()
+        {
+            return length >= 0;
+        }
+    }
+
+    /**
+     * what is sent for a file: the file, a precompressed copy of it or the
+     * file compressed in memory
+     */
+    private static final class Representation
+    {
+        final File file;
+        final long length;
+        /**
+         * null to read the file
+         */
+        final byte[] content;
+        /**
+         * the Content-Encoding, null for none
+         */
+        final String encoding;
+        final String etag;
+
+        Representation(FileInfo source, byte[] content, String encoding, String etag)
+        {
+            this.file = source.file;
+            this.length = content != null ? content.length : source.length;
+            this.content = content;
+            this.encoding = encoding;
+            this.etag = etag;
+        }
+    }
+
+    /**
+     * which copy of the file to send, chosen from the headers and the file
+     * sizes without reading anything, so a 304 costs no reads or compression
+     */
+    private static final class Variant
+    {
+        final FileInfo source;
+        /**
+         * the Content-Encoding, null for none
+         */
+        final String encoding;
+        /**
+         * gzip the source in memory rather than send a precompressed copy
+         */
+        final boolean compressInMemory;
+        final String etag;
+
+        Variant(FileInfo source, String encoding, boolean compressInMemory, String etag)
+        {
+            this.source = source;
+            this.encoding = encoding;
+            this.compressInMemory = compressInMemory;
+            this.etag = etag;
+        }
+    }
+
     @Override
     public void init(ServletConfig config) throws ServletException
     {
         sc = config.getServletContext();
 
+        final String cacheBytes = config.getInitParameter("assetCacheBytes");
+        final String cacheFileBytes = config.getInitParameter("assetCacheFileBytes");
+        if (cacheBytes != null || cacheFileBytes != null)
+        {
+            assetCache = new AssetCache(
+                    cacheBytes != null ? Long.parseLong(cacheBytes.trim()) : DEFAULT_ASSET_CACHE_BYTES,
+                    cacheFileBytes != null ? Integer.parseInt(cacheFileBytes.trim())
+                            : DEFAULT_ASSET_CACHE_FILE_BYTES);
+        }
+
     }
 
     @Override
@@ -35,11 +195,9 @@ public class StaticContentServlet extends HttpServlet
         String requestURI = java.net.URLDecoder.decode(request.getRequestURI(), "UTF-8");
         // strip the context as otherwise it gets duplicated in the next step
         String relativePath = requestURI.replace(servletContext.getContextPath(), "");
-        relativePath = requestURI.replace(servletContext.getContextPath(), "");
-        String file = servletContext.getRealPath(relativePath);
-        File resource = new File(file);
+        FileInfo resource = getFileInfo(servletContext, relativePath);
 
-        if (!resource.exists())
+        if (resource == null)
         {
             response.setStatus(HttpServletResponse.SC_NOT_FOUND);
             return;
@@ -50,25 +208,76 @@ public class StaticContentServlet extends HttpServlet
 
     }
 
-    public void send(HttpServletRequest request, HttpServletResponse response, File resource)
+    /**
+     * The file for a path and its size and modification time, resolved at
+     * most once every RECHECK_MILLIS rather than on every request.
+     *
+     * @return null if there is no such file
+     */
+    private FileInfo getFileInfo(ServletContext servletContext, String relativePath)
     {
-        // Find the modification timestamp
-        long lastModifiedTime = resource.lastModified();
+        final FileInfo cached = files.get(relativePath);
+        if (cached != null && System.currentTimeMillis() - cached.checked < RECHECK_MILLIS)
+        {
+            return cached;
+        }
 
-        // Remove milliseconds to avoid comparison problems (milliseconds
-        // are not returned by the browser in the "If-Modified-Since"
-        // header).
-        lastModifiedTime = lastModifiedTime - lastModifiedTime % 1000;
+        final File file;
+        if (cached != null)
+        {
+            file = cached.file;
+        }
+        else
+        {
+            final String realPath = servletContext.getRealPath(relativePath);
+            if (realPath == null)
+            {
+                return null;
+            }
+            file = new File(realPath);
+        }
 
-        if (browserHasNewestVersion(request, lastModifiedTime))
+        final FileInfo info = FileInfo.stat(file);
+        if (info == null)
         {
-            response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            files.remove(relativePath);
+        }
+        else
+        {
+            files.put(relativePath, info);
+        }
+        return info;
+    }
+
+    public void send(HttpServletRequest request, HttpServletResponse response, File resource)
+    {
+        final FileInfo info = FileInfo.stat(resource);
+        if (info == null)
+        {
+            response.setStatus(HttpServletResponse.SC_NOT_FOUND);
             return;
         }
+        send(request, response, info);
+    }
+
+    private void send(HttpServletRequest request, HttpServletResponse response, FileInfo resource)
+    {
+        final long lastModifiedTime = resource.lastModified;
 
         // Set type mime type if we can determine it based on the filename
 
-        final String mimetype = sc.getMimeType(resource.getName());
+        final String mimetype = sc.getMimeType(resource.file.getName());
+        final boolean compressible = AssetCache.isCompressible(mimetype);
+        final Variant variant = choose(request, resource, compressible);
+
+        if (browserHasNewestVersion(request, resource, variant.etag))
+        {
+            response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            response.setHeader("ETag", variant.etag);
+            return;
+        }
+        final Representation body = load(resource, variant);
+
         if (mimetype != null)
         {
             response.setContentType(mimetype);
@@ -80,15 +289,137 @@ public class StaticContentServlet extends HttpServlet
             response.setDateHeader("Last-Modified", lastModifiedTime);
 
             String cacheControl = "public, max-age=0, must-revalidate";
-            int resourceCacheTime = getCacheTime(resource.getName());
+            int resourceCacheTime = getCacheTime(resource.file.getName());
             if (resourceCacheTime > 0)
             {
                 cacheControl = "max-age=" + String.valueOf(resourceCacheTime);
             }
             response.setHeader("Cache-Control", cacheControl);
         }
+        response.setHeader("ETag", body.etag);
+        response.setHeader("Accept-Ranges", "bytes");
+        if (compressible)
+        {
+            response.setHeader("Vary", "Accept-Encoding");
+        }
+        if (body.encoding != null)
+        {
+            response.setHeader("Content-Encoding", body.encoding);
+        }
+
+        List<ByteRange> ranges = null;
+        if (body.encoding == null && ifRangeMatches(request, resource))
+        {
+            ranges = ByteRange.parse(request.getHeader("Range"), body.length);
+        }
+
+        if (ranges != null && ranges.isEmpty())
+        {
+            response.setStatus(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+            response.setHeader("Content-Range", "bytes */" + body.length);
+            return;
+        }
+
+        writeStaticResourceResponse(request, response, body, ranges, mimetype);
+    }
+
+    /**
+     * Picks a precompressed .br or .gz copy of the file when the browser
+     * accepts it, otherwise gzips small files once and keeps them in memory.
+     * Range requests always get the file as is.
+     */
+    private Variant choose(HttpServletRequest request, FileInfo resource, boolean compressible)
+    {
+        if (compressible && request.getHeader("Range") == null)
+        {
+            final String acceptEncoding = request.getHeader("Accept-Encoding");
+            if (AssetCache.accepts(acceptEncoding, BROTLI))
+            {
+                final FileInfo brotli = getSibling(resource, ".br");
+                if (brotli != null)
+                {
+                    return new Variant(brotli, BROTLI, false, encodedEtag(resource, BROTLI));
+                }
+            }
+            if (AssetCache.accepts(acceptEncoding, AssetCache.GZIP))
+            {
+                final FileInfo gzip = getSibling(resource, ".gz");
+                if (gzip != null)
+                {
+                    return new Variant(gzip, AssetCache.GZIP, false, encodedEtag(resource, AssetCache.GZIP));
+                }
+                if (assetCache.isCacheable(resource.length))
+                {
+                    return new Variant(resource, AssetCache.GZIP, true, encodedEtag(resource, AssetCache.GZIP));
+                }
+            }
+        }
+        return new Variant(resource, null, false, resource.etag);
+    }
 
-        writeStaticResourceResponse(request, response, resource);
+    /**
+     * the content of the chosen copy, from the asset cache when it is small
+     * enough
+     */
+    private Representation load(FileInfo resource, Variant variant)
+    {
+        final FileInfo source = variant.source;
+        try
+        {
+            if (variant.compressInMemory)
+            {
+                final byte[] content = assetCache.get(source.file, source.length, source.modifiedMillis,
+                        AssetCache.GZIP);
+                if (content != null)
+                {
+                    return new Representation(source, content, AssetCache.GZIP, variant.etag);
+                }
+                // changed since it was checked, send it as is
+                return new Representation(resource, null, null, resource.etag);
+            }
+            return new Representation(source,
+                    assetCache.get(source.file, source.length, source.modifiedMillis, null), variant.encoding,
+                    variant.etag);
+        }
+        catch (IOException e)
+        {
+            // read it from disk, which reports the error
+            logger.debug("Not caching '{}', {}", source.file, e.getMessage());
+            return new Representation(resource, null, null, resource.etag);
+        }
+    }
+
+    /**
+     * each encoding needs its own strong ETag
+     */
+    private String encodedEtag(FileInfo resource, String encoding)
+    {
+        return resource.etag.substring(0, resource.etag.length() - 1) + "-" + encoding + "\"";
+    }
+
+    /**
+     * @return the precompressed copy of the file, or null if there isn't one
+     *         or it is older than the file
+     */
+    private FileInfo getSibling(FileInfo resource, String extension)
+    {
+        final String path = resource.file.getPath() + extension;
+        FileInfo sibling = siblings.get(path);
+        if (sibling == null || System.currentTimeMillis() - sibling.checked >= RECHECK_MILLIS)
+        {
+            final File file = new File(path);
+            sibling = FileInfo.stat(file);
+            if (sibling == null)
+            {
+                sibling = FileInfo.missing(file);
+            }
+            siblings.put(path, sibling);
+        }
+        if (!sibling.exists() || sibling.modifiedMillis < resource.modifiedMillis)
+        {
+            return null;
+        }
+        return sibling;
     }
 
     /**
@@ -127,32 +458,181 @@ public class StaticContentServlet extends HttpServlet
         return 60 * 60;
     }
 
-    private void writeStaticResourceResponse(HttpServletRequest request, HttpServletResponse response, File file)
+    /**
+     * @param ranges
+     *            - the ranges to send, or null for the whole file
+     */
+    private void writeStaticResourceResponse(HttpServletRequest request, HttpServletResponse response,
+            Representation body, List<ByteRange> ranges, String mimetype)
 
     {
-        // this always will point to the root of the web site
+        if (ranges == null || ranges.size() == 1)
+        {
+            final ByteRange range = ranges == null ? new ByteRange(0, body.length - 1) : ranges.get(0);
+            if (ranges != null)
+            {
+                response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+                response.setHeader("Content-Range", range.contentRange(body.length));
+            }
+            response.setHeader("Content-Length", String.valueOf(range.length()));
 
-        try (FileInputStream fis = new FileInputStream(file);
-                BufferedInputStream bis = new BufferedInputStream(fis);
-                ServletOutputStream outStream = response.getOutputStream();)
+            if (body.content == null && useSendfile(request, body.file, range))
+            {
+                // the container writes the file straight to the socket
+                return;
+            }
+        }
+        else
         {
+            response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+        }
 
-            byte[] buf = new byte[4 * 1024]; // 4K buffer
-            int bytesRead;
-            while ((bytesRead = bis.read(buf)) != -1)
+        // cached content is written from memory
+        try (FileChannel channel = body.content == null ? FileChannel.open(body.file.toPath(),
+                StandardOpenOption.READ) : null)
+        {
+            final ServletOutputStream outStream = response.getOutputStream();
+            final ByteBuffer buffer = body.content == null ? ByteBuffer.allocate(BUFFER_SIZE) : null;
+            if (ranges == null || ranges.size() == 1)
+            {
+                copy(body, channel, ranges == null ? new ByteRange(0, body.length - 1) : ranges.get(0), buffer,
+                        outStream);
+                return;
+            }
+
+            // multipart/byteranges, each part with its own headers
+            final List<byte[]> partHeaders = new ArrayList<>();
+            long contentLength = MULTIPART_END.length;
+            for (ByteRange range : ranges)
+            {
+                final byte[] partHeader = ("\r\n--" + MULTIPART_BOUNDARY + "\r\n"
+                        + (mimetype != null ? "Content-Type: " + mimetype + "\r\n" : "") + "Content-Range: "
+                        + range.contentRange(body.length) + "\r\n\r\n").getBytes(StandardCharsets.ISO_8859_1);
+                partHeaders.add(partHeader);
+                contentLength += partHeader.length + range.length();
+            }
+            response.setContentType("multipart/byteranges; boundary=" + MULTIPART_BOUNDARY);
+            response.setHeader("Content-Length", String.valueOf(contentLength));
+            for (int i = 0; i < ranges.size(); i++)
             {
-                outStream.write(buf, 0, bytesRead);
+                outStream.write(partHeaders.get(i));
+                copy(body, channel, ranges.get(i), buffer, outStream);
             }
+            outStream.write(MULTIPART_END);
         }
-        catch (Exception e)
+        catch (IOException e)
         {
-            logger.warn("EWengine: file not found or unable to read: '" + file + "'");
+            if (response.isCommitted())
+            {
+                // usually the browser cancelling the download
+                logger.debug("Stopped sending '{}', {}", body.file, e.getMessage());
+                return;
+            }
+            logger.warn("EWengine: file not found or unable to read: '" + body.file + "'");
+            response.reset();
             response.setStatus(HttpServletResponse.SC_NOT_FOUND);
             return;
         }
 
     }
 
+    private void copy(Representation body, FileChannel channel, ByteRange range, ByteBuffer buffer,
+            OutputStream outStream) throws IOException
+    {
+        if (body.content != null)
+        {
+            outStream.write(body.content, (int) range.start, (int) range.length());
+            return;
+        }
+        long position = range.start;
+        long remaining = range.length();
+        while (remaining > 0)
+        {
+            buffer.clear();
+            buffer.limit((int) Math.min(buffer.capacity(), remaining));
+            final int bytesRead = channel.read(buffer, position);
+            if (bytesRead < 0)
+            {
+                throw new EOFException("File truncated while sending " + range);
+            }
+            outStream.write(buffer.array(), 0, bytesRead);
+            position += bytesRead;
+            remaining -= bytesRead;
+        }
+    }
+
+    /**
+     * Hands the file to the container to send with sendfile, when it supports
+     * it (Tomcat's NIO and APR connectors). Not used for HEAD requests.
+     *
+     * @return true if the container will send the file
+     */
+    private boolean useSendfile(HttpServletRequest request, File file, ByteRange range)
+    {
+        if (!Boolean.TRUE.equals(request.getAttribute("org.apache.tomcat.sendfile.support"))
+                || !"GET".equals(request.getMethod()) || range.length() < SENDFILE_MIN_SIZE)
+        {
+            return false;
+        }
+        request.setAttribute("org.apache.tomcat.sendfile.filename", file.getAbsolutePath());
+        request.setAttribute("org.apache.tomcat.sendfile.start", range.start);
+        // exclusive
+        request.setAttribute("org.apache.tomcat.sendfile.end", range.end + 1);
+        return true;
+    }
+
+    /**
+     * A Range header only applies if the If-Range header, when there is one,
+     * matches the file's ETag or modification time.
+     */
+    private boolean ifRangeMatches(HttpServletRequest request, FileInfo resource)
+    {
+        final String ifRange = request.getHeader("If-Range");
+        if (ifRange == null)
+        {
+            return true;
+        }
+        if (ifRange.startsWith("\"") || ifRange.startsWith("W/"))
+        {
+            // ranges need a strong match
+            return ifRange.equals(resource.etag);
+        }
+        try
+        {
+            return request.getDateHeader("If-Range") == resource.lastModified;
+        }
+        catch (IllegalArgumentException e)
+        {
+            return false;
+        }
+    }
+
+    /**
+     * Checks the "If-None-Match" header against the resource's ETag, or if
+     * there isn't one the "If-Modified-Since" header.
+     */
+    private boolean browserHasNewestVersion(HttpServletRequest request, FileInfo resource, String etag)
+    {
+        final String ifNoneMatch = request.getHeader("If-None-Match");
+        if (ifNoneMatch == null)
+        {
+            return browserHasNewestVersion(request, resource.lastModified);
+        }
+        for (String tag : ifNoneMatch.split(","))
+        {
+            tag = tag.trim();
+            if (tag.startsWith("W/"))
+            {
+                tag = tag.substring(2);
+            }
+            if (tag.equals("*") || tag.equals(etag))
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
     /**
      * Checks if the browser has an up to date cached version of requested
      * resource. Currently the check is performed using the "If-Modified-Since"
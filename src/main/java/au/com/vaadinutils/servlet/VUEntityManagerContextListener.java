@@ -1,10 +1,17 @@
 package au.com.vaadinutils.servlet;
 
+import java.util.concurrent.TimeUnit;
+
 import javax.persistence.EntityManagerFactory;
 import javax.servlet.ServletContextEvent;
 import javax.servlet.ServletContextListener;
 
+import au.com.vaadinutils.audit.AsyncAuditor;
+import au.com.vaadinutils.audit.AuditFactory;
+import au.com.vaadinutils.audit.Auditor;
+import au.com.vaadinutils.dao.EntityManagerLeakDetector;
 import au.com.vaadinutils.dao.EntityManagerProvider;
+import au.com.vaadinutils.user.BatchingUserSettingsStorage;
 
 /**
  * You need to hook this class as a servlet context listener in your web.xml
@@ -31,6 +38,21 @@ public abstract class VUEntityManagerContextListener implements ServletContextLi
 	@Override
 	public void contextDestroyed(ServletContextEvent event)
 	{
+		try
+		{
+			BatchingUserSettingsStorage.shutdown(30, TimeUnit.SECONDS);
+			EntityManagerProvider.shutdownExecutor(30, TimeUnit.SECONDS);
+			Auditor auditor = AuditFactory.getAuditor();
+			if (auditor instanceof AsyncAuditor)
+			{
+				((AsyncAuditor) auditor).shutdown(30, TimeUnit.SECONDS);
+			}
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+		}
+		EntityManagerLeakDetector.shutdown();
 		if (emf != null)
 			emf.close();
 	}
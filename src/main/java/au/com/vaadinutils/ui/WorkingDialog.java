@@ -12,6 +12,7 @@ import com.vaadin.ui.UI;
 import com.vaadin.ui.VerticalLayout;
 import com.vaadin.ui.Window;
 
+import au.com.vaadinutils.dao.EntityManagerProvider;
 import au.com.vaadinutils.dao.EntityManagerRunnable;
 import au.com.vaadinutils.listener.CancelListener;
 import au.com.vaadinutils.listener.ClickEventLogged;
@@ -147,7 +148,8 @@ public class WorkingDialog extends Window implements ProgressListener<String>
 	}
 
 	/**
-	 * Pass a Runnable that WorkingDialog will run in a background thread. On
+	 * Pass a Runnable that WorkingDialog will run on the EntityManagerProvider's
+	 * shared worker pool. On
 	 * completion of the thread the complete listener will be notified and the
 	 * WorkingDialog will remove itself rom the UI.
 	 *
@@ -162,8 +164,7 @@ public class WorkingDialog extends Window implements ProgressListener<String>
 	{
 		this.completeListener = listener;
 
-		Thread worker = new Thread(new Worker(this, runnable), "WorkingDialog");
-		worker.start();
+		EntityManagerProvider.submit(new Worker(this, runnable));
 
 	}
 
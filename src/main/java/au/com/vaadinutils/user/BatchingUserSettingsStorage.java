@@ -0,0 +1,485 @@
+package au.com.vaadinutils.user;
+
+import java.io.Serializable;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.logging.log4j.Logger;
+
+import com.google.common.base.Preconditions;
+import com.vaadin.server.SessionDestroyEvent;
+import com.vaadin.server.SessionDestroyListener;
+import com.vaadin.server.VaadinService;
+import com.vaadin.server.VaadinSession;
+
+import au.com.vaadinutils.dao.EntityManagerProvider;
+import au.com.vaadinutils.dao.EntityManagerRunnable;
+
+/**
+ * Sits in front of another UserSettingsStorage, caching each Vaadin session's
+ * settings and writing changes behind.
+ *
+ * getAll(prefix) loads all of the settings for a grid in one call, after which
+ * gets under that prefix don't go to the storage (see
+ * UserSettingsStorageFactory.preload()). Stores update the cache straight
+ * away and are passed to the storage's storeAll() in a batch, writeDelay after
+ * the first unsaved change, when flush() is called or when the session ends,
+ * so dragging a column wider writes its width once.
+ *
+ * Batches are written on a background thread with its own EntityManager and
+ * without the session's lock, through the storage returned by
+ * bindToCurrentSession(), which is called while holding it. erase() waits for a
+ * batch that is being written, so it can't bring erased settings back. Calls
+ * made outside of a Vaadin session go straight to the storage. Call shutdown()
+ * when the application stops, VUEntityManagerContextListener does.
+ *
+ * <pre>
+ * <code>
+ * UserSettingsStorageFactory.setStorageEngine(new BatchingUserSettingsStorage(new DatabaseUserSettings()));
+ * </code>
+ * </pre>
+ */
+public class BatchingUserSettingsStorage implements UserSettingsStorage
+{
+	public static final long DEFAULT_WRITE_DELAY_MILLIS = 2000;
+
+	private static final Logger logger = org.apache.logging.log4j.LogManager.getLogger();
+
+	private static final ScheduledExecutorService writer = Executors
+			.newSingleThreadScheduledExecutor(new ThreadFactory()
+			{
+
+				@Override
+				public Thread newThread(Runnable r)
+				{
+					Thread thread = new Thread(r, "UserSettingsWriter");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+
+	private final UserSettingsStorage storage;
+	private final long writeDelayMillis;
+	private final AtomicBoolean destroyListenerAdded = new AtomicBoolean(false);
+
+	/**
+	 * the settings cached for a session, and those not yet written
+	 */
+	static final class SessionSettings implements Serializable
+	{
+		private static final long serialVersionUID = 1L;
+
+		/**
+		 * a null value is a setting known not to exist
+		 */
+		private final Map<String, String> values = new HashMap<>();
+		private final Set<String> loadedPrefixes = new HashSet<>();
+		private final Map<String, String> pending = new LinkedHashMap<>();
+		private boolean writeScheduled = false;
+		/**
+		 * held while a batch is taken and written, so erase() can wait for it
+		 */
+		private final ReentrantLock writing = new ReentrantLock();
+
+		private boolean isLoaded(String key)
+		{
+			for (String prefix : loadedPrefixes)
+			{
+				if (key.startsWith(prefix))
+				{
+					return true;
+				}
+			}
+			return false;
+		}
+
+		private Map<String, String> withPrefix(String prefix)
+		{
+			final Map<String, String> settings = new HashMap<>();
+			for (Map.Entry<String, String> setting : values.entrySet())
+			{
+				if (setting.getKey().startsWith(prefix) && setting.getValue() != null)
+				{
+					settings.put(setting.getKey(), setting.getValue());
+				}
+			}
+			return settings;
+		}
+	}
+
+	public BatchingUserSettingsStorage(UserSettingsStorage storage)
+	{
+		this(storage, DEFAULT_WRITE_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * @param storage
+	 *            - where the settings are kept
+	 * @param writeDelay
+	 *            - how long after a change the session's changes are written
+	 * @param unit
+	 */
+	public BatchingUserSettingsStorage(UserSettingsStorage storage, long writeDelay, TimeUnit unit)
+	{
+		Preconditions.checkNotNull(storage);
+		Preconditions.checkArgument(writeDelay >= 0, "writeDelay must not be negative");
+		this.storage = storage;
+		this.writeDelayMillis = unit.toMillis(writeDelay);
+	}
+
+	@Override
+	public String get(String key)
+	{
+		final SessionSettings settings = getSessionSettings();
+		if (settings == null)
+		{
+			return storage.get(key);
+		}
+		synchronized (settings)
+		{
+			if (settings.values.containsKey(key))
+			{
+				return settings.values.get(key);
+			}
+			if (settings.isLoaded(key))
+			{
+				return null;
+			}
+		}
+
+		final String value = storage.get(key);
+		synchronized (settings)
+		{
+			if (!settings.values.containsKey(key))
+			{
+				settings.values.put(key, value);
+			}
+			return settings.values.get(key);
+		}
+	}
+
+	@Override
+	public Map<String, String> getAll(String prefix)
+	{
+		final SessionSettings settings = getSessionSettings();
+		if (settings == null || !storage.supportsGetAll())
+		{
+			return storage.getAll(prefix);
+		}
+		synchronized (settings)
+		{
+			if (settings.isLoaded(prefix))
+			{
+				return settings.withPrefix(prefix);
+			}
+		}
+
+		final Map<String, String> loaded = storage.getAll(prefix);
+		synchronized (settings)
+		{
+			// replace what was cached under the prefix, except unwritten
+			// changes
+			final Iterator<String> keys = settings.values.keySet().iterator();
+			while (keys.hasNext())
+			{
+				final String key = keys.next();
+				if (key.startsWith(prefix) && !settings.pending.containsKey(key))
+				{
+					keys.remove();
+				}
+			}
+			for (Map.Entry<String, String> setting : loaded.entrySet())
+			{
+				if (!settings.pending.containsKey(setting.getKey()))
+				{
+					settings.values.put(setting.getKey(), setting.getValue());
+				}
+			}
+			settings.loadedPrefixes.add(prefix);
+			return settings.withPrefix(prefix);
+		}
+	}
+
+	@Override
+	public boolean supportsGetAll()
+	{
+		return storage.supportsGetAll();
+	}
+
+	@Override
+	public void store(String key, String value)
+	{
+		final Map<String, String> setting = new HashMap<>();
+		setting.put(key, value);
+		storeAll(setting);
+	}
+
+	@Override
+	public void storeAll(Map<String, String> values)
+	{
+		final SessionSettings settings = getSessionSettings();
+		if (settings == null)
+		{
+			storage.storeAll(values);
+			return;
+		}
+		synchronized (settings)
+		{
+			settings.values.putAll(values);
+			settings.pending.putAll(values);
+			if (!settings.writeScheduled)
+			{
+				settings.writeScheduled = true;
+				scheduleWrite(VaadinSession.getCurrent(), settings);
+			}
+		}
+	}
+
+	/**
+	 * Unwritten changes to the matching settings are dropped, then the
+	 * storage erases them straight away, after any batch being written.
+	 */
+	@Override
+	public void erase(String partialKey)
+	{
+		final SessionSettings settings = getSessionSettings();
+		if (settings == null)
+		{
+			storage.erase(partialKey);
+			return;
+		}
+		synchronized (settings)
+		{
+			removeMatching(settings.values, partialKey);
+			removeMatching(settings.pending, partialKey);
+		}
+		settings.writing.lock();
+		try
+		{
+			storage.erase(partialKey);
+		}
+		finally
+		{
+			settings.writing.unlock();
+		}
+	}
+
+	private static void removeMatching(Map<String, String> settings, String partialKey)
+	{
+		final Iterator<String> keys = settings.keySet().iterator();
+		while (keys.hasNext())
+		{
+			if (keys.next().contains(partialKey))
+			{
+				keys.remove();
+			}
+		}
+	}
+
+	/**
+	 * writes the current session's changes now, on this thread
+	 */
+	public void flush()
+	{
+		final SessionSettings settings = getSessionSettings();
+		if (settings != null)
+		{
+			write(settings);
+		}
+	}
+
+	void write(SessionSettings settings)
+	{
+		write(settings, storage);
+	}
+
+	private static void write(SessionSettings settings, UserSettingsStorage target)
+	{
+		settings.writing.lock();
+		try
+		{
+			store(target, takePending(settings));
+		}
+		finally
+		{
+			settings.writing.unlock();
+		}
+	}
+
+	/**
+	 * @return the changes not yet written, which are no longer pending
+	 */
+	private static Map<String, String> takePending(SessionSettings settings)
+	{
+		synchronized (settings)
+		{
+			final Map<String, String> batch = new LinkedHashMap<>(settings.pending);
+			settings.pending.clear();
+			settings.writeScheduled = false;
+			return batch;
+		}
+	}
+
+	private static void store(UserSettingsStorage target, Map<String, String> batch)
+	{
+		if (batch.isEmpty())
+		{
+			return;
+		}
+		try
+		{
+			target.storeAll(batch);
+		}
+		catch (RuntimeException e)
+		{
+			logger.error("Failed to store {} user settings", batch.size());
+			logger.error(e, e);
+		}
+	}
+
+	/**
+	 * @return the current session's settings, or null if there isn't a
+	 *         session or this thread doesn't hold its lock
+	 */
+	SessionSettings getSessionSettings()
+	{
+		final VaadinSession session = VaadinSession.getCurrent();
+		if (session == null || !session.hasLock())
+		{
+			return null;
+		}
+		SessionSettings settings = session.getAttribute(SessionSettings.class);
+		if (settings == null)
+		{
+			settings = new SessionSettings();
+			session.setAttribute(SessionSettings.class, settings);
+			addDestroyListener();
+		}
+		return settings;
+	}
+
+	void scheduleWrite(final VaadinSession session, final SessionSettings settings)
+	{
+		try
+		{
+			writer.schedule(new Runnable()
+			{
+
+				@Override
+				public void run()
+				{
+					// runs now, or later on the thread holding the lock
+					session.access(new Runnable()
+					{
+
+						@Override
+						public void run()
+						{
+							storeLater(settings, storage.bindToCurrentSession());
+						}
+					});
+				}
+			}, writeDelayMillis, TimeUnit.MILLISECONDS);
+		}
+		catch (RejectedExecutionException e)
+		{
+			// shut down, the changes stay pending until the session ends
+		}
+	}
+
+	/**
+	 * writes the session's changes on the writer thread, so the session's lock
+	 * isn't held while the storage runs
+	 */
+	private static void storeLater(final SessionSettings settings, final UserSettingsStorage target)
+	{
+		final Runnable write = new EntityManagerRunnable(new Runnable()
+		{
+
+			@Override
+			public void run()
+			{
+				write(settings, target);
+			}
+		});
+		try
+		{
+			writer.execute(write);
+		}
+		catch (RejectedExecutionException e)
+		{
+			// shutting down, write it before the EntityManagerFactory closes
+			if (EntityManagerProvider.getEntityManager() != null)
+			{
+				write(settings, target);
+			}
+			else
+			{
+				write.run();
+			}
+		}
+	}
+
+	/**
+	 * Runs the writes that are due and stops the writer thread, call when the
+	 * application stops and before the EntityManagerFactory is closed.
+	 *
+	 * @return true if the writes finished within the timeout
+	 */
+	public static boolean shutdown(long timeout, TimeUnit unit) throws InterruptedException
+	{
+		writer.shutdown();
+		return writer.awaitTermination(timeout, unit);
+	}
+
+	/**
+	 * writes a session's changes when it ends
+	 */
+	private void addDestroyListener()
+	{
+		final VaadinService service = VaadinService.getCurrent();
+		if (service == null || !destroyListenerAdded.compareAndSet(false, true))
+		{
+			return;
+		}
+		service.addSessionDestroyListener(new SessionDestroyListener()
+		{
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			public void sessionDestroy(SessionDestroyEvent event)
+			{
+				final SessionSettings settings = event.getSession().getAttribute(SessionSettings.class);
+				if (settings == null)
+				{
+					return;
+				}
+				if (EntityManagerProvider.getEntityManager() != null)
+				{
+					write(settings);
+					return;
+				}
+				new EntityManagerRunnable(new Runnable()
+				{
+
+					@Override
+					public void run()
+					{
+						write(settings);
+					}
+				}).run();
+			}
+		});
+	}
+}
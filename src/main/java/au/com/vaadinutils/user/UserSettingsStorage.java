@@ -1,5 +1,8 @@
 package au.com.vaadinutils.user;
 
+import java.util.Collections;
+import java.util.Map;
+
 public interface UserSettingsStorage
 {
 
@@ -9,4 +12,48 @@ public interface UserSettingsStorage
 
 	void erase(String partialKey);
 
+	/**
+	 * Reads every setting whose key starts with the prefix in one call, e.g.
+	 * all of the settings for a grid. Optional, see supportsGetAll(), the
+	 * default implementation returns an empty map.
+	 *
+	 * @return the settings by key
+	 */
+	default Map<String, String> getAll(String prefix)
+	{
+		return Collections.emptyMap();
+	}
+
+	/**
+	 * @return true if getAll() returns the stored settings, rather than the
+	 *         default empty map
+	 */
+	default boolean supportsGetAll()
+	{
+		return false;
+	}
+
+	/**
+	 * Called while holding the VaadinSession's lock, returns a storage whose
+	 * storeAll() can be called later on another thread without it, e.g. with
+	 * the current user already looked up. BatchingUserSettingsStorage writes
+	 * through it. The default returns this, so storeAll() must not use the
+	 * VaadinSession.
+	 */
+	default UserSettingsStorage bindToCurrentSession()
+	{
+		return this;
+	}
+
+	/**
+	 * Stores several settings at once, by default one at a time with store()
+	 */
+	default void storeAll(Map<String, String> settings)
+	{
+		for (Map.Entry<String, String> setting : settings.entrySet())
+		{
+			store(setting.getKey(), setting.getValue());
+		}
+	}
+
 }
@@ -15,4 +15,18 @@ public class UserSettingsStorageFactory
 	{
 		storage = storageEngine;
 	}
+
+	/**
+	 * Reads all of the settings with the prefix in one call, so that the gets
+	 * that follow are answered from a BatchingUserSettingsStorage's cache
+	 * rather than each going to the storage. Does nothing if the storage
+	 * doesn't support getAll.
+	 */
+	static public void preload(String prefix)
+	{
+		if (storage.supportsGetAll())
+		{
+			storage.getAll(prefix);
+		}
+	}
 }
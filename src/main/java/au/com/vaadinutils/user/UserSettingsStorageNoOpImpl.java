@@ -1,5 +1,6 @@
 package au.com.vaadinutils.user;
 
+import java.util.HashMap;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 
@@ -19,6 +20,26 @@ public class UserSettingsStorageNoOpImpl implements UserSettingsStorage
 		return map.get(key);
 	}
 
+	@Override
+	public Map<String, String> getAll(String prefix)
+	{
+		Map<String, String> settings = new HashMap<>();
+		for (Map.Entry<String, String> setting : map.entrySet())
+		{
+			if (setting.getKey().startsWith(prefix))
+			{
+				settings.put(setting.getKey(), setting.getValue());
+			}
+		}
+		return settings;
+	}
+
+	@Override
+	public boolean supportsGetAll()
+	{
+		return true;
+	}
+
 	@Override
 	public void erase(String partialKey)
 	{
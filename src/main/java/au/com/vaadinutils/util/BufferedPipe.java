@@ -0,0 +1,280 @@
+package au.com.vaadinutils.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Passes bytes from a producer thread writing to this OutputStream to a
+ * consumer thread reading from getInputStream(), through a ring buffer.
+ *
+ * The producer blocks while the buffer is full and the consumer while it is
+ * empty, each is woken as soon as the other has made room or written data. If
+ * either side waits longer than the timeout (10 minutes by default) it gets an
+ * IOException rather than hanging.
+ *
+ * The producer should call close() when it is done, or fail() if it can't
+ * finish, in which case the consumer gets an IOException once it has read the
+ * bytes written before the failure. If the consumer closes its stream, the
+ * producer's next write throws an IOException.
+ *
+ * Replaces PipedOutputStreamWrapper, which wrote a byte at a time through the
+ * JDK's 1 KB pipe.
+ */
+public class BufferedPipe extends OutputStream
+{
+	public static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+
+	private final byte[] buffer;
+	private final long timeoutNanos;
+
+	private final ReentrantLock lock = new ReentrantLock();
+	private final Condition notEmpty = lock.newCondition();
+	private final Condition notFull = lock.newCondition();
+
+	/**
+	 * guarded by lock
+	 */
+	private int readPosition = 0;
+	private int count = 0;
+	private boolean writerClosed = false;
+	private boolean readerClosed = false;
+	private Throwable failure;
+
+	private final InputStream inputStream = new PipeInputStream();
+
+	public BufferedPipe()
+	{
+		this(DEFAULT_BUFFER_SIZE, 10, TimeUnit.MINUTES);
+	}
+
+	/**
+	 * @param bufferSize
+	 *            - the most bytes the producer can write ahead of the
+	 *            consumer
+	 * @param timeout
+	 *            - how long either side waits for the other before giving up
+	 * @param unit
+	 */
+	public BufferedPipe(int bufferSize, long timeout, TimeUnit unit)
+	{
+		Preconditions.checkArgument(bufferSize > 0, "bufferSize must be greater than 0");
+		Preconditions.checkArgument(timeout > 0, "timeout must be greater than 0");
+		buffer = new byte[bufferSize];
+		timeoutNanos = unit.toNanos(timeout);
+	}
+
+	/**
+	 * the stream to read what is written to this pipe from, on a different
+	 * thread to the one writing
+	 */
+	public InputStream getInputStream()
+	{
+		return inputStream;
+	}
+
+	@Override
+	public void write(int b) throws IOException
+	{
+		write(new byte[] { (byte) b }, 0, 1);
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException
+	{
+		Preconditions.checkPositionIndexes(off, off + len, b.length);
+		lock.lock();
+		try
+		{
+			while (len > 0)
+			{
+				long remaining = timeoutNanos;
+				while (count == buffer.length && !readerClosed)
+				{
+					if (remaining <= 0)
+					{
+						throw new IOException("Timed out waiting for the reader");
+					}
+					remaining = notFull.awaitNanos(remaining);
+				}
+				checkWritable();
+
+				// copy up to the end of the buffer, then wrap around
+				final int writePosition = (readPosition + count) % buffer.length;
+				final int chunk = Math.min(len, Math.min(buffer.length - count, buffer.length - writePosition));
+				System.arraycopy(b, off, buffer, writePosition, chunk);
+				count += chunk;
+				off += chunk;
+				len -= chunk;
+				notEmpty.signal();
+			}
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted waiting for the reader");
+		}
+		finally
+		{
+			lock.unlock();
+		}
+	}
+
+	private void checkWritable() throws IOException
+	{
+		if (writerClosed)
+		{
+			throw new IOException("Pipe closed");
+		}
+		if (readerClosed)
+		{
+			throw new IOException("Pipe closed by the reader");
+		}
+	}
+
+	/**
+	 * the reader gets the bytes written so far then end of stream
+	 */
+	@Override
+	public void close()
+	{
+		lock.lock();
+		try
+		{
+			writerClosed = true;
+			notEmpty.signal();
+		}
+		finally
+		{
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Closes the pipe because the producer failed, the reader gets an
+	 * IOException caused by the failure after the bytes written so far.
+	 */
+	public void fail(Throwable cause)
+	{
+		Preconditions.checkNotNull(cause);
+		lock.lock();
+		try
+		{
+			if (failure == null)
+			{
+				failure = cause;
+			}
+			writerClosed = true;
+			notEmpty.signal();
+		}
+		finally
+		{
+			lock.unlock();
+		}
+	}
+
+	private class PipeInputStream extends InputStream
+	{
+		@Override
+		public int read() throws IOException
+		{
+			final byte[] b = new byte[1];
+			return read(b, 0, 1) == -1 ? -1 : b[0] & 0xff;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException
+		{
+			Preconditions.checkPositionIndexes(off, off + len, b.length);
+			if (len == 0)
+			{
+				return 0;
+			}
+			lock.lock();
+			try
+			{
+				long remaining = timeoutNanos;
+				while (count == 0 && !writerClosed && !readerClosed)
+				{
+					if (remaining <= 0)
+					{
+						throw new IOException("Timed out waiting for the writer");
+					}
+					remaining = notEmpty.awaitNanos(remaining);
+				}
+				if (readerClosed)
+				{
+					throw new IOException("Stream closed");
+				}
+				if (count == 0)
+				{
+					if (failure != null)
+					{
+						throw new IOException("The writer failed", failure);
+					}
+					return -1;
+				}
+
+				// up to the end of the buffer, then from the start if it wrapped
+				int total = 0;
+				while (total < len && count > 0)
+				{
+					final int chunk = Math.min(len - total, Math.min(count, buffer.length - readPosition));
+					System.arraycopy(buffer, readPosition, b, off + total, chunk);
+					readPosition = (readPosition + chunk) % buffer.length;
+					count -= chunk;
+					total += chunk;
+				}
+				notFull.signal();
+				return total;
+			}
+			catch (InterruptedException e)
+			{
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("Interrupted waiting for the writer");
+			}
+			finally
+			{
+				lock.unlock();
+			}
+		}
+
+		@Override
+		public int available()
+		{
+			lock.lock();
+			try
+			{
+				return count;
+			}
+			finally
+			{
+				lock.unlock();
+			}
+		}
+
+		/**
+		 * the writer's next write fails
+		 */
+		@Override
+		public void close()
+		{
+			lock.lock();
+			try
+			{
+				readerClosed = true;
+				notFull.signal();
+			}
+			finally
+			{
+				lock.unlock();
+			}
+		}
+	}
+}
@@ -19,7 +19,9 @@ import com.google.common.base.Preconditions;
  * 
  * @author rsutton
  *
+ * @deprecated writes a byte at a time through the JDK pipe, use BufferedPipe
  */
+@Deprecated
 public class PipedOutputStreamWrapper extends OutputStream
 {
 
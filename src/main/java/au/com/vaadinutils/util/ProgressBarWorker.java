@@ -1,6 +1,17 @@
 package au.com.vaadinutils.util;
 
+import java.util.concurrent.Future;
 
+import au.com.vaadinutils.dao.EntityManagerProvider;
+
+/**
+ * Runs a ProgressBarTask in the background.
+ *
+ * Prefer submit(), which runs the task on the EntityManagerProvider's shared
+ * worker pool, to start() which creates a new thread for each task.
+ *
+ * @param <T>
+ */
 public class ProgressBarWorker<T> extends Thread
 {
 	private ProgressBarTask<T> task;
@@ -16,4 +27,22 @@ public class ProgressBarWorker<T> extends Thread
 	{
 		task.run();
 	}
-}
\ No newline at end of file
+
+	/**
+	 * Runs the task on the shared worker pool.
+	 *
+	 * @return a Future that completes when the task has run
+	 */
+	public Future<?> submit()
+	{
+		return EntityManagerProvider.submit(new Runnable()
+		{
+
+			@Override
+			public void run()
+			{
+				task.run();
+			}
+		});
+	}
+}
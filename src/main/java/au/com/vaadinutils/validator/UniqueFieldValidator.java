@@ -1,18 +1,26 @@
 package au.com.vaadinutils.validator;
 
+import java.util.Arrays;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 import javax.persistence.metamodel.SingularAttribute;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
+import com.google.common.base.Objects;
+import com.google.common.base.Preconditions;
 import com.vaadin.data.Validator;
 
 import au.com.vaadinutils.crud.BaseCrudView;
 import au.com.vaadinutils.crud.ChildCrudEntity;
 import au.com.vaadinutils.crud.CrudEntity;
 import au.com.vaadinutils.dao.JpaBaseDao;
+import au.com.vaadinutils.dao.JpaDslBuilder;
+import au.com.vaadinutils.dao.JpaDslTupleBuilder;
 
 public class UniqueFieldValidator<E extends CrudEntity, F> implements Validator
 {
@@ -26,6 +34,27 @@ public class UniqueFieldValidator<E extends CrudEntity, F> implements Validator
 	final private BaseCrudView<E> crud;
 	transient Logger logger = LogManager.getLogger(UniqueFieldValidator.class);
 	private String warningMessage;
+	private long cacheTtlNanos = 0;
+
+	/**
+	 * recently validated values, keyed by the value and the id of the current
+	 * entity
+	 */
+	private transient Map<List<Object>, CachedResult> cache;
+
+	private static final int CACHE_SIZE = 16;
+
+	private static class CachedResult
+	{
+		final boolean unique;
+		final long expires;
+
+		CachedResult(boolean unique, long expires)
+		{
+			this.unique = unique;
+			this.expires = expires;
+		}
+	}
 
 	/**
 	 * for reliable behaviour around new records, the entity should implment
@@ -57,6 +86,24 @@ public class UniqueFieldValidator<E extends CrudEntity, F> implements Validator
 
 	}
 
+	/**
+	 * Remember the result of validating a value for a short time, so
+	 * validating an unchanged field doesn't query the database again. A value
+	 * saved by another user in that time won't be detected until the result
+	 * expires. Disabled by default.
+	 *
+	 * @param ttl
+	 *            - 0 to disable
+	 * @param unit
+	 */
+	public UniqueFieldValidator<E, F> setCacheTtl(long ttl, TimeUnit unit)
+	{
+		Preconditions.checkArgument(ttl >= 0, "ttl must not be negative");
+		cacheTtlNanos = unit.toNanos(ttl);
+		cache = null;
+		return this;
+	}
+
 	@Override
 	public void validate(Object value) throws InvalidValueException
 	{
@@ -64,29 +111,104 @@ public class UniqueFieldValidator<E extends CrudEntity, F> implements Validator
 		{
 			if (value != null && !("".equals(value.toString())))
 			{
-
-				JpaBaseDao<E, Long> dao = new JpaBaseDao<>(table);
-				@SuppressWarnings("unchecked")
-				List<E> matches = dao.findAllByAttribute(matchField, (F) value, null);
-				for (E message : matches)
+				if (!isUnique(value, crud.getCurrent()))
 				{
-					Object id = message.getId();
-					Object currentId = crud.getCurrent().getId();
-					if (message instanceof ChildCrudEntity && ((ChildCrudEntity) message).getGuid() != null)
-					{
-						id = ((ChildCrudEntity) message).getGuid();
-						currentId = ((ChildCrudEntity) crud.getCurrent()).getGuid();
-					}
-
-					if (id != null && !id.equals(currentId))
-					{
-						logger.error(warningMessage);
-						throw new InvalidValueException(warningMessage);
-					}
+					logger.error(warningMessage);
+					throw new InvalidValueException(warningMessage);
 				}
 			}
 		}
 
 	}
 
+	private boolean isUnique(Object value, E current)
+	{
+		if (cacheTtlNanos == 0)
+		{
+			return queryIsUnique(value, current);
+		}
+
+		final Object currentGuid = current instanceof ChildCrudEntity ? ((ChildCrudEntity) current).getGuid() : null;
+		final List<Object> key = Arrays.asList(value, current.getId(), currentGuid);
+		final long now = System.nanoTime();
+		if (cache == null)
+		{
+			cache = new LinkedHashMap<List<Object>, CachedResult>(CACHE_SIZE, 0.75f, true)
+			{
+				private static final long serialVersionUID = 1L;
+
+				@Override
+				protected boolean removeEldestEntry(Map.Entry<List<Object>, CachedResult> eldest)
+				{
+					return size() > CACHE_SIZE;
+				}
+			};
+		}
+		final CachedResult cached = cache.get(key);
+		if (cached != null && cached.expires - now > 0)
+		{
+			return cached.unique;
+		}
+		final boolean unique = queryIsUnique(value, current);
+		cache.put(key, new CachedResult(unique, now + cacheTtlNanos));
+		return unique;
+	}
+
+	/**
+	 * Selects the id of at most one matching row other than the current
+	 * entity rather than loading every matching entity. Child entities are
+	 * matched on their guid, which can only be read through getGuid() as its
+	 * attribute name varies, so at most two of them are loaded.
+	 */
+	@SuppressWarnings("unchecked")
+	private boolean queryIsUnique(Object value, E current)
+	{
+		if (ChildCrudEntity.class.isAssignableFrom(table))
+		{
+			return childIsUnique((F) value, current);
+		}
+
+		final SingularAttribute<E, Long> idField = JpaBaseDao.getIdField(table);
+		final JpaDslTupleBuilder<E> q = new JpaDslTupleBuilder<>(table);
+		q.multiselect(idField);
+		final Long currentId = current.getId();
+		if (currentId != null)
+		{
+			q.where(q.and(q.eq(matchField, (F) value), q.notEqual(idField, currentId)));
+		}
+		else
+		{
+			q.where(q.eq(matchField, (F) value));
+		}
+		q.limit(1);
+		return q.getResultList().isEmpty();
+	}
+
+	/**
+	 * the current entity can only be one of the matches, so two are enough
+	 */
+	private boolean childIsUnique(F value, E current)
+	{
+		final JpaDslBuilder<E> q = new JpaDslBuilder<>(table);
+		q.where(q.eq(matchField, value));
+		q.limit(2);
+
+		for (E match : q.getResultList())
+		{
+			Object id = match.getId();
+			Object currentId = current.getId();
+			if (((ChildCrudEntity) match).getGuid() != null)
+			{
+				id = ((ChildCrudEntity) match).getGuid();
+				currentId = ((ChildCrudEntity) current).getGuid();
+			}
+
+			if (id != null && !Objects.equal(id, currentId))
+			{
+				return false;
+			}
+		}
+		return true;
+	}
+
 }
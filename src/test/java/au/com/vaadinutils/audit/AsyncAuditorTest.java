@@ -0,0 +1,213 @@
+package au.com.vaadinutils.audit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import au.com.vaadinutils.crud.CrudEntity;
+import au.com.vaadinutils.crud.events.CrudEventType;
+
+public class AsyncAuditorTest
+{
+	static class Entity implements CrudEntity
+	{
+		private static final long serialVersionUID = 1L;
+		private Long id;
+
+		Entity(long id)
+		{
+			this.id = id;
+		}
+
+		@Override
+		public Long getId()
+		{
+			return id;
+		}
+
+		@Override
+		public void setId(Long id)
+		{
+			this.id = id;
+		}
+
+		@Override
+		public String getName()
+		{
+			return "entity " + id;
+		}
+	}
+
+	static class CollectingWriter implements AuditWriter
+	{
+		final List<Integer> batchSizes = new ArrayList<>();
+		final List<AuditRecord> records = new ArrayList<>();
+		final CountDownLatch release;
+
+		CollectingWriter(CountDownLatch release)
+		{
+			this.release = release;
+		}
+
+		@Override
+		public void write(List<AuditRecord> batch) throws Exception
+		{
+			release.await();
+			synchronized (this)
+			{
+				batchSizes.add(batch.size());
+				records.addAll(batch);
+			}
+		}
+
+		@Override
+		public void close()
+		{
+		}
+	}
+
+	@Test
+	public void testBatching() throws InterruptedException
+	{
+		CollectingWriter writer = new CollectingWriter(new CountDownLatch(0));
+		AsyncAuditor auditor = new AsyncAuditor(writer).setBatchSize(10).setFlushInterval(200,
+				TimeUnit.MILLISECONDS);
+		for (int i = 0; i < 25; i++)
+		{
+			auditor.audit(CrudEventType.CREATE, new Entity(i));
+		}
+		assertTrue(auditor.shutdown(5, TimeUnit.SECONDS));
+
+		assertEquals(25, auditor.getWrittenCount());
+		assertEquals(0, auditor.getDroppedCount());
+		assertEquals(Long.valueOf(0), writer.records.get(0).getEntityId());
+		assertEquals(Long.valueOf(24), writer.records.get(24).getEntityId());
+		for (int size : writer.batchSizes)
+		{
+			assertTrue(size <= 10);
+		}
+	}
+
+	@Test
+	public void testDropNewest() throws InterruptedException
+	{
+		CountDownLatch release = new CountDownLatch(1);
+		CollectingWriter writer = new CollectingWriter(release);
+		AsyncAuditor auditor = new AsyncAuditor(writer, 5).setBatchSize(1)
+				.setFlushInterval(10, TimeUnit.MILLISECONDS)
+				.setBackPressurePolicy(AsyncAuditor.BackPressurePolicy.DROP_NEWEST);
+
+		// the first record is taken by the writer, which then blocks
+		auditor.audit(CrudEventType.CREATE, new Entity(0));
+		Thread.sleep(100);
+		for (int i = 1; i <= 10; i++)
+		{
+			auditor.audit(CrudEventType.EDIT, new Entity(i));
+		}
+		assertEquals(5, auditor.getQueueDepth());
+		assertEquals(5, auditor.getDroppedCount());
+
+		release.countDown();
+		assertTrue(auditor.shutdown(5, TimeUnit.SECONDS));
+		assertEquals(6, auditor.getWrittenCount());
+		assertEquals(Long.valueOf(5), writer.records.get(5).getEntityId());
+	}
+
+	@Test
+	public void testDropOldest() throws InterruptedException
+	{
+		CountDownLatch release = new CountDownLatch(1);
+		CollectingWriter writer = new CollectingWriter(release);
+		AsyncAuditor auditor = new AsyncAuditor(writer, 5).setBatchSize(1)
+				.setFlushInterval(10, TimeUnit.MILLISECONDS)
+				.setBackPressurePolicy(AsyncAuditor.BackPressurePolicy.DROP_OLDEST);
+
+		auditor.audit(CrudEventType.CREATE, new Entity(0));
+		Thread.sleep(100);
+		for (int i = 1; i <= 10; i++)
+		{
+			auditor.audit(CrudEventType.EDIT, new Entity(i));
+		}
+		assertEquals(5, auditor.getDroppedCount());
+
+		release.countDown();
+		assertTrue(auditor.shutdown(5, TimeUnit.SECONDS));
+		assertEquals(Long.valueOf(6), writer.records.get(1).getEntityId());
+		assertEquals(Long.valueOf(10), writer.records.get(5).getEntityId());
+	}
+
+	@Test
+	public void testBlocksByDefault() throws InterruptedException
+	{
+		CountDownLatch release = new CountDownLatch(1);
+		CollectingWriter writer = new CollectingWriter(release);
+		final AsyncAuditor auditor = new AsyncAuditor(writer, 2).setBatchSize(1).setFlushInterval(10,
+				TimeUnit.MILLISECONDS);
+
+		auditor.audit(CrudEventType.CREATE, new Entity(0));
+		Thread.sleep(100);
+		auditor.audit(CrudEventType.EDIT, new Entity(1));
+		auditor.audit(CrudEventType.EDIT, new Entity(2));
+
+		final CountDownLatch audited = new CountDownLatch(1);
+		new Thread(new Runnable()
+		{
+
+			@Override
+			public void run()
+			{
+				auditor.audit(CrudEventType.EDIT, new Entity(3));
+				audited.countDown();
+			}
+		}).start();
+		assertFalse(audited.await(100, TimeUnit.MILLISECONDS));
+
+		release.countDown();
+		assertTrue(audited.await(5, TimeUnit.SECONDS));
+		assertTrue(auditor.shutdown(5, TimeUnit.SECONDS));
+		assertEquals(4, auditor.getWrittenCount());
+		assertEquals(0, auditor.getDroppedCount());
+	}
+
+	@Test
+	public void testShutdownWhileAuditing() throws InterruptedException
+	{
+		CollectingWriter writer = new CollectingWriter(new CountDownLatch(0));
+		final AsyncAuditor auditor = new AsyncAuditor(writer, 50).setBatchSize(10).setFlushInterval(10,
+				TimeUnit.MILLISECONDS);
+
+		final int threads = 4;
+		final int perThread = 2000;
+		final CountDownLatch done = new CountDownLatch(threads);
+		for (int t = 0; t < threads; t++)
+		{
+			new Thread(new Runnable()
+			{
+
+				@Override
+				public void run()
+				{
+					for (int i = 0; i < perThread; i++)
+					{
+						auditor.audit(CrudEventType.EDIT, new Entity(i));
+					}
+					done.countDown();
+				}
+			}).start();
+		}
+		Thread.sleep(20);
+		assertTrue(auditor.shutdown(5, TimeUnit.SECONDS));
+		assertTrue(done.await(5, TimeUnit.SECONDS));
+
+		// every event was either written or counted as dropped
+		assertEquals(threads * perThread, auditor.getWrittenCount() + auditor.getDroppedCount());
+		assertEquals(auditor.getWrittenCount(), writer.records.size());
+	}
+}
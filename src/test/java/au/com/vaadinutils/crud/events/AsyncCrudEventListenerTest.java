@@ -0,0 +1,296 @@
+package au.com.vaadinutils.crud.events;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.junit.Test;
+
+import com.vaadin.server.ErrorHandlingRunnable;
+import com.vaadin.server.VaadinRequest;
+import com.vaadin.server.VaadinSession;
+import com.vaadin.ui.UI;
+
+import au.com.vaadinutils.crud.CrudEntity;
+
+public class AsyncCrudEventListenerTest
+{
+	static class Contact implements CrudEntity
+	{
+		private static final long serialVersionUID = 1L;
+		private Long id;
+
+		Contact(long id)
+		{
+			this.id = id;
+		}
+
+		@Override
+		public Long getId()
+		{
+			return id;
+		}
+
+		@Override
+		public void setId(Long id)
+		{
+			this.id = id;
+		}
+
+		@Override
+		public String getName()
+		{
+			return "contact " + id;
+		}
+	}
+
+	static class Invoice extends Contact
+	{
+		private static final long serialVersionUID = 1L;
+
+		Invoice(long id)
+		{
+			super(id);
+		}
+	}
+
+	static class Recorder implements CrudEventListener
+	{
+		final List<String> events = new ArrayList<>();
+
+		@Override
+		public void crudEvent(CrudEventType event, CrudEntity entity)
+		{
+			events.add(event + " " + entity.getName());
+		}
+	}
+
+	/**
+	 * holds the drain until the test runs it
+	 */
+	static class ManualListener extends AsyncCrudEventListener
+	{
+		final List<Runnable> drains = new ArrayList<>();
+		boolean reject = false;
+
+		ManualListener(CrudEventListener listener)
+		{
+			super(listener);
+		}
+
+		@Override
+		void submitDrain(Runnable drain)
+		{
+			if (reject)
+			{
+				throw new RejectedExecutionException();
+			}
+			drains.add(drain);
+		}
+
+		@Override
+		void runWithEntityManager(Runnable runnable)
+		{
+			runnable.run();
+		}
+
+		void runDrains()
+		{
+			final List<Runnable> pending = new ArrayList<>(drains);
+			drains.clear();
+			for (Runnable drain : pending)
+			{
+				drain.run();
+			}
+		}
+	}
+
+	@Test
+	public void testDeliversInOrder()
+	{
+		final Recorder recorder = new Recorder();
+		final ManualListener async = new ManualListener(recorder);
+		async.crudEvent(CrudEventType.CREATE, new Contact(1));
+		async.crudEvent(CrudEventType.EDIT, new Contact(1));
+		async.crudEvent(CrudEventType.DELETE, new Contact(1));
+
+		// one drain delivers everything queued
+		assertEquals(1, async.drains.size());
+		assertEquals(3, async.getQueueDepth());
+		async.runDrains();
+		assertEquals("[CREATE contact 1, EDIT contact 1, DELETE contact 1]", recorder.events.toString());
+		assertEquals(0, async.getQueueDepth());
+
+		async.crudEvent(CrudEventType.EDIT, new Contact(2));
+		assertEquals(1, async.drains.size());
+	}
+
+	@Test
+	public void testCoalescedEventMovesToTheBack()
+	{
+		final Recorder recorder = new Recorder();
+		final ManualListener async = new ManualListener(recorder);
+		async.setCoalesce(true);
+		async.crudEvent(CrudEventType.EDIT, new Contact(1));
+		async.crudEvent(CrudEventType.DELETE, new Contact(2));
+		async.crudEvent(CrudEventType.EDIT, new Contact(3));
+		async.crudEvent(CrudEventType.EDIT, new Invoice(4));
+
+		async.runDrains();
+		assertEquals("[DELETE contact 2, EDIT contact 3, EDIT contact 4]", recorder.events.toString());
+		assertEquals(1, async.getCoalescedCount());
+	}
+
+	@Test
+	public void testQueueLimit()
+	{
+		final Recorder recorder = new Recorder();
+		final ManualListener async = new ManualListener(recorder);
+		async.setQueueLimit(2);
+		for (int i = 0; i < 5; i++)
+		{
+			async.crudEvent(CrudEventType.CREATE, new Contact(i));
+		}
+		assertEquals(2, async.getQueueDepth());
+		assertEquals(3, async.getDroppedCount());
+		async.runDrains();
+		assertEquals("[CREATE contact 0, CREATE contact 1]", recorder.events.toString());
+	}
+
+	@Test
+	public void testRejectedDrainIsRetried()
+	{
+		final Recorder recorder = new Recorder();
+		final ManualListener async = new ManualListener(recorder);
+		async.reject = true;
+		async.crudEvent(CrudEventType.CREATE, new Contact(1));
+		assertEquals(1, async.getQueueDepth());
+
+		async.reject = false;
+		async.crudEvent(CrudEventType.CREATE, new Contact(2));
+		async.runDrains();
+		assertEquals("[CREATE contact 1, CREATE contact 2]", recorder.events.toString());
+	}
+
+	@Test
+	public void testRejectedDrainThenFullQueue()
+	{
+		final Recorder recorder = new Recorder();
+		final ManualListener async = new ManualListener(recorder);
+		async.setQueueLimit(1);
+		async.reject = true;
+		async.crudEvent(CrudEventType.CREATE, new Contact(1));
+
+		// dropped, but still starts the drain the rejection left undone
+		async.reject = false;
+		async.crudEvent(CrudEventType.CREATE, new Contact(2));
+		assertEquals(1, async.getDroppedCount());
+		assertEquals(1, async.drains.size());
+		async.runDrains();
+		assertEquals("[CREATE contact 1]", recorder.events.toString());
+	}
+
+	@Test
+	public void testRejectedDrainThenCoalesced()
+	{
+		final Recorder recorder = new Recorder();
+		final ManualListener async = new ManualListener(recorder);
+		async.setCoalesce(true);
+		async.reject = true;
+		async.crudEvent(CrudEventType.EDIT, new Contact(1));
+
+		async.reject = false;
+		async.crudEvent(CrudEventType.EDIT, new Contact(2));
+		assertEquals(1, async.drains.size());
+		async.runDrains();
+		assertEquals("[EDIT contact 2]", recorder.events.toString());
+	}
+
+	@Test
+	public void testDeliversThroughUIAccess()
+	{
+		final Recorder recorder = new Recorder();
+		final List<Runnable> accessed = new ArrayList<>();
+		final ManualListener async = new ManualListener(recorder);
+		async.setUI(new TestUI(accessed));
+		async.setCoalesce(true);
+		async.setQueueLimit(2);
+		async.crudEvent(CrudEventType.EDIT, new Contact(1));
+		async.crudEvent(CrudEventType.DELETE, new Contact(2));
+
+		// the drain doesn't wait for the session, it hands it one event
+		async.runDrains();
+		assertTrue(recorder.events.isEmpty());
+		assertEquals(1, accessed.size());
+		assertEquals(1, async.getQueueDepth());
+
+		// still queued, so bounded and coalesced until the session runs
+		async.crudEvent(CrudEventType.DELETE, new Contact(3));
+		async.crudEvent(CrudEventType.CREATE, new Contact(4));
+		async.crudEvent(CrudEventType.CREATE, new Invoice(5));
+		assertEquals(2, async.getQueueDepth());
+		assertEquals(1, async.getCoalescedCount());
+		assertEquals(1, async.getDroppedCount());
+
+		while (!accessed.isEmpty())
+		{
+			accessed.remove(0).run();
+			async.runDrains();
+		}
+		assertEquals("[EDIT contact 1, DELETE contact 3, CREATE contact 4]", recorder.events.toString());
+		assertTrue(async.drains.isEmpty());
+	}
+
+	@Test
+	public void testDetachedUIContinuesDrain()
+	{
+		final Recorder recorder = new Recorder();
+		final List<Runnable> accessed = new ArrayList<>();
+		final ManualListener async = new ManualListener(recorder);
+		async.setUI(new TestUI(accessed));
+		async.crudEvent(CrudEventType.EDIT, new Contact(1));
+		async.crudEvent(CrudEventType.EDIT, new Contact(2));
+		async.runDrains();
+
+		((ErrorHandlingRunnable) accessed.remove(0)).handleError(new RuntimeException("detached"));
+		async.runDrains();
+		assertEquals(1, accessed.size());
+		assertEquals(0, async.getQueueDepth());
+	}
+
+	/**
+	 * holds the access() tasks until the test runs them
+	 */
+	static class TestUI extends UI
+	{
+		private static final long serialVersionUID = 1L;
+		private final List<Runnable> accessed;
+
+		TestUI(List<Runnable> accessed)
+		{
+			this.accessed = accessed;
+		}
+
+		@Override
+		protected void init(VaadinRequest request)
+		{
+		}
+
+		@Override
+		public VaadinSession getSession()
+		{
+			return new VaadinSession(null);
+		}
+
+		@Override
+		public Future<Void> access(Runnable runnable)
+		{
+			accessed.add(runnable);
+			return null;
+		}
+	}
+}
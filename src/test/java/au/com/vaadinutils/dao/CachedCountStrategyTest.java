@@ -0,0 +1,70 @@
+package au.com.vaadinutils.dao;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.vaadin.data.Container.Filter;
+
+public class CachedCountStrategyTest
+{
+	private static class CountingStrategy implements CountStrategy
+	{
+		int counts = 0;
+		int changes = 0;
+
+		@Override
+		public RowCount count(Class<?> entityClass, Filter filter, ExactCounter exact)
+		{
+			counts++;
+			return exact.count() > 100 ? new RowCount(100, RowCount.Kind.AT_LEAST) : RowCount.exact(exact.count());
+		}
+
+		@Override
+		public void entitiesChanged(Class<?> entityClass)
+		{
+			changes++;
+		}
+	}
+
+	private static final CountStrategy.ExactCounter MANY = new CountStrategy.ExactCounter()
+	{
+		@Override
+		public int count()
+		{
+			return 12345;
+		}
+	};
+
+	@Test
+	public void testCachesPerClass()
+	{
+		final CountingStrategy delegate = new CountingStrategy();
+		final CachedCountStrategy cached = new CachedCountStrategy(delegate, 1, TimeUnit.HOURS);
+
+		assertEquals("100+", cached.count(String.class, null, MANY).format());
+		cached.count(String.class, null, MANY);
+		assertEquals(1, delegate.counts);
+
+		cached.count(Integer.class, null, MANY);
+		assertEquals(2, delegate.counts);
+
+		cached.entitiesChanged(String.class);
+		assertEquals(1, delegate.changes);
+		cached.count(String.class, null, MANY);
+		cached.count(Integer.class, null, MANY);
+		assertEquals(3, delegate.counts);
+	}
+
+	@Test
+	public void testFormat()
+	{
+		assertEquals("1,234", RowCount.exact(1234).format());
+		assertEquals("10,000+", new RowCount(10000, RowCount.Kind.AT_LEAST).format());
+		assertEquals("~2,000,000", new RowCount(2000000, RowCount.Kind.ESTIMATE).format());
+		assertEquals("1.234", RowCount.exact(1234).format(Locale.GERMANY));
+	}
+}
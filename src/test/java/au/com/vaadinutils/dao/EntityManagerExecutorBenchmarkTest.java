@@ -0,0 +1,101 @@
+package au.com.vaadinutils.dao;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.logging.log4j.Logger;
+import org.junit.Assume;
+import org.junit.Test;
+
+import com.google.common.base.Stopwatch;
+
+/**
+ * Compares the platform thread pool with virtual threads on the same workload
+ * of tasks that block (as a JDBC call would) for a fixed time.
+ *
+ * Not part of the normal build, run with mvn test -Pbenchmarks.
+ */
+public class EntityManagerExecutorBenchmarkTest
+{
+	private static final Logger logger = org.apache.logging.log4j.LogManager.getLogger();
+
+	private static final int TASKS = 400;
+	private static final int BLOCK_MILLIS = 50;
+	private static final int POOL_SIZE = EntityManagerExecutor.DEFAULT_POOL_SIZE;
+
+	@Test
+	public void platformThreads() throws Exception
+	{
+		EntityManagerExecutor executor = new EntityManagerExecutor("benchmark", POOL_SIZE, TASKS,
+				EntityManagerExecutor.DEFAULT_REJECTION_POLICY);
+		run("platform threads, pool of " + POOL_SIZE, executor);
+	}
+
+	@Test
+	public void virtualThreadsSameConcurrency() throws Exception
+	{
+		Assume.assumeTrue(EntityManagerExecutor.isVirtualThreadsSupported());
+		run("virtual threads, " + POOL_SIZE + " at once", EntityManagerExecutor.virtualThreads("benchmark", POOL_SIZE));
+	}
+
+	@Test
+	public void virtualThreadsAllAtOnce() throws Exception
+	{
+		Assume.assumeTrue(EntityManagerExecutor.isVirtualThreadsSupported());
+		run("virtual threads, " + TASKS + " at once", EntityManagerExecutor.virtualThreads("benchmark", TASKS));
+	}
+
+	private void run(String mode, EntityManagerExecutor executor) throws Exception
+	{
+		final AtomicInteger completed = new AtomicInteger();
+		final AtomicInteger maxActive = new AtomicInteger();
+		final AtomicInteger active = new AtomicInteger();
+
+		Stopwatch timer = Stopwatch.createStarted();
+		List<Future<?>> futures = new ArrayList<>();
+		for (int i = 0; i < TASKS; i++)
+		{
+			futures.add(executor.submit(new Runnable()
+			{
+
+				@Override
+				public void run()
+				{
+					int now = active.incrementAndGet();
+					int max;
+					while (now > (max = maxActive.get()) && !maxActive.compareAndSet(max, now))
+					{
+						// retry
+					}
+					try
+					{
+						Thread.sleep(BLOCK_MILLIS);
+					}
+					catch (InterruptedException e)
+					{
+						Thread.currentThread().interrupt();
+					}
+					active.decrementAndGet();
+					completed.incrementAndGet();
+				}
+			}));
+		}
+		for (Future<?> future : futures)
+		{
+			future.get();
+		}
+		long elapsed = timer.elapsed(TimeUnit.MILLISECONDS);
+		executor.shutdown(10, TimeUnit.SECONDS);
+
+		logger.info("{}: {} tasks blocking {}ms took {}ms, max concurrent {}", mode, TASKS, BLOCK_MILLIS, elapsed,
+				maxActive.get());
+
+		assertEquals(TASKS, completed.get());
+		assertEquals(0, executor.getActiveCount());
+	}
+}
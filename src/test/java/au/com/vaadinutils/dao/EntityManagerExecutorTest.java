@@ -0,0 +1,141 @@
+package au.com.vaadinutils.dao;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import javax.persistence.EntityManager;
+
+import org.junit.Test;
+
+public class EntityManagerExecutorTest
+{
+	@Test
+	public void testIsWorkerThread() throws Exception
+	{
+		final EntityManagerExecutor executor = new EntityManagerExecutor("test", 1, 1,
+				EntityManagerExecutor.DEFAULT_REJECTION_POLICY);
+		try
+		{
+			assertFalse(EntityManagerExecutor.isWorkerThread());
+			assertTrue(executor.submit(new Callable<Boolean>()
+			{
+
+				@Override
+				public Boolean call() throws Exception
+				{
+					return EntityManagerExecutor.isWorkerThread();
+				}
+			}).get());
+			assertFalse(EntityManagerExecutor.isWorkerThread());
+		}
+		finally
+		{
+			executor.shutdown(1, TimeUnit.SECONDS);
+		}
+	}
+
+	@Test
+	public void testForkInlineHidesCallersEntityManager() throws Exception
+	{
+		final EntityManager callerEm = (EntityManager) Proxy.newProxyInstance(getClass().getClassLoader(),
+				new Class<?>[] { EntityManager.class }, new InvocationHandler()
+				{
+
+					@Override
+					public Object invoke(Object proxy, Method method, Object[] args)
+					{
+						// closed, so it can be cleared
+						return method.getReturnType() == boolean.class ? false : null;
+					}
+				});
+		final EntityManagerExecutor executor = new EntityManagerExecutor("test", 1, 1,
+				EntityManagerExecutor.DEFAULT_REJECTION_POLICY);
+		try
+		{
+			assertTrue(executor.submit(new Callable<Boolean>()
+			{
+
+				@Override
+				public Boolean call() throws Exception
+				{
+					EntityManagerProvider.setCurrentEntityManager(callerEm);
+					try
+					{
+						final EntityManager forked = EntityManagerProvider.fork(new Callable<EntityManager>()
+						{
+
+							@Override
+							public EntityManager call()
+							{
+								return EntityManagerProvider.getEntityManager();
+							}
+						}).get();
+						return forked == null && EntityManagerProvider.getEntityManager() == callerEm;
+					}
+					finally
+					{
+						EntityManagerProvider.setCurrentEntityManager(null);
+					}
+				}
+			}).get());
+		}
+		finally
+		{
+			executor.shutdown(1, TimeUnit.SECONDS);
+		}
+	}
+
+	@Test
+	public void testRejectsWhenFull() throws Exception
+	{
+		final EntityManagerExecutor executor = new EntityManagerExecutor("test", 1, 1,
+				EntityManagerExecutor.DEFAULT_REJECTION_POLICY);
+		final CountDownLatch release = new CountDownLatch(1);
+		final Runnable blocked = new Runnable()
+		{
+
+			@Override
+			public void run()
+			{
+				try
+				{
+					release.await();
+				}
+				catch (InterruptedException e)
+				{
+					Thread.currentThread().interrupt();
+				}
+			}
+		};
+		try
+		{
+			// one running, one queued
+			executor.submit(blocked);
+			executor.submit(blocked);
+			try
+			{
+				executor.submit(blocked);
+				fail("expected the task to be rejected");
+			}
+			catch (RejectedExecutionException e)
+			{
+				assertEquals(1, executor.getRejectedCount());
+			}
+		}
+		finally
+		{
+			release.countDown();
+			executor.shutdown(1, TimeUnit.SECONDS);
+		}
+	}
+}
@@ -0,0 +1,56 @@
+package au.com.vaadinutils.dao;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Test;
+
+public class InListChunkerTest
+{
+	@Test
+	public void testPaddedSize()
+	{
+		assertEquals(1, InListChunker.paddedSize(0));
+		assertEquals(1, InListChunker.paddedSize(1));
+		assertEquals(2, InListChunker.paddedSize(2));
+		assertEquals(4, InListChunker.paddedSize(3));
+		assertEquals(512, InListChunker.paddedSize(300));
+		assertEquals(512, InListChunker.paddedSize(512));
+	}
+
+	@Test
+	public void testChunk()
+	{
+		assertTrue(InListChunker.chunk(Collections.<Long> emptyList(), 8).isEmpty());
+
+		List<List<Long>> chunks = InListChunker.chunk(Arrays.asList(1L, 2L, 2L, 3L), 8);
+		assertEquals(1, chunks.size());
+		assertEquals(Arrays.asList(1L, 2L, 3L, 3L), chunks.get(0));
+
+		List<Long> ids = new ArrayList<>();
+		for (long i = 0; i < 20; i++)
+		{
+			ids.add(i);
+		}
+		chunks = InListChunker.chunk(ids, 8);
+		assertEquals(3, chunks.size());
+		assertEquals(8, chunks.get(0).size());
+		assertEquals(8, chunks.get(1).size());
+		// 4 ids padded to 4
+		assertEquals(Arrays.asList(16L, 17L, 18L, 19L), chunks.get(2));
+
+		Set<Long> all = new HashSet<>();
+		for (List<Long> chunk : chunks)
+		{
+			all.addAll(chunk);
+		}
+		assertEquals(new HashSet<>(ids), all);
+	}
+}
@@ -0,0 +1,215 @@
+package au.com.vaadinutils.dao;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+
+import com.google.common.base.Function;
+import com.google.common.base.Functions;
+
+public class JpaDslGroupSupportTest
+{
+	static class Contact
+	{
+		private final String surname;
+		private final Contact manager;
+
+		Contact(String surname, Contact manager)
+		{
+			this.surname = surname;
+			this.manager = manager;
+		}
+
+		public String getSurname()
+		{
+			return surname;
+		}
+	}
+
+	private final Comparator<Integer> ascending = new Comparator<Integer>()
+	{
+
+		@Override
+		public int compare(Integer o1, Integer o2)
+		{
+			return JpaDslGroupSupport.compareValues(o1, o2, true);
+		}
+	};
+
+	@Test
+	public void testMerge()
+	{
+		List<List<Integer>> sorted = new ArrayList<>();
+		sorted.add(Arrays.asList(1, 4, 7, 9));
+		sorted.add(Collections.<Integer> emptyList());
+		sorted.add(Arrays.asList(2, 4, 8));
+		sorted.add(Arrays.asList(3));
+
+		assertEquals(Arrays.asList(1, 2, 3, 4, 4, 7, 8, 9), JpaDslGroupSupport.merge(sorted, ascending, null));
+		assertEquals(Arrays.asList(1, 2, 3, 4, 7, 8, 9),
+				JpaDslGroupSupport.merge(sorted, ascending, Functions.<Integer> identity()));
+	}
+
+	@Test
+	public void testAppend()
+	{
+		List<List<Integer>> results = new ArrayList<>();
+		results.add(Arrays.asList(5, 1));
+		results.add(Arrays.asList(1, 3));
+
+		assertEquals(Arrays.asList(5, 1, 1, 3), JpaDslGroupSupport.append(results, null));
+		assertEquals(Arrays.asList(5, 1, 3), JpaDslGroupSupport.append(results, Functions.<Integer> identity()));
+	}
+
+	@Test
+	public void testCompareValues()
+	{
+		assertEquals(-1, JpaDslGroupSupport.compareValues(null, "a", true));
+		assertEquals(1, JpaDslGroupSupport.compareValues(null, "a", false));
+		assertEquals(0, JpaDslGroupSupport.compareValues(null, null, true));
+		assertTrue(JpaDslGroupSupport.compareValues("b", "a", false) < 0);
+	}
+
+	@Test
+	public void testReadPath()
+	{
+		Contact manager = new Contact("Smith", null);
+		Contact contact = new Contact("Jones", manager);
+
+		assertEquals("Jones", JpaDslGroupSupport.readPath(contact, "surname"));
+		assertEquals("Smith", JpaDslGroupSupport.readPath(contact, "manager.surname"));
+		assertNull(JpaDslGroupSupport.readPath(manager, "manager.surname"));
+	}
+
+	@Test
+	public void testRunParallel()
+	{
+		List<Callable<List<Integer>>> queries = new ArrayList<>();
+		for (int i = 0; i < 5; i++)
+		{
+			final int value = i;
+			queries.add(new Callable<List<Integer>>()
+			{
+
+				@Override
+				public List<Integer> call() throws Exception
+				{
+					// finish in the reverse order to the queries
+					Thread.sleep(50 - value * 10);
+					return Arrays.asList(value);
+				}
+			});
+		}
+
+		final ExecutorService executor = Executors.newFixedThreadPool(4);
+		try
+		{
+			List<List<Integer>> results = JpaDslGroupSupport.runParallel(queries,
+					new Function<Callable<List<Integer>>, Future<List<Integer>>>()
+					{
+
+						@Override
+						public Future<List<Integer>> apply(Callable<List<Integer>> query)
+						{
+							return executor.submit(query);
+						}
+					});
+			assertEquals(5, results.size());
+			for (int i = 0; i < 5; i++)
+			{
+				assertEquals(Arrays.asList(i), results.get(i));
+			}
+		}
+		finally
+		{
+			executor.shutdownNow();
+		}
+	}
+
+	@Test
+	public void testRunParallelFailure()
+	{
+		List<Callable<List<Integer>>> queries = new ArrayList<>();
+		queries.add(new Callable<List<Integer>>()
+		{
+
+			@Override
+			public List<Integer> call() throws Exception
+			{
+				return Arrays.asList(0);
+			}
+		});
+		queries.add(new Callable<List<Integer>>()
+		{
+
+			@Override
+			public List<Integer> call() throws Exception
+			{
+				throw new IllegalStateException("query failed");
+			}
+		});
+
+		final ExecutorService executor = Executors.newFixedThreadPool(1);
+		try
+		{
+			JpaDslGroupSupport.runParallel(queries, new Function<Callable<List<Integer>>, Future<List<Integer>>>()
+			{
+
+				@Override
+				public Future<List<Integer>> apply(Callable<List<Integer>> query)
+				{
+					return executor.submit(query);
+				}
+			});
+			fail("expected the query's exception");
+		}
+		catch (IllegalStateException e)
+		{
+			assertEquals("query failed", e.getMessage());
+		}
+		finally
+		{
+			executor.shutdownNow();
+		}
+	}
+
+	@Test
+	public void testRunSequentially()
+	{
+		final List<String> order = new ArrayList<>();
+		List<Callable<List<Integer>>> queries = new ArrayList<>();
+		for (int i = 0; i < 3; i++)
+		{
+			final int value = i;
+			queries.add(new Callable<List<Integer>>()
+			{
+
+				@Override
+				public List<Integer> call() throws Exception
+				{
+					order.add(Thread.currentThread().getName());
+					return Arrays.asList(value);
+				}
+			});
+		}
+
+		List<List<Integer>> results = JpaDslGroupSupport.runSequentially(queries);
+		assertEquals(Arrays.asList(Arrays.asList(0), Arrays.asList(1), Arrays.asList(2)), results);
+		assertEquals(Collections.nCopies(3, Thread.currentThread().getName()), order);
+		assertFalse(JpaDslGroupSupport.hasUncommittedChanges(null));
+	}
+}
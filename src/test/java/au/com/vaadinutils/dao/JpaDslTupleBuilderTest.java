@@ -0,0 +1,169 @@
+package au.com.vaadinutils.dao;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.Tuple;
+import javax.persistence.TypedQuery;
+import javax.persistence.criteria.CriteriaBuilder;
+import javax.persistence.criteria.CriteriaQuery;
+import javax.persistence.criteria.Root;
+import javax.persistence.criteria.Selection;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class JpaDslTupleBuilderTest
+{
+	static class Contact
+	{
+	}
+
+	/**
+	 * records the calls made on a proxy, returning the proxy itself for
+	 * builder style methods
+	 */
+	static class Recorder implements InvocationHandler
+	{
+		final Map<String, Object> returns = new HashMap<>();
+		final Map<String, Object[]> calls = new HashMap<>();
+
+		@Override
+		public Object invoke(Object proxy, Method method, Object[] args)
+		{
+			if (method.getDeclaringClass() == Object.class)
+			{
+				switch (method.getName())
+				{
+					case "equals":
+						return proxy == args[0];
+					case "hashCode":
+						return System.identityHashCode(proxy);
+					default:
+						return method.getDeclaringClass().getSimpleName() + " proxy";
+				}
+			}
+			calls.put(method.getName(), args);
+			if (returns.containsKey(method.getName()))
+			{
+				return returns.get(method.getName());
+			}
+			if (method.getReturnType().isInstance(proxy))
+			{
+				return proxy;
+			}
+			if (method.getReturnType() == boolean.class)
+			{
+				return false;
+			}
+			return null;
+		}
+
+		<T> T proxy(Class<T> type)
+		{
+			return type.cast(Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { type }, this));
+		}
+	}
+
+	private final Recorder em = new Recorder();
+	private final Recorder emf = new Recorder();
+	private final Recorder criteria = new Recorder();
+	private final Recorder query = new Recorder();
+
+	private final Selection<?> surname = new Recorder().proxy(Selection.class);
+
+	@Before
+	public void setUp()
+	{
+		final Recorder builder = new Recorder();
+		builder.returns.put("createTupleQuery", criteria.proxy(CriteriaQuery.class));
+
+		criteria.returns.put("from", new Recorder().proxy(Root.class));
+		criteria.returns.put("getResultType", Tuple.class);
+
+		query.returns.put("getResultList", Collections.emptyList());
+
+		em.returns.put("getCriteriaBuilder", builder.proxy(CriteriaBuilder.class));
+		em.returns.put("getEntityManagerFactory", emf.proxy(EntityManagerFactory.class));
+		em.returns.put("createQuery", query.proxy(TypedQuery.class));
+		em.returns.put("createNamedQuery", query.proxy(TypedQuery.class));
+
+		JpaDslQueryCache.clear();
+		EntityManagerProvider.setCurrentEntityManager(em.proxy(EntityManager.class));
+	}
+
+	@After
+	public void tearDown()
+	{
+		EntityManagerProvider.setCurrentEntityManager(null);
+	}
+
+	@Test
+	public void testResultListSelectsMultiselects()
+	{
+		final JpaDslTupleBuilder<Contact> q = new JpaDslTupleBuilder<>(Contact.class);
+		q.multiselect(surname);
+
+		assertTrue(q.getResultList().isEmpty());
+		assertEquals(Arrays.asList(surname), criteria.calls.get("multiselect")[0]);
+	}
+
+	@Test
+	public void testQueryCacheSelectsMultiselects()
+	{
+		final JpaDslQueryCache.Shape<Tuple> shape = new JpaDslQueryCache.Shape<Tuple>()
+		{
+			@Override
+			public JpaDslAbstract<?, Tuple> build()
+			{
+				final JpaDslTupleBuilder<Contact> q = new JpaDslTupleBuilder<>(Contact.class);
+				q.multiselect(surname);
+				return q;
+			}
+		};
+
+		JpaDslQueryCache.createQuery("surnames", Tuple.class, shape);
+		assertEquals(Arrays.asList(surname), criteria.calls.get("multiselect")[0]);
+		assertEquals("JpaDslQueryCache.surnames", emf.calls.get("addNamedQuery")[0]);
+
+		JpaDslQueryCache.createQuery("surnames", Tuple.class, shape);
+		final Object[] named = em.calls.get("createNamedQuery");
+		assertEquals("JpaDslQueryCache.surnames", named[0]);
+		assertSame(Tuple.class, named[1]);
+	}
+
+	@Test
+	public void testQueryCacheChecksResultClass()
+	{
+		try
+		{
+			JpaDslQueryCache.createQuery("wrongClass", Long.class, new JpaDslQueryCache.Shape<Long>()
+			{
+				@SuppressWarnings({ "unchecked", "rawtypes" })
+				@Override
+				public JpaDslAbstract<?, Long> build()
+				{
+					return (JpaDslAbstract) new JpaDslTupleBuilder<>(Contact.class);
+				}
+			});
+			fail("expected the result class to be checked");
+		}
+		catch (IllegalArgumentException e)
+		{
+			assertTrue(emf.calls.isEmpty());
+		}
+	}
+}
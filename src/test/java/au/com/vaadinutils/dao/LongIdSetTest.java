@@ -0,0 +1,98 @@
+package au.com.vaadinutils.dao;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeSet;
+
+import org.junit.Test;
+
+public class LongIdSetTest
+{
+	@Test
+	public void testAddRemoveContains()
+	{
+		final LongIdSet ids = new LongIdSet();
+		assertTrue(ids.add(5L));
+		assertTrue(ids.add(1L));
+		assertTrue(ids.add(9L));
+		assertFalse(ids.add(5L));
+		assertEquals(3, ids.size());
+		assertTrue(ids.contains(5L));
+		assertTrue(ids.contains((Object) 9L));
+		assertFalse(ids.contains(4L));
+		assertFalse(ids.contains((Object) 5));
+		assertArrayEquals(new long[] { 1, 5, 9 }, ids.toLongArray());
+
+		assertTrue(ids.remove(5L));
+		assertFalse(ids.remove(5L));
+		assertFalse(ids.remove((Object) "1"));
+		assertEquals(Arrays.asList(1L, 9L), new ArrayList<>(ids));
+	}
+
+	@Test
+	public void testBulkMatchesTreeSet()
+	{
+		final Random random = new Random(42);
+		final LongIdSet ids = new LongIdSet();
+		final TreeSet<Long> expected = new TreeSet<>();
+		for (int round = 0; round < 50; round++)
+		{
+			final List<Long> batch = new ArrayList<>();
+			for (int i = 0; i < random.nextInt(200); i++)
+			{
+				batch.add((long) random.nextInt(1000));
+			}
+			if (random.nextBoolean())
+			{
+				assertEquals(expected.addAll(batch), ids.addAll(batch));
+			}
+			else
+			{
+				assertEquals(expected.removeAll(batch), ids.removeAll(batch));
+			}
+			assertEquals(expected, ids);
+			assertEquals(new ArrayList<>(expected), new ArrayList<>(ids));
+		}
+
+		final LongIdSet copy = new LongIdSet(ids);
+		copy.add(5000L);
+		ids.removeAll(copy);
+		assertTrue(ids.isEmpty());
+	}
+
+	@Test
+	public void testIteratorRemove()
+	{
+		final LongIdSet ids = new LongIdSet(Arrays.asList(1L, 2L, 3L, 4L));
+		final Iterator<Long> iterator = ids.iterator();
+		while (iterator.hasNext())
+		{
+			if (iterator.next() % 2 == 0)
+			{
+				iterator.remove();
+			}
+		}
+		assertEquals(Arrays.asList(1L, 3L), new ArrayList<>(ids));
+	}
+
+	@Test
+	public void testRuns()
+	{
+		final LongIdSet ids = new LongIdSet(Arrays.asList(1L, 2L, 3L, 4L, 7L, 9L, 10L, 11L, 20L, 21L, 22L, 23L, 24L));
+		final List<long[]> runs = ids.getRuns(4);
+		assertEquals(2, runs.size());
+		assertArrayEquals(new long[] { 1, 4 }, runs.get(0));
+		assertArrayEquals(new long[] { 20, 24 }, runs.get(1));
+		assertEquals(Arrays.asList(7L, 9L, 10L, 11L), ids.getIdsOutsideRuns(4));
+
+		assertTrue(new LongIdSet().getRuns(4).isEmpty());
+	}
+}
@@ -0,0 +1,174 @@
+package au.com.vaadinutils.errorHandling;
+
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.logging.log4j.Logger;
+import org.junit.Test;
+
+import com.google.common.base.Stopwatch;
+
+/**
+ * Compares the throughput of ErrorRateController with the previous queue
+ * based implementation when many threads are acquiring at once, as happens
+ * during an error storm. Only runs with -Pbenchmarks.
+ */
+public class ErrorRateControllerBenchmarkTest
+{
+	private static final Logger logger = org.apache.logging.log4j.LogManager.getLogger();
+
+	private static final int THREADS = 8;
+	private static final int ACQUIRES_PER_THREAD = 200000;
+
+	interface Limiter
+	{
+		boolean acquire();
+	}
+
+	@Test
+	public void benchmark() throws InterruptedException
+	{
+		// warm up both before measuring
+		run(tokenBucket());
+		run(queue());
+
+		long tokenBucket = run(tokenBucket());
+		long queue = run(queue());
+
+		logger.info("token bucket: {} acquires/ms, queue: {} acquires/ms, {} threads", opsPerMs(tokenBucket),
+				opsPerMs(queue), THREADS);
+		assertTrue(tokenBucket > 0 && queue > 0);
+	}
+
+	private long opsPerMs(long nanos)
+	{
+		return (THREADS * (long) ACQUIRES_PER_THREAD) / Math.max(1, TimeUnit.NANOSECONDS.toMillis(nanos));
+	}
+
+	private Limiter tokenBucket()
+	{
+		final ErrorRateController controller = new ErrorRateController(20, 1000, TimeUnit.SECONDS);
+		return new Limiter()
+		{
+
+			@Override
+			public boolean acquire()
+			{
+				return controller.acquire();
+			}
+		};
+	}
+
+	private Limiter queue()
+	{
+		final QueueErrorRateController controller = new QueueErrorRateController(20, 1000, TimeUnit.SECONDS);
+		return new Limiter()
+		{
+
+			@Override
+			public boolean acquire()
+			{
+				return controller.acquire();
+			}
+		};
+	}
+
+	private long run(final Limiter limiter) throws InterruptedException
+	{
+		final AtomicLong granted = new AtomicLong();
+		final CountDownLatch start = new CountDownLatch(1);
+		final CountDownLatch done = new CountDownLatch(THREADS);
+		for (int i = 0; i < THREADS; i++)
+		{
+			new Thread(new Runnable()
+			{
+
+				@Override
+				public void run()
+				{
+					try
+					{
+						start.await();
+						long count = 0;
+						for (int j = 0; j < ACQUIRES_PER_THREAD; j++)
+						{
+							if (limiter.acquire())
+							{
+								count++;
+							}
+						}
+						granted.addAndGet(count);
+					}
+					catch (InterruptedException e)
+					{
+						Thread.currentThread().interrupt();
+					}
+					finally
+					{
+						done.countDown();
+					}
+				}
+			}).start();
+		}
+		Stopwatch timer = Stopwatch.createStarted();
+		start.countDown();
+		done.await();
+		return timer.elapsed(TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * the previous implementation of ErrorRateController
+	 */
+	static class QueueErrorRateController
+	{
+		final LinkedBlockingQueue<Boolean> availablePermits = new LinkedBlockingQueue<>();
+
+		final Stopwatch lastCreated = Stopwatch.createStarted();
+
+		private long maxBurst;
+
+		private double permitRate;
+
+		private TimeUnit permitRateUnits;
+
+		QueueErrorRateController(long maxBurst, double permitRate, TimeUnit permitRateUnits)
+		{
+			this.maxBurst = maxBurst;
+			this.permitRate = permitRate;
+			this.permitRateUnits = permitRateUnits;
+
+			for (int i = 0; i < maxBurst; i++)
+			{
+				availablePermits.add(true);
+			}
+		}
+
+		public boolean acquire()
+		{
+			Boolean permit = availablePermits.poll();
+			if (permit == null)
+			{
+				long permitsToAdd = 0;
+				synchronized (lastCreated)
+				{
+					permitsToAdd = Math.min(maxBurst, (long) (lastCreated.elapsed(permitRateUnits) * permitRate));
+					if (permitsToAdd > 0)
+					{
+						lastCreated.reset();
+						lastCreated.start();
+						permit = true;
+					}
+				}
+				for (int i = 0; i < permitsToAdd - 1; i++)
+				{
+					availablePermits.add(true);
+				}
+			}
+			return permit != null;
+		}
+	}
+}
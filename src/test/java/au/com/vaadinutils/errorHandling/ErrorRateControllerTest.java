@@ -1,5 +1,7 @@
 package au.com.vaadinutils.errorHandling;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
 import java.util.concurrent.CountDownLatch;
@@ -40,6 +42,42 @@ public class ErrorRateControllerTest
 
 	}
 
+	@Test
+	public void testTryAcquire()
+	{
+		ErrorRateController errorRateController = new ErrorRateController(BURST, RATE, TimeUnit.SECONDS);
+		assertFalse(errorRateController.tryAcquire(BURST + 1));
+		assertTrue(errorRateController.tryAcquire(BURST - 5));
+		assertFalse(errorRateController.tryAcquire(6));
+		assertTrue(errorRateController.tryAcquire(5));
+		assertFalse(errorRateController.acquire());
+		assertEquals(0, errorRateController.getAvailablePermits());
+	}
+
+	@Test
+	public void testKeyed()
+	{
+		KeyedErrorRateController<String> errorRateController = new KeyedErrorRateController<>(BURST, RATE,
+				TimeUnit.SECONDS, 100);
+		assertTrue(errorRateController.tryAcquire("a", BURST));
+		assertFalse(errorRateController.acquire("a"));
+		assertTrue(errorRateController.acquire("b"));
+		assertEquals(2, errorRateController.getKeyCount());
+	}
+
+	@Test
+	public void testKeyedIsBounded()
+	{
+		KeyedErrorRateController<Integer> errorRateController = new KeyedErrorRateController<>(BURST, RATE,
+				TimeUnit.SECONDS, 10);
+		for (int key = 0; key < 1000; key++)
+		{
+			// none of the buckets are full
+			assertTrue(errorRateController.acquire(key));
+		}
+		assertTrue(errorRateController.getKeyCount() <= 10);
+	}
+
 	private int runRateTest(ErrorRateController errorRateController, long delay) throws InterruptedException
 	{
 
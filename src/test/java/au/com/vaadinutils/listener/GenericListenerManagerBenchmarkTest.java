@@ -0,0 +1,105 @@
+package au.com.vaadinutils.listener;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.logging.log4j.Logger;
+import org.junit.Test;
+
+import com.google.common.base.Stopwatch;
+
+/**
+ * Compares notifying through the listener manager with the previous
+ * implementation, which copied the listeners into a new LinkedList on every
+ * notification. Run with -Pbenchmarks.
+ */
+public class GenericListenerManagerBenchmarkTest
+{
+	private static final int NOTIFICATIONS = 200000;
+
+	private static final Logger logger = org.apache.logging.log4j.LogManager.getLogger();
+
+	interface Listener
+	{
+		void event();
+	}
+
+	@Test
+	public void benchmark()
+	{
+		for (int listenerCount : new int[] { 10, 100, 1000 })
+		{
+			ListenerManager<Listener> manager = ListenerManagerFactory.createThreadSafeListenerManager("benchmark",
+					listenerCount);
+			Map<Listener, Long> copied = new LinkedHashMap<>();
+			final long[] counter = new long[1];
+			for (int i = 0; i < listenerCount; i++)
+			{
+				Listener listener = new Listener()
+				{
+
+					@Override
+					public void event()
+					{
+						counter[0]++;
+					}
+				};
+				manager.addListener(listener);
+				copied.put(listener, System.currentTimeMillis());
+			}
+			ListenerCallback<Listener> callback = new ListenerCallback<Listener>()
+			{
+
+				@Override
+				public void invoke(Listener listener)
+				{
+					listener.event();
+				}
+			};
+
+			int notifications = NOTIFICATIONS / listenerCount;
+
+			// warm up
+			notifySnapshot(manager, callback, notifications);
+			notifyCopy(copied, callback, notifications);
+
+			long snapshot = notifySnapshot(manager, callback, notifications);
+			long copy = notifyCopy(copied, callback, notifications);
+
+			logger.info("{} listeners: snapshot {}ns/notify, copy {}ns/notify", listenerCount,
+					snapshot / notifications, copy / notifications);
+			assertEquals(4L * notifications * listenerCount, counter[0]);
+		}
+	}
+
+	private long notifySnapshot(ListenerManager<Listener> manager, ListenerCallback<Listener> callback,
+			int notifications)
+	{
+		Stopwatch timer = Stopwatch.createStarted();
+		for (int i = 0; i < notifications; i++)
+		{
+			manager.notifyListeners(callback);
+		}
+		return timer.elapsed(TimeUnit.NANOSECONDS);
+	}
+
+	private long notifyCopy(Map<Listener, Long> listeners, ListenerCallback<Listener> callback, int notifications)
+	{
+		Stopwatch timer = Stopwatch.createStarted();
+		for (int i = 0; i < notifications; i++)
+		{
+			List<Listener> temp = new LinkedList<>();
+			temp.addAll(listeners.keySet());
+			for (Listener listener : temp)
+			{
+				callback.invoke(listener);
+			}
+		}
+		return timer.elapsed(TimeUnit.NANOSECONDS);
+	}
+}
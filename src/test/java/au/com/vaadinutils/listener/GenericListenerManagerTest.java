@@ -0,0 +1,83 @@
+package au.com.vaadinutils.listener;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+public class GenericListenerManagerTest
+{
+	interface Listener
+	{
+		void event();
+	}
+
+	@Test
+	public void testSelfRemoval()
+	{
+		final ListenerManager<Listener> manager = ListenerManagerFactory.createThreadSafeListenerManager("test", 10);
+		final List<String> calls = new ArrayList<>();
+		Listener first = new Listener()
+		{
+
+			@Override
+			public void event()
+			{
+				calls.add("first");
+				manager.removeListener(this);
+			}
+		};
+		Listener second = new Listener()
+		{
+
+			@Override
+			public void event()
+			{
+				calls.add("second");
+			}
+		};
+		manager.addListener(first);
+		manager.addListener(second);
+		manager.addListener(first);
+
+		ListenerCallback<Listener> callback = new ListenerCallback<Listener>()
+		{
+
+			@Override
+			public void invoke(Listener listener)
+			{
+				listener.event();
+			}
+		};
+		manager.notifyListeners(callback);
+		manager.notifyListeners(callback);
+		assertEquals("[first, second, second]", calls.toString());
+
+		manager.removeListener(second);
+		assertFalse(manager.hasListeners());
+	}
+
+	@Test
+	public void testMaxSize()
+	{
+		ListenerManager<Integer> manager = ListenerManagerFactory.createListenerManager("test", 3);
+		for (int i = 0; i < 5; i++)
+		{
+			manager.addListener(i);
+		}
+		final List<Integer> seen = new ArrayList<>();
+		manager.notifyListeners(new ListenerCallback<Integer>()
+		{
+
+			@Override
+			public void invoke(Integer listener)
+			{
+				seen.add(listener);
+			}
+		});
+		assertEquals("[2, 3, 4]", seen.toString());
+	}
+}
@@ -0,0 +1,119 @@
+package au.com.vaadinutils.servlet;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.zip.GZIPInputStream;
+
+import org.junit.Test;
+
+public class AssetCacheTest
+{
+    private static File write(String content) throws IOException
+    {
+        final File file = File.createTempFile("asset", ".js");
+        file.deleteOnExit();
+        Files.write(file.toPath(), content.getBytes("UTF-8"));
+        return file;
+    }
+
+    @Test
+    public void testCachesUntilModified() throws IOException
+    {
+        final AssetCache cache = new AssetCache(1024, 100);
+        final File file = write("var a = 1;");
+
+        final byte[] first = cache.get(file, file.length(), 1000, null);
+        assertEquals("var a = 1;", new String(first, "UTF-8"));
+        assertSame(first, cache.get(file, file.length(), 1000, null));
+
+        Files.write(file.toPath(), "var a = 2;".getBytes("UTF-8"));
+        final byte[] second = cache.get(file, file.length(), 2000, null);
+        assertNotSame(first, second);
+        assertEquals("var a = 2;", new String(second, "UTF-8"));
+        assertEquals(10, cache.getTotalBytes());
+    }
+
+    @Test
+    public void testLimits() throws IOException
+    {
+        final AssetCache cache = new AssetCache(25, 20);
+        final File large = write("this file is too large to cache");
+        assertNull(cache.get(large, large.length(), 1000, null));
+
+        final File a = write("aaaaaaaaaa");
+        final File b = write("bbbbbbbbbb");
+        final File c = write("cccccccccc");
+        final byte[] aContent = cache.get(a, 10, 1000, null);
+        final byte[] bContent = cache.get(b, 10, 1000, null);
+        // a is used more recently than b, so b is dropped
+        assertSame(aContent, cache.get(a, 10, 1000, null));
+        cache.get(c, 10, 1000, null);
+        assertEquals(20, cache.getTotalBytes());
+        assertSame(aContent, cache.get(a, 10, 1000, null));
+        assertNotSame(bContent, cache.get(b, 10, 1000, null));
+    }
+
+    @Test
+    public void testGzip() throws IOException
+    {
+        final AssetCache cache = new AssetCache(4096, 4096);
+        final StringBuilder content = new StringBuilder();
+        for (int i = 0; i < 50; i++)
+        {
+            content.append("function f").append(i).append("() { return ").append(i).append("; }\n");
+        }
+        final File file = write(content.toString());
+
+        final byte[] gzipped = cache.get(file, file.length(), 1000, AssetCache.GZIP);
+        assertTrue(gzipped.length < file.length());
+        assertSame(gzipped, cache.get(file, file.length(), 1000, AssetCache.GZIP));
+        assertArrayEquals(Files.readAllBytes(file.toPath()), gunzip(gzipped));
+    }
+
+    @Test
+    public void testAccepts()
+    {
+        assertTrue(AssetCache.accepts("gzip, deflate, br", "br"));
+        assertTrue(AssetCache.accepts("gzip;q=0.5", "gzip"));
+        assertFalse(AssetCache.accepts("gzip;q=0, br", "gzip"));
+        assertFalse(AssetCache.accepts(null, "gzip"));
+        assertFalse(AssetCache.accepts("deflate", "gzip"));
+        assertTrue(AssetCache.accepts("*", "gzip"));
+        assertFalse(AssetCache.accepts("*, gzip;q=0", "gzip"));
+
+        assertTrue(AssetCache.isCompressible("application/javascript"));
+        assertTrue(AssetCache.isCompressible("text/css"));
+        assertFalse(AssetCache.isCompressible("image/png"));
+        assertTrue(AssetCache.isCompressible("image/svg+xml"));
+        assertTrue(AssetCache.isCompressible("application/xml; charset=UTF-8"));
+        assertTrue(AssetCache.isCompressible("application/json"));
+        assertFalse(AssetCache.isCompressible("application/vnd.openxmlformats-officedocument.wordprocessingml.document"));
+    }
+
+    private static byte[] gunzip(byte[] gzipped) throws IOException
+    {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(gzipped)))
+        {
+            final byte[] buffer = new byte[1024];
+            int read;
+            while ((read = in.read(buffer)) != -1)
+            {
+                out.write(buffer, 0, read);
+            }
+        }
+        return out.toByteArray();
+    }
+}
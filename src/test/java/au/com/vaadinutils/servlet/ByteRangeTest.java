@@ -0,0 +1,58 @@
+package au.com.vaadinutils.servlet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+
+import org.junit.Test;
+
+public class ByteRangeTest
+{
+    @Test
+    public void testSingleRanges()
+    {
+        assertEquals("0-499", ByteRange.parse("bytes=0-499", 1000).get(0).toString());
+        assertEquals("500-999", ByteRange.parse("bytes=500-", 1000).get(0).toString());
+        assertEquals("900-999", ByteRange.parse("bytes=-100", 1000).get(0).toString());
+        assertEquals("0-999", ByteRange.parse("bytes=-2000", 1000).get(0).toString());
+        // clipped to the end of the file
+        assertEquals("990-999", ByteRange.parse("bytes=990-2000", 1000).get(0).toString());
+        assertEquals("bytes 0-499/1000", ByteRange.parse("bytes=0-499", 1000).get(0).contentRange(1000));
+    }
+
+    @Test
+    public void testMultipleRanges()
+    {
+        final List<ByteRange> ranges = ByteRange.parse("bytes=0-9, 20-29,-5", 100);
+        assertEquals(3, ranges.size());
+        assertEquals(10, ranges.get(1).length());
+        assertEquals("95-99", ranges.get(2).toString());
+    }
+
+    @Test
+    public void testUnsatisfiable()
+    {
+        assertTrue(ByteRange.parse("bytes=1000-", 1000).isEmpty());
+        assertTrue(ByteRange.parse("bytes=-0", 1000).isEmpty());
+        assertTrue(ByteRange.parse("bytes=0-", 0).isEmpty());
+    }
+
+    @Test
+    public void testIgnored()
+    {
+        assertNull(ByteRange.parse(null, 1000));
+        assertNull(ByteRange.parse("items=0-1", 1000));
+        assertNull(ByteRange.parse("bytes=5-1", 1000));
+        assertNull(ByteRange.parse("bytes=a-b", 1000));
+        assertNull(ByteRange.parse("bytes=1", 1000));
+
+        final StringBuilder many = new StringBuilder("bytes=0-0");
+        for (int i = 1; i <= ByteRange.MAX_RANGES; i++)
+        {
+            many.append(",").append(i).append("-").append(i);
+        }
+        assertNull(ByteRange.parse(many.toString(), 1000));
+    }
+}
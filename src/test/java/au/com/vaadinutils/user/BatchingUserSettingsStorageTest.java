@@ -0,0 +1,267 @@
+package au.com.vaadinutils.user;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.vaadin.server.VaadinSession;
+
+public class BatchingUserSettingsStorageTest
+{
+	/**
+	 * counts the calls that would each be a round trip to the database
+	 */
+	private static class CountingStorage extends UserSettingsStorageNoOpImpl
+	{
+		int gets = 0;
+		int getAlls = 0;
+		int writes = 0;
+
+		@Override
+		public String get(String key)
+		{
+			gets++;
+			return super.get(key);
+		}
+
+		@Override
+		public Map<String, String> getAll(String prefix)
+		{
+			getAlls++;
+			return super.getAll(prefix);
+		}
+
+		@Override
+		public void store(String key, String value)
+		{
+			writes++;
+			super.store(key, value);
+		}
+
+		@Override
+		public void storeAll(Map<String, String> settings)
+		{
+			writes++;
+			map.putAll(settings);
+		}
+	}
+
+	/**
+	 * one session, with the writes run when the test says
+	 */
+	private static class TestStorage extends BatchingUserSettingsStorage
+	{
+		final SessionSettings settings = new SessionSettings();
+		int scheduled = 0;
+
+		TestStorage(UserSettingsStorage storage)
+		{
+			super(storage);
+		}
+
+		@Override
+		SessionSettings getSessionSettings()
+		{
+			return settings;
+		}
+
+		@Override
+		void scheduleWrite(VaadinSession session, SessionSettings settings)
+		{
+			scheduled++;
+		}
+	}
+
+	@Test
+	public void testGetAllLoadsOnce()
+	{
+		final CountingStorage storage = new CountingStorage();
+		storage.map.put("grid-width-name", "100");
+		storage.map.put("grid-order", "[name, age]");
+		storage.map.put("other-order", "[id]");
+		final TestStorage batching = new TestStorage(storage);
+
+		final Map<String, String> expected = new HashMap<>();
+		expected.put("grid-width-name", "100");
+		expected.put("grid-order", "[name, age]");
+		assertEquals(expected, batching.getAll("grid-"));
+		assertEquals(expected, batching.getAll("grid-"));
+
+		assertEquals("100", batching.get("grid-width-name"));
+		assertNull(batching.get("grid-width-age"));
+		assertEquals(1, storage.getAlls);
+		assertEquals(0, storage.gets);
+
+		// outside of the loaded prefix, read and cached
+		assertEquals("[id]", batching.get("other-order"));
+		assertEquals("[id]", batching.get("other-order"));
+		assertEquals(1, storage.gets);
+	}
+
+	@Test
+	public void testGetAllUnsupported()
+	{
+		final UserSettingsStorage storage = new UserSettingsStorage()
+		{
+			final Map<String, String> map = new HashMap<>();
+
+			@Override
+			public void store(String key, String value)
+			{
+				map.put(key, value);
+			}
+
+			@Override
+			public String get(String key)
+			{
+				return map.get(key);
+			}
+
+			@Override
+			public void erase(String partialKey)
+			{
+			}
+		};
+		storage.store("grid-width-name", "100");
+		final TestStorage batching = new TestStorage(storage);
+
+		assertFalse(batching.supportsGetAll());
+		assertTrue(batching.getAll("grid-").isEmpty());
+		// not treated as loaded, so the get still reads the storage
+		assertEquals("100", batching.get("grid-width-name"));
+	}
+
+	@Test
+	public void testWritesBehindInOneBatch()
+	{
+		final CountingStorage storage = new CountingStorage();
+		final TestStorage batching = new TestStorage(storage);
+
+		for (int width = 50; width <= 150; width += 10)
+		{
+			batching.store("grid-width-name", "" + width);
+		}
+		batching.store("grid-order", "[age, name]");
+		assertEquals(1, batching.scheduled);
+		assertEquals(0, storage.writes);
+		assertEquals("150", batching.get("grid-width-name"));
+
+		batching.write(batching.settings);
+		assertEquals(1, storage.writes);
+		assertEquals("150", storage.map.get("grid-width-name"));
+		assertEquals("[age, name]", storage.map.get("grid-order"));
+
+		// nothing left to write
+		batching.flush();
+		assertEquals(1, storage.writes);
+
+		batching.store("grid-order", "[name, age]");
+		assertEquals(2, batching.scheduled);
+	}
+
+	@Test
+	public void testLoadKeepsUnwrittenChanges()
+	{
+		final CountingStorage storage = new CountingStorage();
+		storage.map.put("grid-width-name", "100");
+		final TestStorage batching = new TestStorage(storage);
+
+		batching.store("grid-width-name", "120");
+		assertEquals("120", batching.getAll("grid-").get("grid-width-name"));
+	}
+
+	@Test
+	public void testEraseDropsUnwrittenChanges()
+	{
+		final CountingStorage storage = new CountingStorage();
+		final TestStorage batching = new TestStorage(storage);
+
+		batching.store("grid-width-name", "120");
+		batching.store("other-order", "[id]");
+		batching.erase("grid");
+		assertNull(batching.get("grid-width-name"));
+
+		batching.write(batching.settings);
+		assertNull(storage.map.get("grid-width-name"));
+		assertEquals("[id]", storage.map.get("other-order"));
+	}
+
+	@Test
+	public void testEraseWaitsForBatchBeingWritten() throws Exception
+	{
+		final CountDownLatch writing = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		final CountingStorage storage = new CountingStorage()
+		{
+			@Override
+			public void storeAll(Map<String, String> settings)
+			{
+				writing.countDown();
+				try
+				{
+					release.await();
+				}
+				catch (InterruptedException e)
+				{
+					Thread.currentThread().interrupt();
+				}
+				super.storeAll(settings);
+			}
+
+			@Override
+			public void erase(String partialKey)
+			{
+				final Iterator<String> keys = map.keySet().iterator();
+				while (keys.hasNext())
+				{
+					if (keys.next().contains(partialKey))
+					{
+						keys.remove();
+					}
+				}
+			}
+		};
+		final TestStorage batching = new TestStorage(storage);
+		batching.store("grid-width-name", "120");
+
+		final Thread writer = new Thread(new Runnable()
+		{
+
+			@Override
+			public void run()
+			{
+				batching.write(batching.settings);
+			}
+		});
+		writer.start();
+		assertTrue(writing.await(5, TimeUnit.SECONDS));
+
+		final Thread eraser = new Thread(new Runnable()
+		{
+
+			@Override
+			public void run()
+			{
+				batching.erase("grid");
+			}
+		});
+		eraser.start();
+		eraser.join(100);
+		assertTrue(eraser.isAlive());
+
+		release.countDown();
+		writer.join(5000);
+		eraser.join(5000);
+		assertFalse(eraser.isAlive());
+		assertNull(storage.map.get("grid-width-name"));
+	}
+}
@@ -0,0 +1,145 @@
+package au.com.vaadinutils.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.logging.log4j.Logger;
+import org.junit.Test;
+
+import com.google.common.base.Stopwatch;
+
+/**
+ * Compares the throughput of BufferedPipe with PipedOutputStreamWrapper,
+ * streaming the same data through each in 8 KB writes, as a BufferedWriter in
+ * front of the pipe would. 1 MB is enough, the wrapper passes it through the
+ * JDK pipe a byte at a time.
+ *
+ * Excluded from the normal build, mvn test -Pbenchmarks logs the results.
+ */
+public class BufferedPipeBenchmarkTest
+{
+	private static final Logger logger = org.apache.logging.log4j.LogManager.getLogger();
+
+	private static final int BYTES = 1024 * 1024;
+	private static final int WRITE_SIZE = 8 * 1024;
+
+	interface Pipe
+	{
+		OutputStream getOutputStream();
+
+		InputStream getInputStream() throws InterruptedException;
+	}
+
+	@Test
+	public void benchmark() throws Exception
+	{
+		// warm up both before measuring
+		run(bufferedPipe());
+		run(pipedOutputStreamWrapper());
+
+		long bufferedPipe = run(bufferedPipe());
+		long wrapper = run(pipedOutputStreamWrapper());
+
+		logger.info("BufferedPipe: {} bytes/ms, PipedOutputStreamWrapper: {} bytes/ms, {} bytes",
+				bytesPerMs(bufferedPipe), bytesPerMs(wrapper), BYTES);
+	}
+
+	private long bytesPerMs(long nanos)
+	{
+		return BYTES / Math.max(1, TimeUnit.NANOSECONDS.toMillis(nanos));
+	}
+
+	private Pipe bufferedPipe()
+	{
+		final BufferedPipe pipe = new BufferedPipe();
+		return new Pipe()
+		{
+
+			@Override
+			public OutputStream getOutputStream()
+			{
+				return pipe;
+			}
+
+			@Override
+			public InputStream getInputStream()
+			{
+				return pipe.getInputStream();
+			}
+		};
+	}
+
+	@SuppressWarnings("deprecation")
+	private Pipe pipedOutputStreamWrapper()
+	{
+		final PipedOutputStreamWrapper pipe = new PipedOutputStreamWrapper();
+		return new Pipe()
+		{
+
+			@Override
+			public OutputStream getOutputStream()
+			{
+				return pipe;
+			}
+
+			@Override
+			public InputStream getInputStream() throws InterruptedException
+			{
+				return pipe.getInputStream();
+			}
+		};
+	}
+
+	/**
+	 * @return the nanoseconds to stream BYTES through the pipe
+	 */
+	private long run(final Pipe pipe) throws Exception
+	{
+		final AtomicReference<Throwable> error = new AtomicReference<>();
+		final Thread producer = new Thread(new Runnable()
+		{
+
+			@Override
+			public void run()
+			{
+				final byte[] chunk = new byte[WRITE_SIZE];
+				try (OutputStream out = pipe.getOutputStream())
+				{
+					for (int written = 0; written < BYTES; written += WRITE_SIZE)
+					{
+						out.write(chunk);
+					}
+				}
+				catch (IOException e)
+				{
+					error.set(e);
+				}
+			}
+		});
+
+		final Stopwatch timer = Stopwatch.createStarted();
+		producer.start();
+		long read = 0;
+		try (InputStream in = pipe.getInputStream())
+		{
+			final byte[] buffer = new byte[WRITE_SIZE];
+			int bytes;
+			while ((bytes = in.read(buffer)) != -1)
+			{
+				read += bytes;
+			}
+		}
+		producer.join();
+		final long elapsed = timer.elapsed(TimeUnit.NANOSECONDS);
+
+		assertNull(error.get());
+		assertEquals(BYTES, read);
+		return elapsed;
+	}
+}
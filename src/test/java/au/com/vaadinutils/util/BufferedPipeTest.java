@@ -0,0 +1,154 @@
+package au.com.vaadinutils.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+public class BufferedPipeTest
+{
+	private static byte[] data(int size)
+	{
+		final byte[] data = new byte[size];
+		for (int i = 0; i < size; i++)
+		{
+			data[i] = (byte) (i * 31);
+		}
+		return data;
+	}
+
+	private static byte[] readAll(InputStream in) throws IOException
+	{
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		final byte[] buffer = new byte[777];
+		int read;
+		while ((read = in.read(buffer)) != -1)
+		{
+			out.write(buffer, 0, read);
+		}
+		return out.toByteArray();
+	}
+
+	private static Thread produce(final BufferedPipe pipe, final byte[] data, final Throwable failure,
+			final AtomicReference<Throwable> writeError)
+	{
+		final Thread thread = new Thread(new Runnable()
+		{
+
+			@Override
+			public void run()
+			{
+				try
+				{
+					// odd sized writes, so they wrap around the buffer
+					for (int off = 0; off < data.length; off += 1001)
+					{
+						pipe.write(data, off, Math.min(1001, data.length - off));
+					}
+					pipe.write(data.length);
+					if (failure == null)
+					{
+						pipe.close();
+					}
+					else
+					{
+						pipe.fail(failure);
+					}
+				}
+				catch (Throwable e)
+				{
+					writeError.set(e);
+				}
+			}
+		});
+		thread.start();
+		return thread;
+	}
+
+	@Test
+	public void testTransfersInOrder() throws Exception
+	{
+		final BufferedPipe pipe = new BufferedPipe(4096, 10, TimeUnit.SECONDS);
+		final byte[] data = data(100000);
+		final AtomicReference<Throwable> writeError = new AtomicReference<>();
+		final Thread producer = produce(pipe, data, null, writeError);
+
+		final byte[] read = readAll(pipe.getInputStream());
+		producer.join();
+
+		assertEquals(data.length + 1, read.length);
+		final byte[] expected = new byte[data.length + 1];
+		System.arraycopy(data, 0, expected, 0, data.length);
+		expected[data.length] = (byte) data.length;
+		assertArrayEquals(expected, read);
+		assertNull(writeError.get());
+	}
+
+	@Test
+	public void testFailureReachesReader() throws Exception
+	{
+		final BufferedPipe pipe = new BufferedPipe(4096, 10, TimeUnit.SECONDS);
+		final IllegalStateException failure = new IllegalStateException("query failed");
+		final Thread producer = produce(pipe, data(10000), failure, new AtomicReference<Throwable>());
+
+		final InputStream in = pipe.getInputStream();
+		int total = 0;
+		try
+		{
+			final byte[] buffer = new byte[1000];
+			int read;
+			while ((read = in.read(buffer)) != -1)
+			{
+				total += read;
+			}
+			fail("expected an IOException");
+		}
+		catch (IOException e)
+		{
+			assertEquals(failure, e.getCause());
+		}
+		producer.join();
+		// everything written before the failure is read first
+		assertEquals(10001, total);
+	}
+
+	@Test
+	public void testReaderCloseStopsWriter() throws Exception
+	{
+		final BufferedPipe pipe = new BufferedPipe(1024, 10, TimeUnit.SECONDS);
+		final AtomicReference<Throwable> writeError = new AtomicReference<>();
+		final Thread producer = produce(pipe, data(100000), null, writeError);
+
+		final InputStream in = pipe.getInputStream();
+		assertTrue(in.read(new byte[100]) > 0);
+		in.close();
+		producer.join(10000);
+
+		assertTrue(writeError.get() instanceof IOException);
+	}
+
+	@Test
+	public void testWriterTimesOut() throws Exception
+	{
+		final BufferedPipe pipe = new BufferedPipe(16, 50, TimeUnit.MILLISECONDS);
+		pipe.write(data(16));
+		try
+		{
+			pipe.write(1);
+			fail("expected an IOException");
+		}
+		catch (IOException e)
+		{
+			assertTrue(e.getMessage().contains("reader"));
+		}
+	}
+}